@@ -5,6 +5,7 @@ plugins {
     application
     checkstyle
     pmd
+    id("me.champeau.jmh") version "0.7.2"
 }
 
 group = "com.github.aayushjn"
@@ -23,6 +24,16 @@ dependencies {
     testImplementation("org.junit.jupiter:junit-jupiter")
 }
 
+jmh {
+    jmhVersion = "1.37"
+    warmupIterations = 3
+    iterations = 5
+    fork = 1
+    resultFormat = "JSON"
+    // GC time and allocation rate, to compare heap and off-heap value storage
+    profilers = listOf("gc")
+}
+
 application {
     mainClass = "com.github.aayushjn.keyvaluestore.KeyValueStore"
 }
@@ -0,0 +1,165 @@
+package com.github.aayushjn.keyvaluestore.benchmark;
+
+import com.github.aayushjn.keyvaluestore.Coordinator;
+import com.github.aayushjn.keyvaluestore.model.Store;
+import com.github.aayushjn.keyvaluestore.model.node.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * End-to-end client operations against a cluster of nodes running in this JVM and talking over loopback, for every
+ * transport, threading model and placement. Keys are preloaded through the first node, which owns them all under vote
+ * placement so that the second node reads them remotely; under hash placement they are spread over every node. With
+ * replicas, reads are also served by the nodes holding copies, which `readHeavy` measures by reading through every node
+ * but the first while it keeps writing.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class ClusterBenchmark {
+    @Param({"3", "5", "7"})
+    int nodes;
+
+    @Param({"tcp", "udp", "rmi", "nio"})
+    String transport;
+
+    @Param({"PLATFORM", "VIRTUAL"})
+    Node.ExecutionMode threads;
+
+    @Param({"VOTE", "HASH"})
+    Node.Placement placement;
+
+    @Param({"0", "2"})
+    int replicas;
+
+    private List<Node> cluster;
+    private List<Coordinator> coordinators;
+    private Coordinator owner;
+    private Coordinator reader;
+    private final AtomicLong nextKey = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        String[] addrs = new String[nodes];
+        for (int i = 0; i < nodes; i++) {
+            addrs[i] = HOST + ":" + freePort();
+        }
+
+        cluster = new ArrayList<>(nodes);
+        for (int i = 0; i < nodes; i++) {
+            String[] peers = new String[nodes - 1];
+            for (int j = 0, k = 0; j < nodes; j++) {
+                if (j != i) peers[k++] = addrs[j];
+            }
+            Node node = newNode(Integer.parseInt(addrs[i].substring(HOST.length() + 1)), peers);
+            node.setPlacement(placement);
+            node.setReplication(replicas, Node.Replication.ASYNC);
+            node.listen();
+            cluster.add(node);
+        }
+
+        // every node has to accept writes forwarded to it under hash placement
+        coordinators = new ArrayList<>(nodes);
+        for (Node node : cluster) {
+            coordinators.add(new Coordinator(node, TIMEOUT_MILLIS));
+        }
+        owner = coordinators.get(0);
+        reader = coordinators.get(1);
+        for (int i = 0; i < PRELOADED_KEYS; i++) {
+            if (owner.put("key-" + i, "value-" + i) != Coordinator.Status.OK) {
+                throw new IllegalStateException("could not preload key-" + i);
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        for (Node node : cluster) {
+            node.close();
+        }
+    }
+
+    private Node newNode(int port, String[] peers) throws IOException {
+        Store store = new Store();
+        return switch (transport) {
+            case "tcp" -> new TCPNode(HOST, port, threads, store, TCPNode.DEFAULT_CONNECTIONS_PER_PEER, peers);
+            case "udp" -> new UDPNode(HOST, port, threads, store, peers);
+            case "rmi" -> new RMINode(HOST, port, threads, store, peers);
+            case "nio" -> new NIONode(HOST, port, threads, store, peers);
+            default -> throw new IllegalArgumentException("unknown transport '" + transport + "'");
+        };
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static String randomKey() {
+        return "key-" + ThreadLocalRandom.current().nextInt(PRELOADED_KEYS);
+    }
+
+    /**
+     * Claims a key that no node has seen, which takes a vote of every peer and a commit broadcast
+     */
+    @Benchmark
+    public Coordinator.Status put() {
+        return owner.put("new-" + nextKey.getAndIncrement(), "value");
+    }
+
+    @Benchmark
+    public Coordinator.Result localGet() {
+        return owner.get(randomKey());
+    }
+
+    @Benchmark
+    public Coordinator.Result remoteGet() {
+        return reader.get(randomKey());
+    }
+
+    /**
+     * Reads through a random node other than the first, as seven of every eight operations of `readHeavy`
+     */
+    @Benchmark
+    @Group("readHeavy")
+    @GroupThreads(7)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public Coordinator.Result readHeavyGet() {
+        return coordinators.get(1 + ThreadLocalRandom.current().nextInt(nodes - 1)).get(randomKey());
+    }
+
+    /**
+     * Overwrites preloaded keys through the first node, which owns them all under vote placement
+     */
+    @Benchmark
+    @Group("readHeavy")
+    @GroupThreads(1)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public Coordinator.Status readHeavyPut() {
+        return owner.put(randomKey(), "value");
+    }
+
+    /**
+     * Reads every entry of the cluster page by page, as the STORE command does
+     */
+    @Benchmark
+    public long store() throws IOException {
+        long[] count = {0};
+        reader.scanAll((key, value) -> count[0]++);
+        return count[0];
+    }
+
+    private static final String HOST = "127.0.0.1";
+    private static final long TIMEOUT_MILLIS = 5000;
+    private static final int PRELOADED_KEYS = 1000;
+}
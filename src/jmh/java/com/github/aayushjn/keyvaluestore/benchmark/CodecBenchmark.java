@@ -0,0 +1,90 @@
+package com.github.aayushjn.keyvaluestore.benchmark;
+
+import com.github.aayushjn.keyvaluestore.model.MessageCodec;
+import com.github.aayushjn.keyvaluestore.model.MessageType;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the console text form of messages, including the Gson encoding of DATA_ALL, against the binary wire format
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class CodecBenchmark {
+    @Param({"10", "1000"})
+    int entries;
+
+    private MessageType put;
+    private String putText;
+    private MessageType commit;
+    private String commitText;
+    private MessageType dataAll;
+    private String dataAllText;
+    private ByteBuffer buffer;
+    private ByteBuffer encodedDataAll;
+
+    @Setup
+    public void setUp() {
+        put = new MessageType.Put("key-42", "a value of moderate length");
+        putText = put.toString();
+        commit = new MessageType.Commit("key-42", "127.0.0.1:10001");
+        commitText = commit.toString();
+
+        Map<String, Object> map = new LinkedHashMap<>();
+        for (int i = 0; i < entries; i++) {
+            map.put("key-" + i, "value-" + i);
+        }
+        dataAll = new MessageType.DataAll(map);
+        dataAllText = dataAll.toString();
+
+        buffer = ByteBuffer.allocate(MessageCodec.sizeOf(dataAll));
+        encodedDataAll = ByteBuffer.wrap(MessageCodec.toBytes(dataAll));
+    }
+
+    @Benchmark
+    public MessageType parsePut() {
+        return MessageType.parseString(putText);
+    }
+
+    @Benchmark
+    public String putToString() {
+        return put.toString();
+    }
+
+    @Benchmark
+    public MessageType parseCommit() {
+        return MessageType.parseString(commitText);
+    }
+
+    @Benchmark
+    public String commitToString() {
+        return commit.toString();
+    }
+
+    @Benchmark
+    public String dataAllToJson() {
+        return dataAll.toString();
+    }
+
+    @Benchmark
+    public MessageType dataAllFromJson() {
+        return MessageType.parseString(dataAllText);
+    }
+
+    @Benchmark
+    public ByteBuffer dataAllEncode() {
+        buffer.clear();
+        MessageCodec.encode(dataAll, buffer);
+        return buffer;
+    }
+
+    @Benchmark
+    public MessageType dataAllDecode() {
+        return MessageCodec.decode(encodedDataAll.duplicate());
+    }
+}
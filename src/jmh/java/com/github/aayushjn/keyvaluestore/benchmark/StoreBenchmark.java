@@ -0,0 +1,89 @@
+package com.github.aayushjn.keyvaluestore.benchmark;
+
+import com.github.aayushjn.keyvaluestore.model.Store;
+import com.github.aayushjn.keyvaluestore.storage.ValueStoreType;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Store operations under contention, with values on the heap and off it. Latency is sampled so that percentiles are
+ * reported; run with the gc profiler (the default for this source set) to compare garbage collection time.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+public class StoreBenchmark {
+    @Param({"HEAP", "OFFHEAP"})
+    ValueStoreType storage;
+
+    @Param({"1000000"})
+    int keyCount;
+
+    @Param({"128"})
+    int valueSize;
+
+    private Store store;
+    private String[] keys;
+    private String[] values;
+
+    @Setup
+    public void setUp() {
+        store = new Store(storage.newValueStore());
+        keys = new String[keyCount];
+        for (int i = 0; i < keyCount; i++) {
+            keys[i] = "key-" + i;
+        }
+        values = new String[VALUE_VARIANTS];
+        for (int i = 0; i < VALUE_VARIANTS; i++) {
+            values[i] = String.valueOf((char) ('a' + i)).repeat(valueSize);
+        }
+        for (int i = 0; i < keyCount; i++) {
+            store.put(keys[i], values[i % VALUE_VARIANTS]);
+        }
+        // every tenth key is owned by a peer, so that hasKey has to consult both maps
+        for (int i = 0; i < keyCount; i += 10) {
+            store.putPeerForKey("peer-" + keys[i], "127.0.0.1:10001");
+        }
+    }
+
+    private String randomKey() {
+        return keys[ThreadLocalRandom.current().nextInt(keyCount)];
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Object get() {
+        return store.get(randomKey());
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void put() {
+        store.put(randomKey(), values[ThreadLocalRandom.current().nextInt(VALUE_VARIANTS)]);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public boolean hasKey() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return store.hasKey(random.nextBoolean() ? randomKey() : "peer-" + randomKey());
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(6)
+    public Object mixedGet() {
+        return store.get(randomKey());
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(2)
+    public void mixedPut() {
+        store.put(randomKey(), values[ThreadLocalRandom.current().nextInt(VALUE_VARIANTS)]);
+    }
+
+    private static final int VALUE_VARIANTS = 16;
+}
@@ -0,0 +1,174 @@
+package com.github.aayushjn.keyvaluestore;
+
+import com.github.aayushjn.keyvaluestore.model.MessageType;
+import com.github.aayushjn.keyvaluestore.model.node.Node;
+import com.github.aayushjn.keyvaluestore.net.tcp.FramedConnection;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.*;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Serves client applications on a port of their own, apart from the one peers talk to. Clients exchange the same
+ * length-prefixed frames tagged with correlation IDs as peers do: GET, PUT and DEL are answered with a
+ * {@link MessageType.Reply}, and SCAN with a {@link MessageType.Page} of the whole cluster.
+ * <p>
+ * Every request is handled on a task of its own, so a client may have many requests in flight on one connection and
+ * receives each reply as soon as it is ready. At most {@link #MAX_IN_FLIGHT} requests of a connection are handled at a
+ * time, and no more frames are read from it until one of them has been answered.
+ */
+public class ClientServer implements Closeable {
+    private final Coordinator coordinator;
+    private final ServerSocket listenSocket;
+    private final ExecutorService executor;
+    private final Set<FramedConnection> connections;
+    private final CountDownLatch closed;
+
+    /**
+     * @param executor executor that runs the accept loop, the reader of each connection and every request, which is
+     *                 shut down when the server closes; it must run every task on a thread of its own, as the accept
+     *                 loop and the readers never finish
+     */
+    public ClientServer(String addr, int port, Coordinator coordinator, ExecutorService executor) throws IOException {
+        this.coordinator = coordinator;
+        this.executor = executor;
+        connections = ConcurrentHashMap.newKeySet();
+        closed = new CountDownLatch(1);
+
+        InetAddress bindAddr;
+        try {
+            bindAddr = InetAddress.getByName(addr);
+        } catch (UnknownHostException e) {
+            bindAddr = InetAddress.getLoopbackAddress();
+        }
+        listenSocket = new ServerSocket();
+        listenSocket.setReuseAddress(true);
+        listenSocket.bind(new InetSocketAddress(bindAddr, port), BACKLOG);
+        logger.info(() -> "serving clients on " + listenSocket.getLocalSocketAddress());
+    }
+
+    public void listen() {
+        executor.submit(this::acceptConnections);
+    }
+
+    private void acceptConnections() {
+        while (!listenSocket.isClosed()) {
+            Socket socket;
+            try {
+                socket = listenSocket.accept();
+                socket.setTcpNoDelay(true);
+            } catch (SocketException ignored) {
+                // listen socket is closed when the server shuts down
+                return;
+            } catch (IOException e) {
+                logger.log(Level.WARNING, e, e::getMessage);
+                continue;
+            }
+            executor.submit(() -> serve(socket));
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (FramedConnection connection = new FramedConnection(socket)) {
+            connections.add(connection);
+            Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+            FramedConnection.Frame frame;
+            while ((frame = connection.read()) != null) {
+                FramedConnection.Frame request = frame;
+                // a client that sends faster than its requests are answered waits here, with its frames left unread
+                inFlight.acquire();
+                try {
+                    executor.execute(() -> {
+                        try {
+                            respond(connection, request);
+                        } finally {
+                            inFlight.release();
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    // the server is shutting down
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            // the server is shutting down
+            Thread.currentThread().interrupt();
+        } catch (SocketException ignored) {
+            // ignore this since the socket is most likely closed
+        } catch (IOException e) {
+            logger.log(Level.WARNING, e, e::getMessage);
+        } finally {
+            connections.removeIf(FramedConnection::isClosed);
+        }
+    }
+
+    private void respond(FramedConnection connection, FramedConnection.Frame frame) {
+        MessageType resp;
+        try {
+            resp = handle(frame.message());
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, e, e::getMessage);
+            resp = new MessageType.Nak(frame.message().getKey());
+        }
+        if (frame.id() == FramedConnection.NO_RESPONSE) return;
+        try {
+            connection.write(frame.id(), resp);
+        } catch (IOException e) {
+            // the client is gone, and its reader notices as well
+            logger.log(Level.FINE, e, e::getMessage);
+        }
+    }
+
+    private MessageType handle(MessageType mt) {
+        if (mt instanceof MessageType.Get) {
+            Coordinator.Result result = coordinator.get(mt.getKey());
+            return new MessageType.Reply(mt.getKey(), result.status().name(), result.value());
+        } else if (mt instanceof MessageType.Put) {
+            return new MessageType.Reply(mt.getKey(), coordinator.put(mt.getKey(), mt.getValue()).name(), null);
+        } else if (mt instanceof MessageType.Del) {
+            return new MessageType.Reply(mt.getKey(), coordinator.delete(mt.getKey()).name(), null);
+        } else if (mt instanceof MessageType.Scan scan) {
+            MessageType.Page page = coordinator.scanPage(scan.getCursor(), scan.getCount());
+            if (page != null) return page;
+            return new MessageType.Reply(scan.getCursor(), Coordinator.Status.PEER_FAILED.name(), null);
+        } else if (mt instanceof MessageType.Stats) {
+            return new MessageType.Data(Node.STATS_KEY, coordinator.getNode().getStatsReport());
+        } else if (mt instanceof MessageType.Ping) {
+            return new MessageType.Pong();
+        }
+        logger.warning(() -> "Unsupported client request " + mt);
+        return new MessageType.Nak(mt.getKey());
+    }
+
+    /**
+     * Blocks until the server is closed
+     */
+    public void awaitClose() throws InterruptedException {
+        closed.await();
+    }
+
+    @Override
+    public void close() throws IOException {
+        listenSocket.close();
+        for (FramedConnection connection : connections) {
+            connection.close();
+        }
+        executor.shutdownNow();
+        closed.countDown();
+    }
+
+    private static final int BACKLOG = 128;
+    /**
+     * Requests of a single connection that are handled at the same time
+     */
+    private static final int MAX_IN_FLIGHT = 64;
+    private static final Logger logger = Logger.getLogger(ClientServer.class.getName());
+}
@@ -0,0 +1,560 @@
+package com.github.aayushjn.keyvaluestore;
+
+import com.github.aayushjn.keyvaluestore.metrics.Metrics;
+import com.github.aayushjn.keyvaluestore.model.MessageType;
+import com.github.aayushjn.keyvaluestore.model.Store;
+import com.github.aayushjn.keyvaluestore.model.node.Node;
+import com.github.aayushjn.keyvaluestore.net.AsyncMessenger;
+import com.github.aayushjn.keyvaluestore.net.ScatterGather;
+import com.github.aayushjn.keyvaluestore.util.StripedLock;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Carries out client operations on behalf of a node, whether the keys involved are owned by the node itself or by one
+ * of its peers. The console and any other front end share it, so that every front end behaves the same.
+ * <p>
+ * If the node replicates keys, every write of a key this node owns is stamped with a version and pushed to the replicas
+ * of the key, and reads are spread over the owner and the replicas of a key.
+ */
+public class Coordinator {
+    private final Node node;
+    private final Store store;
+    private final AsyncMessenger messenger;
+    private final ScatterGather scatterGather;
+    private final Metrics metrics;
+    /**
+     * Serializes the writes of a key with the versions they are stamped with, so that replicas end up with the value
+     * this node holds
+     */
+    private final StripedLock writeLocks;
+    private final AtomicLong clock;
+    private final Map<String, AtomicInteger> readsInFlight;
+
+    /**
+     * @param timeoutMillis deadline for each operation that fans out to all peers
+     */
+    public Coordinator(Node node, long timeoutMillis) {
+        this.node = node;
+        store = node.getStore();
+        messenger = node.getMessenger();
+        scatterGather = new ScatterGather(messenger, timeoutMillis);
+        metrics = node.getMetrics();
+        writeLocks = new StripedLock(Runtime.getRuntime().availableProcessors() * WRITE_LOCK_STRIPES_PER_CORE);
+        clock = new AtomicLong();
+        readsInFlight = new ConcurrentHashMap<>();
+        node.setWriteHandler(this::applyForwarded);
+        node.setRepairHandler(this::repair);
+        node.setHandOffHandler(this::handOff);
+        // promises made to peers hold for as long as their votes may, given that peers share the deadline
+        node.setPromiseTimeout(timeoutMillis);
+    }
+
+    /**
+     * Reads a key from this node if it owns the key or holds a copy of it, or else from the least loaded of the owner
+     * and the replicas of the key, trying the others in turn if it fails
+     */
+    public Result get(String key) {
+        long start = System.nanoTime();
+        String owner = getOwner(key);
+        if (owner == null) return new Result(Status.NOT_FOUND, null);
+        List<String> replicas = node.getReplicas(key, owner);
+        if (owner.equals(node.getSelfAddr())) {
+            Result result;
+            try {
+                result = new Result(Status.OK, store.get(key));
+            } catch (IllegalArgumentException e) {
+                // deleted since it was found, or never written under hash placement
+                result = new Result(Status.NOT_FOUND, null);
+            }
+            metrics.operation(Metrics.Operation.GET_LOCAL).record(System.nanoTime() - start);
+            return result;
+        }
+        if (replicas.contains(node.getSelfAddr())) {
+            Object value = store.getReplica(key);
+            if (value != null) {
+                metrics.operation(Metrics.Operation.GET_LOCAL).record(System.nanoTime() - start);
+                return new Result(Status.OK, value);
+            }
+            // the copy has not caught up with the owner yet, so read it remotely
+        }
+        for (String peer : rankReadTargets(owner, replicas)) {
+            MessageType resp;
+            try {
+                resp = read(key, peer);
+            } catch (IOException e) {
+                // try the next copy
+                continue;
+            }
+            if (resp != null && resp.getValue() != null) {
+                metrics.operation(Metrics.Operation.GET_REMOTE).record(System.nanoTime() - start);
+                return new Result(Status.OK, resp.getValue());
+            }
+            if (resp instanceof MessageType.Data && peer.equals(owner)) {
+                // the owner answered but no longer holds the key, e.g. a delete that has not reached this node yet
+                metrics.operation(Metrics.Operation.GET_REMOTE).record(System.nanoTime() - start);
+                return new Result(Status.NOT_FOUND, null);
+            }
+            // a replica without the key may just be behind the owner, so only the owner can tell it is missing
+        }
+        metrics.operation(Metrics.Operation.GET_REMOTE).recordError(System.nanoTime() - start);
+        return new Result(Status.PEER_FAILED, null);
+    }
+
+    /**
+     * @return owner and replicas of a key other than this node and not suspected to have failed, ordered by the number
+     * of reads this node has in flight to each, with ties broken at random so that reads are spread evenly even when
+     * none are in flight
+     */
+    private List<String> rankReadTargets(String owner, List<String> replicas) {
+        if (replicas.isEmpty()) return node.isSuspected(owner) ? List.of() : List.of(owner);
+        List<String> targets = new ArrayList<>(replicas.size() + 1);
+        if (!node.isSuspected(owner)) targets.add(owner);
+        for (String replica : replicas) {
+            if (!replica.equals(node.getSelfAddr()) && !node.isSuspected(replica)) targets.add(replica);
+        }
+        Collections.shuffle(targets, ThreadLocalRandom.current());
+        targets.sort(Comparator.comparingInt(peer -> readsInFlight(peer).get()));
+        return targets;
+    }
+
+    private MessageType read(String key, String peer) throws IOException {
+        AtomicInteger inFlight = readsInFlight(peer);
+        inFlight.incrementAndGet();
+        try {
+            return messenger.getValueForKey(new MessageType.Get(key), peer);
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    private AtomicInteger readsInFlight(String peer) {
+        return readsInFlight.computeIfAbsent(peer, p -> new AtomicInteger());
+    }
+
+    /**
+     * @return node that owns the key, which may be this one, or null if no node does under vote placement
+     */
+    private String getOwner(String key) {
+        if (node.getPlacement() == Node.Placement.HASH) return node.getOwner(key);
+        return store.hasLocally(key) ? node.getSelfAddr() : store.getPeerForKey(key);
+    }
+
+    /**
+     * Writes a key. Under vote placement, this updates a key owned by this node or claims a new key by a majority vote
+     * of the peers; under hash placement, the write is applied by whichever node the ring assigns the key to.
+     * @return {@link Status#NOT_OWNER} if a peer owns the key under vote placement, {@link Status#CONFLICT} if the vote
+     * was lost or another vote on the key is in progress, or {@link Status#PEER_FAILED} if the owner could not be
+     * reached
+     */
+    public Status put(String key, Object value) {
+        long start = System.nanoTime();
+        Status status;
+        if (node.getPlacement() == Node.Placement.HASH) {
+            String owner = node.getOwner(key);
+            if (owner.equals(node.getSelfAddr())) {
+                update(key, value);
+                status = Status.OK;
+            } else {
+                status = forward(new MessageType.Put(key, value), owner);
+            }
+        } else {
+            status = claimOrUpdate(key, value);
+        }
+        if (status == Status.OK) {
+            metrics.operation(Metrics.Operation.PUT).record(System.nanoTime() - start);
+        } else if (status == Status.CONFLICT || status == Status.PEER_FAILED) {
+            metrics.operation(Metrics.Operation.PUT).recordError(System.nanoTime() - start);
+        }
+        return status;
+    }
+
+    private Status claimOrUpdate(String key, Object value) {
+        if (store.hasLocally(key)) {
+            update(key, value);
+            return Status.OK;
+        }
+        if (store.hasRemotely(key)) return Status.NOT_OWNER;
+        if (!node.beginVote(key)) {
+            // another round for this key is already in progress
+            return Status.CONFLICT;
+        }
+        try {
+            long voteStart = System.nanoTime();
+            if (!scatterGather.vote(new MessageType.Owner(key), node)) {
+                metrics.operation(Metrics.Operation.VOTE).recordError(System.nanoTime() - voteStart);
+                return Status.CONFLICT;
+            }
+            long commitStart = System.nanoTime();
+            metrics.operation(Metrics.Operation.VOTE).record(commitStart - voteStart);
+            apply(key, value);
+            MessageType msg = new MessageType.Commit(key);
+            scatterGather.broadcast(node.getLivePeers(), peer -> messenger.commitKeyAsync(msg, peer));
+            metrics.operation(Metrics.Operation.COMMIT).record(System.nanoTime() - commitStart);
+            return Status.OK;
+        } finally {
+            node.endVote(key);
+        }
+    }
+
+    /**
+     * Writes a key that this node owns
+     */
+    private void update(String key, Object value) {
+        apply(key, value);
+        invalidatePeers(key);
+    }
+
+    /**
+     * Applies a write of a key this node owns, which is a delete if the value is null, and pushes it to the replicas of
+     * the key
+     */
+    private void apply(String key, Object value) {
+        if (node.getReplicationFactor() == 0) {
+            write(key, value);
+            return;
+        }
+        long version;
+        synchronized (writeLocks.lockFor(key)) {
+            write(key, value);
+            version = nextVersion();
+        }
+        replicate(new MessageType.Replicate(key, value, version));
+    }
+
+    private void write(String key, Object value) {
+        if (value == null) {
+            store.delete(key);
+        } else {
+            store.put(key, value);
+        }
+    }
+
+    /**
+     * Pushes the message to the replicas of its key, waiting for the first of them to acknowledge it under
+     * semi-synchronous replication. A write that no replica acknowledges in time is kept all the same.
+     */
+    private void replicate(MessageType.Replicate mt) {
+        List<String> replicas = liveReplicas(mt.getKey());
+        if (replicas.isEmpty()) return;
+        long start = System.nanoTime();
+        int required = node.getReplication() == Node.Replication.SYNC ? 1 : 0;
+        if (!scatterGather.acknowledge(replicas, peer -> messenger.replicateKeyAsync(mt, peer), required)) {
+            metrics.operation(Metrics.Operation.REPLICATE).recordError(System.nanoTime() - start);
+            logger.warning(() -> "no replica acknowledged " + mt.getKey() + " in time");
+        } else if (required > 0) {
+            metrics.operation(Metrics.Operation.REPLICATE).record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Pushes the value of a key this node owns to the current replicas of the key, in the background
+     */
+    private void repair(String key) {
+        Object value;
+        long version;
+        synchronized (writeLocks.lockFor(key)) {
+            if (!store.hasLocally(key)) return;
+            value = store.get(key);
+            version = nextVersion();
+        }
+        MessageType msg = new MessageType.Replicate(key, value, version);
+        scatterGather.acknowledge(liveReplicas(key), peer -> messenger.replicateKeyAsync(msg, peer), 0);
+    }
+
+    /**
+     * Moves a key held by this node to the node the ring now assigns it to, which has joined since the key was written.
+     * The local copy is only dropped once the new owner has applied the key.
+     */
+    private void handOff(String key) {
+        String owner = node.getOwner(key);
+        if (owner.equals(node.getSelfAddr())) return;
+        Object value;
+        synchronized (writeLocks.lockFor(key)) {
+            if (!store.hasLocally(key)) return;
+            value = store.get(key);
+        }
+        Status status = forward(new MessageType.Put(key, value), owner);
+        if (status == Status.OK) {
+            store.delete(key);
+        } else {
+            logger.warning(() -> "could not hand " + key + " off to " + owner + ": " + status);
+        }
+    }
+
+    /**
+     * @return replicas of a key this node owns, other than those suspected to have failed. A suspected replica misses
+     * the writes made meanwhile, which the replicas that take its place receive instead.
+     */
+    private List<String> liveReplicas(String key) {
+        List<String> replicas = node.getReplicas(key, node.getSelfAddr());
+        if (replicas.stream().noneMatch(node::isSuspected)) return replicas;
+        return replicas.stream().filter(peer -> !node.isSuspected(peer)).toList();
+    }
+
+    /**
+     * @return version newer than any handed out before, which also keeps up with the clock so that versions stay
+     * newer than those a previous run of this node handed out
+     */
+    private long nextVersion() {
+        long now = System.currentTimeMillis() << VERSION_SEQUENCE_BITS;
+        return clock.updateAndGet(last -> Math.max(last + 1, now));
+    }
+
+    /**
+     * Drops the key from the caches of peers, which is done whether or not this node caches itself, as the cache is
+     * configured per node. The write does not wait for the peers to drop it.
+     */
+    private void invalidatePeers(String key) {
+        MessageType msg = new MessageType.Invalidate(key);
+        scatterGather.send(node.getLivePeers(), peer -> messenger.invalidateKeyAsync(msg, peer));
+    }
+
+    /**
+     * Deletes a key owned by this node, or under hash placement, the key wherever the ring assigns it
+     */
+    public Status delete(String key) {
+        long start = System.nanoTime();
+        Status status;
+        if (node.getPlacement() == Node.Placement.HASH && !node.getOwner(key).equals(node.getSelfAddr())) {
+            status = forward(new MessageType.Del(key), node.getOwner(key));
+        } else {
+            status = deleteLocally(key);
+        }
+        if (status == Status.OK) {
+            metrics.operation(Metrics.Operation.DEL).record(System.nanoTime() - start);
+        } else if (status == Status.PEER_FAILED) {
+            metrics.operation(Metrics.Operation.DEL).recordError(System.nanoTime() - start);
+        }
+        return status;
+    }
+
+    private Status deleteLocally(String key) {
+        if (!store.hasLocally(key)) return Status.NOT_FOUND;
+        apply(key, null);
+        if (node.getPlacement() == Node.Placement.HASH) {
+            // peers keep no record of the owner, only possibly a cached value
+            invalidatePeers(key);
+        } else {
+            MessageType msg = new MessageType.Del(key);
+            scatterGather.broadcast(node.getLivePeers(), peer -> messenger.deleteKeyAsync(msg, peer));
+        }
+        return Status.OK;
+    }
+
+    /**
+     * Has the owner of a key apply a PUT or DEL under hash placement
+     */
+    private Status forward(MessageType mt, String owner) {
+        // fail fast rather than wait for a peer that is most likely down to time out
+        if (node.isSuspected(owner)) return Status.PEER_FAILED;
+        try {
+            if (messenger.writeKey(mt, owner) instanceof MessageType.Reply reply) {
+                return Status.valueOf(reply.getStatus());
+            }
+        } catch (IOException e) {
+            // reported as a failed peer below
+        }
+        return Status.PEER_FAILED;
+    }
+
+    /**
+     * Applies a PUT or DEL that a peer forwarded to this node as the owner of the key. Writes are never forwarded any
+     * further, so a peer whose ring disagrees with this one is told that this node is not the owner.
+     */
+    private MessageType applyForwarded(MessageType mt) {
+        String key = mt.getKey();
+        Status status;
+        if (!node.getOwner(key).equals(node.getSelfAddr())) {
+            status = Status.NOT_OWNER;
+        } else if (mt instanceof MessageType.Put) {
+            update(key, mt.getValue());
+            status = Status.OK;
+        } else {
+            status = deleteLocally(key);
+        }
+        return new MessageType.Reply(key, status.name(), null);
+    }
+
+    /**
+     * Hands every entry of this node and then of each peer to the consumer, page by page as they arrive, so that no
+     * whole store is ever held in memory
+     * <p>
+     * The first page of every live peer is requested up front, and the next page of a peer while the consumer handles
+     * the current one, so that the round trips overlap with each other and with the consumer. At most two pages of
+     * each peer are held at a time.
+     * @return peers whose entries could not be read completely
+     */
+    public List<String> scanAll(EntryConsumer consumer) throws IOException {
+        long start = System.nanoTime();
+        List<String> peers = new ArrayList<>();
+        List<String> failedPeers = new ArrayList<>();
+        for (String peer : node.getPeers()) {
+            (node.isSuspected(peer) ? failedPeers : peers).add(peer);
+        }
+        List<CompletableFuture<MessageType>> firstPages = new ArrayList<>(peers.size());
+        for (String peer : peers) {
+            firstPages.add(messenger.scanAsync(new MessageType.Scan("", SCAN_PAGE_SIZE), peer));
+        }
+
+        String cursor = "";
+        do {
+            MessageType.Page page = store.scan(cursor, SCAN_PAGE_SIZE, Node.MAX_PAGE_BYTES);
+            accept(consumer, page);
+            cursor = page.getNextCursor();
+        } while (!cursor.isEmpty());
+
+        for (int i = 0; i < peers.size(); i++) {
+            String peer = peers.get(i);
+            CompletableFuture<MessageType> next = firstPages.get(i);
+            while (next != null) {
+                MessageType resp;
+                try {
+                    resp = AsyncMessenger.await(next);
+                } catch (IOException e) {
+                    resp = null;
+                }
+                if (!(resp instanceof MessageType.Page page)) {
+                    failedPeers.add(peer);
+                    break;
+                }
+                cursor = page.getNextCursor();
+                next = cursor.isEmpty()
+                    ? null
+                    : messenger.scanAsync(new MessageType.Scan(cursor, SCAN_PAGE_SIZE), peer);
+                accept(consumer, page);
+            }
+        }
+        if (failedPeers.isEmpty()) {
+            metrics.operation(Metrics.Operation.STORE).record(System.nanoTime() - start);
+        } else {
+            metrics.operation(Metrics.Operation.STORE).recordError(System.nanoTime() - start);
+        }
+        return failedPeers;
+    }
+
+    /**
+     * Reads a page of the entries of the whole cluster, those of this node first and then those of each peer in turn.
+     * The cursor names the node being read and the last key read from it, so a scan resumed after that node has left
+     * ends early.
+     * @param cursor cursor of the previous page, or an empty string to start the scan
+     * @return page whose cursor resumes the scan, or null if the node being read could not be reached
+     */
+    public MessageType.Page scanPage(String cursor, int count) {
+        String addr = node.getSelfAddr();
+        String keyCursor = "";
+        if (!cursor.isEmpty()) {
+            int sepIndex = cursor.indexOf(CURSOR_SEPARATOR);
+            if (sepIndex < 0) throw new IllegalArgumentException("malformed cursor");
+            addr = cursor.substring(0, sepIndex);
+            keyCursor = cursor.substring(sepIndex + 1);
+        }
+        count = Math.min(count, Node.MAX_SCAN_COUNT);
+
+        while (true) {
+            MessageType.Page page;
+            if (addr.equals(node.getSelfAddr())) {
+                page = store.scan(keyCursor, count, Node.MAX_PAGE_BYTES);
+            } else {
+                if (node.isSuspected(addr)) return null;
+                MessageType resp;
+                try {
+                    resp = messenger.scan(new MessageType.Scan(keyCursor, count), addr);
+                } catch (IOException e) {
+                    resp = null;
+                }
+                if (!(resp instanceof MessageType.Page peerPage)) return null;
+                page = peerPage;
+            }
+
+            if (!page.getNextCursor().isEmpty()) {
+                return new MessageType.Page(page.getEntries(), addr + CURSOR_SEPARATOR + page.getNextCursor());
+            }
+            String next = nodeAfter(addr);
+            if (next == null) return new MessageType.Page(page.getEntries(), "");
+            // skip over nodes that have nothing to return, rather than handing out empty pages
+            if (!page.getEntries().isEmpty()) return new MessageType.Page(page.getEntries(), next + CURSOR_SEPARATOR);
+            addr = next;
+            keyCursor = "";
+        }
+    }
+
+    /**
+     * @return node to read after the given one in a cluster-wide scan, or null if there is none
+     */
+    private String nodeAfter(String addr) {
+        List<String> peers = node.getPeers();
+        if (addr.equals(node.getSelfAddr())) return peers.isEmpty() ? null : peers.get(0);
+        int index = peers.indexOf(addr);
+        return index < 0 || index + 1 >= peers.size() ? null : peers.get(index + 1);
+    }
+
+    private static void accept(EntryConsumer consumer, MessageType.Page page) throws IOException {
+        for (Map.Entry<String, Object> entry : page.getEntries().entrySet()) {
+            consumer.accept(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * @return report of the metrics of the peer, or null if it could not be read
+     */
+    public String getPeerStats(String peer) {
+        try {
+            MessageType resp = messenger.getStats(peer);
+            if (resp != null && resp.getValue() != null) return resp.getValue().toString();
+        } catch (IOException e) {
+            // reported as missing
+        }
+        return null;
+    }
+
+    /**
+     * Tells every peer that this node is leaving
+     */
+    public void exit() {
+        scatterGather.broadcast(node.getLivePeers(), messenger::exitAsync);
+    }
+
+    public Node getNode() {
+        return node;
+    }
+
+    public enum Status {
+        OK,
+        NOT_FOUND,
+        NOT_OWNER,
+        CONFLICT,
+        PEER_FAILED;
+    }
+
+    /**
+     * @param value value that was read, or null unless the status is {@link Status#OK}
+     */
+    public record Result(Status status, Object value) {
+    }
+
+    @FunctionalInterface
+    public interface EntryConsumer {
+        void accept(String key, Object value) throws IOException;
+    }
+
+    private static final int SCAN_PAGE_SIZE = 1000;
+    private static final int WRITE_LOCK_STRIPES_PER_CORE = 16;
+    /**
+     * Low bits of a version that count the writes within one millisecond
+     */
+    private static final int VERSION_SEQUENCE_BITS = 20;
+    private static final Logger logger = Logger.getLogger(Coordinator.class.getName());
+    private static final char CURSOR_SEPARATOR = '\0';
+}
@@ -1,28 +1,34 @@
 package com.github.aayushjn.keyvaluestore;
 
 import com.github.aayushjn.keyvaluestore.model.MessageType;
+import com.github.aayushjn.keyvaluestore.model.PayloadCompressor;
 import com.github.aayushjn.keyvaluestore.model.Store;
+import com.github.aayushjn.keyvaluestore.model.node.NIONode;
 import com.github.aayushjn.keyvaluestore.model.node.Node;
 import com.github.aayushjn.keyvaluestore.model.node.RMINode;
 import com.github.aayushjn.keyvaluestore.model.node.TCPNode;
 import com.github.aayushjn.keyvaluestore.model.node.UDPNode;
-import com.github.aayushjn.keyvaluestore.net.Messenger;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
+import com.github.aayushjn.keyvaluestore.net.AntiEntropy;
+import com.github.aayushjn.keyvaluestore.net.FailureDetector;
+import com.github.aayushjn.keyvaluestore.net.ScatterGather;
+import com.github.aayushjn.keyvaluestore.storage.FsyncPolicy;
+import com.github.aayushjn.keyvaluestore.storage.StorageEngine;
+import com.github.aayushjn.keyvaluestore.storage.ValueStoreType;
+import com.github.aayushjn.keyvaluestore.util.Options;
+import com.google.gson.stream.JsonWriter;
 import org.fusesource.jansi.AnsiConsole;
 
 import java.io.*;
-import java.util.Map;
-import java.util.Objects;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.Executors;
 
-import static com.github.aayushjn.keyvaluestore.model.MessageType.DataAll.DATA_LIMIT;
 import static com.github.aayushjn.keyvaluestore.model.node.Node.MSG_KEY_NOT_LOCAL;
 import static com.github.aayushjn.keyvaluestore.model.node.Node.MSG_OK;
 import static org.fusesource.jansi.Ansi.ansi;
 
 public class KeyValueStore {
 
-    @SuppressWarnings("unchecked")
     public static void main(String[] args) {
         if (args.length < 4) {
             System.err.println("Insufficient arguments passed");
@@ -42,25 +48,106 @@ public class KeyValueStore {
             System.exit(1);
         }
         final String[] peers = args[3].split(",");
+        Options options = null;
+        Node.ExecutionMode executionMode = null;
+        long timeout = 0;
+        String dataDir = null;
+        FsyncPolicy fsyncPolicy = null;
+        int fsyncInterval = 0;
+        ValueStoreType valueStoreType = null;
+        int cacheMegabytes = 0;
+        int cacheTtl = 0;
+        int connections = 0;
+        int clientPort = 0;
+        Node.Placement placement = null;
+        int replicas = 0;
+        Node.Replication replication = null;
+        int heartbeat = 0;
+        double phi = 0;
+        boolean join = false;
+        int antiEntropy = 0;
+        int compression = 0;
+        try {
+            options = Options.parse(args, 4);
+            executionMode = options.getEnum("threads", Node.ExecutionMode.class, Node.ExecutionMode.PLATFORM);
+            timeout = options.getInt("timeout", (int) ScatterGather.DEFAULT_TIMEOUT_MILLIS);
+            dataDir = options.get("data-dir", null);
+            fsyncPolicy = options.getEnum("fsync", FsyncPolicy.class, FsyncPolicy.ALWAYS);
+            fsyncInterval = options.getInt("fsync-interval", DEFAULT_FSYNC_INTERVAL_MILLIS);
+            valueStoreType = options.getEnum("storage", ValueStoreType.class, ValueStoreType.HEAP);
+            cacheMegabytes = options.getInt("cache", 0);
+            cacheTtl = options.getInt("cache-ttl", DEFAULT_CACHE_TTL_MILLIS);
+            connections = options.getInt("connections", TCPNode.DEFAULT_CONNECTIONS_PER_PEER);
+            if (connections < 1) throw new IllegalArgumentException("connections must be at least 1");
+            placement = options.getEnum("placement", Node.Placement.class, Node.Placement.VOTE);
+            replicas = options.getInt("replicas", 0);
+            if (replicas < 0) throw new IllegalArgumentException("replicas must not be negative");
+            replication = options.getEnum("replication", Node.Replication.class, Node.Replication.ASYNC);
+            heartbeat = options.getInt("heartbeat", (int) FailureDetector.DEFAULT_INTERVAL_MILLIS);
+            if (heartbeat < 0) throw new IllegalArgumentException("heartbeat must not be negative");
+            phi = options.getDouble("phi", FailureDetector.DEFAULT_THRESHOLD);
+            if (!(phi > 0)) throw new IllegalArgumentException("phi must be positive");
+            join = options.getBoolean("join", false);
+            antiEntropy = options.getInt("anti-entropy", (int) AntiEntropy.DEFAULT_INTERVAL_MILLIS);
+            if (antiEntropy < 0) throw new IllegalArgumentException("anti-entropy must not be negative");
+            compression = options.getInt("compression", PayloadCompressor.DEFAULT_MIN_BYTES);
+            if (compression < 0) throw new IllegalArgumentException("compression must not be negative");
+            clientPort = options.getInt("client-port", 0);
+            if (clientPort < 0 || clientPort > 65535) {
+                throw new IllegalArgumentException("Invalid client port provided");
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
 
         BufferedReader br = new BufferedReader(new InputStreamReader(System.in));
         BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(System.out));
         Node node = null;
+        StorageEngine storage = null;
+        ClientServer clientServer = null;
         AnsiConsole.systemInstall();
         try {
+            Store store = new Store(valueStoreType.newValueStore());
+            if (dataDir != null) {
+                // recover before the node starts serving, so that peers never see a partially loaded store
+                storage = StorageEngine.open(Path.of(dataDir), fsyncPolicy, fsyncInterval, store);
+            }
             switch (mode) {
-                case "tcp" -> node = new TCPNode(host, port, peers);
-                case "udp" -> node = new UDPNode(host, port, peers);
-                case "rmi" -> node = new RMINode(host, port, peers);
+                case "tcp" -> node = new TCPNode(host, port, executionMode, store, connections, peers);
+                case "udp" -> node = new UDPNode(host, port, executionMode, store, peers);
+                case "rmi" -> node = new RMINode(host, port, executionMode, store, peers);
+                case "nio" -> node = new NIONode(host, port, executionMode, store, peers);
                 default -> throw new IllegalArgumentException("unknown mode '" + mode + "'");
             }
 
+            node.setPlacement(placement);
+            node.setReplication(replicas, replication);
+            node.setFailureDetection(heartbeat, phi);
+            node.setAntiEntropy(antiEntropy);
+            node.setCompression(compression);
+            if (cacheMegabytes > 0) {
+                node.enableCache(cacheMegabytes * 1024L * 1024, cacheTtl);
+            }
             node.listen();
 
             boolean stopped = false;
 
-            Store store = node.getStore();
-            Messenger messenger = node.getMessenger();
+            Coordinator coordinator = new Coordinator(node, timeout);
+            if (join) {
+                // the coordinator is in place first, so that keys handed off to this node while it joins are applied
+                node.join(List.of(peers));
+            }
+            if (clientPort > 0) {
+                // a thread for every connection and request, the latter capped per connection by the server
+                clientServer = new ClientServer(
+                    host,
+                    clientPort,
+                    coordinator,
+                    Executors.newThreadPerTaskExecutor(executionMode.newThreadFactory())
+                );
+                clientServer.listen();
+            }
             String input;
             long startTime, endTime;
             do {
@@ -68,9 +155,15 @@ public class KeyValueStore {
                 bw.flush();
                 input = br.readLine();
                 if (input == null) {
-                    for (String peer : node.getPeers()) {
-                        messenger.exit(peer);
+                    if (clientServer != null) {
+                        // without a console, keep serving clients until the process is stopped
+                        try {
+                            clientServer.awaitClose();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
                     }
+                    coordinator.exit();
                     node.close();
                     break;
                 }
@@ -85,64 +178,28 @@ public class KeyValueStore {
 
                 if (mt instanceof MessageType.Get) {
                     startTime = System.nanoTime();
-                    if (store.hasLocally(mt.getKey())) {
-                        bw.write(store.get(mt.getKey()).toString() + "\n");
-                    } else if (store.hasRemotely(mt.getKey())) {
-                        String peer = store.getPeerForKey(mt.getKey());
-                        MessageType resp = messenger.getValueForKey(mt, peer);
-                        bw.write(
-                            Objects.requireNonNullElseGet(
-                                resp.getValue(),
-                                () -> ansi().fgRgb(184, 0, 0).a("Could not get data from peer").reset()
-                            ) + "\n"
+                    Coordinator.Result result = coordinator.get(mt.getKey());
+                    switch (result.status()) {
+                        case OK -> bw.write(result.value().toString() + "\n");
+                        case PEER_FAILED -> bw.write(
+                            ansi().fgRgb(184, 0, 0).a("Could not get data from peer").reset() + "\n"
                         );
-                    } else {
-                        bw.write(ansi().fgRgb(184, 0, 0).a(MSG_KEY_NOT_LOCAL).reset() + "\n");
+                        default -> bw.write(ansi().fgRgb(184, 0, 0).a(MSG_KEY_NOT_LOCAL).reset() + "\n");
                     }
                     endTime = System.nanoTime();
                     bw.write("Running time = " + ((endTime - startTime) / 1000000.0) + " ms\n");
                 } else if (mt instanceof MessageType.Put) {
                     startTime = System.nanoTime();
-                    if (store.hasLocally(mt.getKey())) {
-                        store.put(mt.getKey(), mt.getValue());
-                        bw.write(ansi().fgRgb(166, 166, 166).a(MSG_OK).reset() + "\n");
-                    } else if (store.hasRemotely(mt.getKey())) {
-                        bw.write(ansi().fgRgb(184, 0, 0).a(MSG_KEY_NOT_LOCAL).reset() + "\n");
-                    } else {
-                        node.getVotedOn().add(mt.getKey());
-                        MessageType msg = new MessageType.Owner(mt.getKey());
-                        MessageType resp;
-                        for (String peer : node.getPeers()) {
-                            resp = messenger.requestAcknowledgement(msg, peer);
-                            if (resp instanceof MessageType.Ack) {
-                                node.updateAcks(i -> i + 1);
-                            } else if (resp instanceof MessageType.Nak) {
-                                node.updateNaks(i -> i + 1);
-                            }
-                        }
-                        if (node.hasMajority()) {
-                            store.put(mt.getKey(), mt.getValue());
-                            msg = new MessageType.Commit(mt.getKey());
-                            for (String peer : node.getPeers()) {
-                                messenger.commitKey(msg, peer);
-                            }
-                            bw.write(ansi().fgRgb(166, 166, 166).a(MSG_OK).reset() + "\n");
-                        } else {
-                            bw.write(ansi().fgRgb(184, 0, 0).a("Cannot write data").reset() + "\n");
-                        }
-                        node.resetAcks();
-                        node.resetNaks();
-                        node.getVotedOn().remove(mt.getKey());
+                    switch (coordinator.put(mt.getKey(), mt.getValue())) {
+                        case OK -> bw.write(ansi().fgRgb(166, 166, 166).a(MSG_OK).reset() + "\n");
+                        case NOT_OWNER -> bw.write(ansi().fgRgb(184, 0, 0).a(MSG_KEY_NOT_LOCAL).reset() + "\n");
+                        default -> bw.write(ansi().fgRgb(184, 0, 0).a("Cannot write data").reset() + "\n");
                     }
                     endTime = System.nanoTime();
                     bw.write("Running time = " + ((endTime - startTime) / 1000000.0) + " ms\n");
                 } else if (mt instanceof MessageType.Del) {
                     startTime = System.nanoTime();
-                    if (store.hasLocally(mt.getKey())) {
-                        store.delete(mt.getKey());
-                        for (String peer : node.getPeers()) {
-                            messenger.deleteKey(mt, peer);
-                        }
+                    if (coordinator.delete(mt.getKey()) == Coordinator.Status.OK) {
                         bw.write(ansi().fgRgb(166, 166, 166).a(MSG_OK).reset() + "\n");
                     } else {
                         bw.write(ansi().fgRgb(184, 0, 0).a(MSG_KEY_NOT_LOCAL).reset() + "\n");
@@ -151,26 +208,37 @@ public class KeyValueStore {
                     bw.write("Running time = " + ((endTime - startTime) / 1000000.0) + " ms\n");
                 } else if (mt instanceof MessageType.Store) {
                     startTime = System.nanoTime();
-                    Map<String, Object> localStore = store.getAll();
-                    MessageType resp;
-                    for (String peer : node.getPeers()) {
-                        resp = messenger.getAllData(peer);
-                        localStore.putAll((Map<String, Object>) resp.getValue());
-                    }
-                    Gson gson = new GsonBuilder().setPrettyPrinting().create();
-                    String data = gson.toJson(localStore);
-                    if (data.length() > DATA_LIMIT) {
-                        bw.write("TRIMMED:" + data.substring(0, DATA_LIMIT) + "\n");
-                    } else {
-                        bw.write(data + "\n");
+                    // entries are written page by page as they arrive, so neither side ever holds a whole store
+                    JsonWriter writer = new JsonWriter(bw);
+                    writer.setIndent("  ");
+                    writer.beginObject();
+                    List<String> failedPeers = coordinator.scanAll((key, value) -> {
+                        writer.name(key);
+                        writer.value(String.valueOf(value));
+                    });
+                    writer.endObject();
+                    writer.flush();
+                    bw.write("\n");
+                    for (String peer : failedPeers) {
+                        bw.write(ansi().fgRgb(184, 0, 0).a("Could not get data from " + peer).reset() + "\n");
                     }
                     endTime = System.nanoTime();
                     bw.write("Running time = " + ((endTime - startTime) / 1000000.0) + " ms\n");
+                } else if (mt instanceof MessageType.Stats) {
+                    if (mt.getPeer().isEmpty()) {
+                        bw.write(node.getStatsReport());
+                    } else {
+                        String report = coordinator.getPeerStats(mt.getPeer());
+                        if (report != null) {
+                            bw.write(report);
+                        } else {
+                            String error = "Could not get stats from " + mt.getPeer();
+                            bw.write(ansi().fgRgb(184, 0, 0).a(error).reset() + "\n");
+                        }
+                    }
                 } else if (mt instanceof MessageType.Exit) {
                     startTime = System.nanoTime();
-                    for (String peer : node.getPeers()) {
-                        messenger.exit(peer);
-                    }
+                    coordinator.exit();
                     stopped = true;
                     endTime = System.nanoTime();
                     bw.write("Running time = " + ((endTime - startTime) / 1000000.0) + " ms\n");
@@ -184,6 +252,13 @@ public class KeyValueStore {
             e.printStackTrace();
         } finally {
             AnsiConsole.systemUninstall();
+            if (clientServer != null) {
+                try {
+                    clientServer.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
             if (node != null) {
                 try {
                     br.close();
@@ -193,7 +268,17 @@ public class KeyValueStore {
                     e.printStackTrace();
                 }
             }
+            if (storage != null) {
+                try {
+                    storage.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
         }
         System.exit(0);
     }
+
+    private static final int DEFAULT_FSYNC_INTERVAL_MILLIS = 10;
+    private static final int DEFAULT_CACHE_TTL_MILLIS = 30000;
 }
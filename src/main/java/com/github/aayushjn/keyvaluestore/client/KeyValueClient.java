@@ -0,0 +1,140 @@
+package com.github.aayushjn.keyvaluestore.client;
+
+import com.github.aayushjn.keyvaluestore.Coordinator;
+import com.github.aayushjn.keyvaluestore.model.MessageType;
+import com.github.aayushjn.keyvaluestore.net.tcp.ConnectionPool;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Client of the client port of a node. Requests are spread over a small pool of connections, each of which carries
+ * any number of requests at once, so a single client can keep many requests in flight. Every operation comes in an
+ * asynchronous form, and a blocking form that waits for it.
+ * <p>
+ * Keys that are new to the cluster are claimed by the node the client talks to. Keys owned by another node can be read
+ * through any node, but only changed through their owner.
+ */
+public class KeyValueClient implements Closeable {
+    private final String server;
+    private final ConnectionPool pool;
+    private final long timeoutMillis;
+
+    /**
+     * @param server address of the client port of a node, in the form `host:port`
+     */
+    public KeyValueClient(String server) {
+        this(server, DEFAULT_CONNECTIONS, DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param connections   number of connections to open to the node
+     * @param timeoutMillis time after which a request without a reply fails
+     */
+    public KeyValueClient(String server, int connections, long timeoutMillis) {
+        this.server = server;
+        this.timeoutMillis = timeoutMillis;
+        pool = new ConnectionPool(CLIENT_ADDR, connections, Thread.ofPlatform().daemon().factory());
+        pool.warmUp(List.of(server));
+    }
+
+    /**
+     * @return future of the value of the key, whose status is {@link Coordinator.Status#NOT_FOUND} if no node holds it
+     */
+    public CompletableFuture<Coordinator.Result> getAsync(String key) {
+        return request(new MessageType.Get(key))
+            .thenApply(resp -> new Coordinator.Result(statusOf(resp), resp.getValue()));
+    }
+
+    public Coordinator.Result get(String key) throws IOException {
+        return await(getAsync(key));
+    }
+
+    /**
+     * @param value string or byte array
+     */
+    public CompletableFuture<Coordinator.Status> putAsync(String key, Object value) {
+        return request(new MessageType.Put(key, value)).thenApply(KeyValueClient::statusOf);
+    }
+
+    public Coordinator.Status put(String key, Object value) throws IOException {
+        return await(putAsync(key, value));
+    }
+
+    public CompletableFuture<Coordinator.Status> deleteAsync(String key) {
+        return request(new MessageType.Del(key)).thenApply(KeyValueClient::statusOf);
+    }
+
+    public Coordinator.Status delete(String key) throws IOException {
+        return await(deleteAsync(key));
+    }
+
+    /**
+     * Reads a page of the entries of the whole cluster
+     * @param cursor cursor of the previous page, or an empty string to start the scan
+     */
+    public CompletableFuture<MessageType.Page> scanAsync(String cursor, int count) {
+        return request(new MessageType.Scan(cursor, count)).thenApply(resp -> {
+            if (resp instanceof MessageType.Page page) return page;
+            throw new CompletionException(new IOException("scan failed with " + resp));
+        });
+    }
+
+    /**
+     * Hands every entry of the cluster to the consumer, page by page
+     */
+    public void scanAll(Coordinator.EntryConsumer consumer) throws IOException {
+        String cursor = "";
+        do {
+            MessageType.Page page = await(scanAsync(cursor, SCAN_PAGE_SIZE));
+            for (Map.Entry<String, Object> entry : page.getEntries().entrySet()) {
+                consumer.accept(entry.getKey(), entry.getValue());
+            }
+            cursor = page.getNextCursor();
+        } while (!cursor.isEmpty());
+    }
+
+    private CompletableFuture<MessageType> request(MessageType mt) {
+        try {
+            return pool.checkout(server).request(mt, timeoutMillis);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private static Coordinator.Status statusOf(MessageType resp) {
+        if (resp instanceof MessageType.Reply reply) return Coordinator.Status.valueOf(reply.getStatus());
+        throw new CompletionException(new IOException("unexpected response " + resp));
+    }
+
+    private static <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while awaiting response");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException cause) throw cause;
+            throw new IOException(e.getCause());
+        }
+    }
+
+    @Override
+    public void close() {
+        pool.close();
+    }
+
+    public static final int DEFAULT_CONNECTIONS = 4;
+    public static final long DEFAULT_TIMEOUT_MILLIS = 10000;
+    /**
+     * Name the client gives in the probes of its connection pool, as it has no address peers could reach
+     */
+    private static final String CLIENT_ADDR = "client";
+    private static final int SCAN_PAGE_SIZE = 1000;
+}
@@ -0,0 +1,94 @@
+package com.github.aayushjn.keyvaluestore.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bytes that messages of a single type take up on the wire, against their encoded size, and the time spent
+ * compressing and decompressing them. Messages that were not compressed count with equal sizes and no time.
+ */
+public class Compression implements CompressionMXBean {
+    private final LongAdder messagesSent;
+    private final LongAdder messagesCompressed;
+    private final LongAdder encodedBytesSent;
+    private final LongAdder wireBytesSent;
+    private final LongAdder compressNanos;
+    private final LongAdder messagesReceived;
+    private final LongAdder encodedBytesReceived;
+    private final LongAdder wireBytesReceived;
+    private final LongAdder decompressNanos;
+
+    public Compression() {
+        messagesSent = new LongAdder();
+        messagesCompressed = new LongAdder();
+        encodedBytesSent = new LongAdder();
+        wireBytesSent = new LongAdder();
+        compressNanos = new LongAdder();
+        messagesReceived = new LongAdder();
+        encodedBytesReceived = new LongAdder();
+        wireBytesReceived = new LongAdder();
+        decompressNanos = new LongAdder();
+    }
+
+    /**
+     * @param nanos time spent trying to compress the message, which counts even if it did not pay off
+     */
+    public void recordSent(int encodedBytes, int wireBytes, boolean compressed, long nanos) {
+        messagesSent.increment();
+        if (compressed) messagesCompressed.increment();
+        encodedBytesSent.add(encodedBytes);
+        wireBytesSent.add(wireBytes);
+        compressNanos.add(nanos);
+    }
+
+    public void recordReceived(int encodedBytes, int wireBytes, long nanos) {
+        messagesReceived.increment();
+        encodedBytesReceived.add(encodedBytes);
+        wireBytesReceived.add(wireBytes);
+        decompressNanos.add(nanos);
+    }
+
+    @Override
+    public long getMessagesSent() {
+        return messagesSent.sum();
+    }
+
+    @Override
+    public long getMessagesCompressed() {
+        return messagesCompressed.sum();
+    }
+
+    @Override
+    public long getEncodedBytesSent() {
+        return encodedBytesSent.sum();
+    }
+
+    @Override
+    public long getWireBytesSent() {
+        return wireBytesSent.sum();
+    }
+
+    @Override
+    public long getCompressNanos() {
+        return compressNanos.sum();
+    }
+
+    @Override
+    public long getMessagesReceived() {
+        return messagesReceived.sum();
+    }
+
+    @Override
+    public long getEncodedBytesReceived() {
+        return encodedBytesReceived.sum();
+    }
+
+    @Override
+    public long getWireBytesReceived() {
+        return wireBytesReceived.sum();
+    }
+
+    @Override
+    public long getDecompressNanos() {
+        return decompressNanos.sum();
+    }
+}
@@ -0,0 +1,24 @@
+package com.github.aayushjn.keyvaluestore.metrics;
+
+/**
+ * Management view of {@link Compression}
+ */
+public interface CompressionMXBean {
+    long getMessagesSent();
+
+    long getMessagesCompressed();
+
+    long getEncodedBytesSent();
+
+    long getWireBytesSent();
+
+    long getCompressNanos();
+
+    long getMessagesReceived();
+
+    long getEncodedBytesReceived();
+
+    long getWireBytesReceived();
+
+    long getDecompressNanos();
+}
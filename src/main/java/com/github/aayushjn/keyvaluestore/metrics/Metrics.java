@@ -0,0 +1,269 @@
+package com.github.aayushjn.keyvaluestore.metrics;
+
+import com.github.aayushjn.keyvaluestore.model.MessageType;
+
+import javax.management.*;
+import java.io.Closeable;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Latencies and traffic of a single node: client operations it coordinates, messages it handles for peers, calls it
+ * makes to each peer, the totals of its transport, and the bytes each type of message takes up on the wire. Every
+ * metric is always on; recording costs a few atomic increments.
+ * <p>
+ * Once registered, every metric is also published as an MXBean named
+ * {@code com.github.aayushjn.keyvaluestore:node=<address>,type=<kind>,name=<metric>}, where the kind is one of
+ * {@code Operation}, {@code Handler}, {@code PeerLatency}, {@code PeerTraffic}, {@code Transport} or
+ * {@code Compression}.
+ */
+public class Metrics implements Closeable {
+    private final String transport;
+    private final Map<Operation, Timer> operations;
+    private final ConcurrentMap<Class<?>, Timer> handlers;
+    private final ConcurrentMap<String, PeerMetrics> peers;
+    private final ConcurrentMap<Class<?>, Compression> compressions;
+    private final Traffic traffic;
+    private final List<ObjectName> registered;
+    private volatile String node;
+
+    /**
+     * @param transport name of the transport the node communicates over
+     */
+    public Metrics(String transport) {
+        this.transport = transport;
+        operations = new EnumMap<>(Operation.class);
+        for (Operation op : Operation.values()) {
+            operations.put(op, new Timer());
+        }
+        handlers = new ConcurrentHashMap<>();
+        peers = new ConcurrentHashMap<>();
+        compressions = new ConcurrentHashMap<>();
+        traffic = new Traffic();
+        registered = new CopyOnWriteArrayList<>();
+    }
+
+    public Timer operation(Operation op) {
+        return operations.get(op);
+    }
+
+    /**
+     * @return timer of the handling of messages of the same type as the given one
+     */
+    public Timer handler(MessageType mt) {
+        Timer timer = handlers.get(mt.getClass());
+        if (timer != null) return timer;
+
+        Timer created = new Timer();
+        timer = handlers.putIfAbsent(mt.getClass(), created);
+        if (timer != null) return timer;
+        register("Handler", handlerName(mt.getClass()), created);
+        return created;
+    }
+
+    /**
+     * @return sizes on the wire of messages of the given type, exchanged in either direction
+     */
+    public Compression compression(Class<?> type) {
+        Compression compression = compressions.get(type);
+        if (compression != null) return compression;
+
+        Compression created = new Compression();
+        compression = compressions.putIfAbsent(type, created);
+        if (compression != null) return compression;
+        register("Compression", handlerName(type), created);
+        return created;
+    }
+
+    /**
+     * @return timer of the calls made to the peer, from sending the request until the response arrived
+     */
+    public Timer peerLatency(String peer) {
+        return peer(peer).latency;
+    }
+
+    public Traffic peerTraffic(String peer) {
+        return peer(peer).traffic;
+    }
+
+    /**
+     * @return traffic over the transport in both directions, whether this node or a peer started the exchange
+     */
+    public Traffic getTraffic() {
+        return traffic;
+    }
+
+    private PeerMetrics peer(String peer) {
+        PeerMetrics metrics = peers.get(peer);
+        if (metrics != null) return metrics;
+
+        PeerMetrics created = new PeerMetrics(new Timer(), new Traffic());
+        metrics = peers.putIfAbsent(peer, created);
+        if (metrics != null) return metrics;
+        register("PeerLatency", peer, created.latency);
+        register("PeerTraffic", peer, created.traffic);
+        return created;
+    }
+
+    /**
+     * Publishes every metric to the platform MBean server, including those created from now on
+     * @param node address of the node, which tells the metrics of several nodes in one JVM apart
+     */
+    public void register(String node) {
+        this.node = node;
+        register("Transport", transport, traffic);
+        for (Map.Entry<Operation, Timer> entry : operations.entrySet()) {
+            register("Operation", entry.getKey().name(), entry.getValue());
+        }
+        for (Map.Entry<Class<?>, Timer> entry : handlers.entrySet()) {
+            register("Handler", handlerName(entry.getKey()), entry.getValue());
+        }
+        for (Map.Entry<String, PeerMetrics> entry : peers.entrySet()) {
+            register("PeerLatency", entry.getKey(), entry.getValue().latency);
+            register("PeerTraffic", entry.getKey(), entry.getValue().traffic);
+        }
+        for (Map.Entry<Class<?>, Compression> entry : compressions.entrySet()) {
+            register("Compression", handlerName(entry.getKey()), entry.getValue());
+        }
+    }
+
+    private void register(String type, String name, Object mbean) {
+        String node = this.node;
+        if (node == null) return;
+        try {
+            ObjectName objectName = new ObjectName(
+                DOMAIN + ":node=" + ObjectName.quote(node) + ",type=" + type + ",name=" + ObjectName.quote(name)
+            );
+            ManagementFactory.getPlatformMBeanServer().registerMBean(mbean, objectName);
+            registered.add(objectName);
+        } catch (InstanceAlreadyExistsException e) {
+            // registered concurrently by register(String)
+            logger.log(Level.FINE, e, e::getMessage);
+        } catch (JMException e) {
+            logger.log(Level.WARNING, e, e::getMessage);
+        }
+    }
+
+    /**
+     * Removes every metric from the platform MBean server
+     */
+    @Override
+    public void close() {
+        node = null;
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName objectName : registered) {
+            try {
+                server.unregisterMBean(objectName);
+            } catch (JMException e) {
+                logger.log(Level.FINE, e, e::getMessage);
+            }
+        }
+        registered.clear();
+    }
+
+    /**
+     * @return human-readable table of every metric, with latencies and the time spent compressing and decompressing a
+     * message in microseconds
+     */
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(
+            "Transport %s: %d messages (%d bytes) sent, %d messages (%d bytes) received, %d errors%n",
+            transport, traffic.getMessagesSent(), traffic.getBytesSent(), traffic.getMessagesReceived(),
+            traffic.getBytesReceived(), traffic.getErrors()
+        ));
+        sb.append(String.format(ROW_FORMAT, "", "count", "errors", "mean", "p50", "p99", "p99.9", "max"));
+        for (Map.Entry<Operation, Timer> entry : operations.entrySet()) {
+            appendRow(sb, entry.getKey().name(), entry.getValue());
+        }
+        List<Map.Entry<Class<?>, Timer>> handled = new ArrayList<>(handlers.entrySet());
+        handled.sort(Comparator.comparing(entry -> entry.getKey().getSimpleName()));
+        for (Map.Entry<Class<?>, Timer> entry : handled) {
+            appendRow(sb, "handle " + handlerName(entry.getKey()), entry.getValue());
+        }
+        for (Map.Entry<String, PeerMetrics> entry : new TreeMap<>(peers).entrySet()) {
+            appendRow(sb, "peer " + entry.getKey(), entry.getValue().latency);
+        }
+        for (Map.Entry<String, PeerMetrics> entry : new TreeMap<>(peers).entrySet()) {
+            Traffic peerTraffic = entry.getValue().traffic;
+            sb.append(String.format(
+                "Peer %s: %d messages (%d bytes) sent, %d messages (%d bytes) received, %d errors%n",
+                entry.getKey(), peerTraffic.getMessagesSent(), peerTraffic.getBytesSent(),
+                peerTraffic.getMessagesReceived(), peerTraffic.getBytesReceived(), peerTraffic.getErrors()
+            ));
+        }
+        List<Map.Entry<Class<?>, Compression>> types = new ArrayList<>(compressions.entrySet());
+        if (!types.isEmpty()) {
+            types.sort(Comparator.comparing(entry -> entry.getKey().getSimpleName()));
+            sb.append(String.format(
+                WIRE_FORMAT, "", "sent", "compressed", "bytes", "wire bytes", "us/msg", "received", "bytes",
+                "wire bytes", "us/msg"
+            ));
+            for (Map.Entry<Class<?>, Compression> entry : types) {
+                Compression c = entry.getValue();
+                sb.append(String.format(
+                    WIRE_FORMAT, "wire " + handlerName(entry.getKey()), c.getMessagesSent(), c.getMessagesCompressed(),
+                    c.getEncodedBytesSent(), c.getWireBytesSent(),
+                    perMessageMicros(c.getCompressNanos(), c.getMessagesSent()), c.getMessagesReceived(),
+                    c.getEncodedBytesReceived(), c.getWireBytesReceived(),
+                    perMessageMicros(c.getDecompressNanos(), c.getMessagesReceived())
+                ));
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String perMessageMicros(long nanos, long messages) {
+        return String.format("%.1f", messages == 0 ? 0.0 : nanos / 1000.0 / messages);
+    }
+
+    private static void appendRow(StringBuilder sb, String name, Timer timer) {
+        if (timer.getCount() == 0) return;
+        sb.append(String.format(
+            ROW_FORMAT, name, timer.getCount(), timer.getErrors(), String.format("%.1f", timer.getMeanMicros()),
+            String.format("%.1f", timer.getP50Micros()), String.format("%.1f", timer.getP99Micros()),
+            String.format("%.1f", timer.getP999Micros()), String.format("%.1f", timer.getMaxMicros())
+        ));
+    }
+
+    private static String handlerName(Class<?> type) {
+        return type.getSimpleName().toUpperCase(Locale.ROOT);
+    }
+
+    /**
+     * Client operations coordinated by a node
+     */
+    public enum Operation {
+        GET_LOCAL,
+        GET_REMOTE,
+        PUT,
+        /**
+         * Ownership vote on a new key, a part of {@link #PUT}
+         */
+        VOTE,
+        /**
+         * Commit broadcast that follows a won vote, a part of {@link #PUT}
+         */
+        COMMIT,
+        DEL,
+        STORE,
+        /**
+         * Wait for the first replica to acknowledge a write under semi-synchronous replication, a part of {@link #PUT}
+         * and {@link #DEL}
+         */
+        REPLICATE;
+    }
+
+    private record PeerMetrics(Timer latency, Traffic traffic) {
+    }
+
+    private static final String DOMAIN = "com.github.aayushjn.keyvaluestore";
+    private static final String WIRE_FORMAT = "%-28s %8s %10s %12s %12s %8s %8s %12s %12s %8s%n";
+    private static final String ROW_FORMAT = "%-28s %10s %8s %10s %10s %10s %10s %10s%n";
+    private static final Logger logger = Logger.getLogger(Metrics.class.getName());
+}
@@ -0,0 +1,67 @@
+package com.github.aayushjn.keyvaluestore.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram of an operation, together with the number of times it failed
+ */
+public class Timer implements TimerMXBean {
+    private final Histogram histogram;
+    private final LongAdder errors;
+
+    public Timer() {
+        histogram = new Histogram();
+        errors = new LongAdder();
+    }
+
+    public void record(long nanos) {
+        histogram.record(nanos);
+    }
+
+    /**
+     * Records the latency of an operation that failed, which is counted both as an error and in the histogram
+     */
+    public void recordError(long nanos) {
+        histogram.record(nanos);
+        errors.increment();
+    }
+
+    public Histogram getHistogram() {
+        return histogram;
+    }
+
+    @Override
+    public long getCount() {
+        return histogram.getCount();
+    }
+
+    @Override
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    @Override
+    public double getMeanMicros() {
+        return histogram.getMean() / 1000;
+    }
+
+    @Override
+    public double getP50Micros() {
+        return histogram.getValueAtPercentile(50) / 1000.0;
+    }
+
+    @Override
+    public double getP99Micros() {
+        return histogram.getValueAtPercentile(99) / 1000.0;
+    }
+
+    @Override
+    public double getP999Micros() {
+        return histogram.getValueAtPercentile(99.9) / 1000.0;
+    }
+
+    @Override
+    public double getMaxMicros() {
+        return histogram.getMax() / 1000.0;
+    }
+}
@@ -0,0 +1,20 @@
+package com.github.aayushjn.keyvaluestore.metrics;
+
+/**
+ * Management view of a {@link Timer}, with latencies in microseconds
+ */
+public interface TimerMXBean {
+    long getCount();
+
+    long getErrors();
+
+    double getMeanMicros();
+
+    double getP50Micros();
+
+    double getP99Micros();
+
+    double getP999Micros();
+
+    double getMaxMicros();
+}
@@ -0,0 +1,62 @@
+package com.github.aayushjn.keyvaluestore.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Messages and bytes exchanged with a peer or over a transport, and the number of exchanges that failed. Byte counts
+ * are the encoded sizes of the messages, without framing.
+ */
+public class Traffic implements TrafficMXBean {
+    private final LongAdder messagesSent;
+    private final LongAdder messagesReceived;
+    private final LongAdder bytesSent;
+    private final LongAdder bytesReceived;
+    private final LongAdder errors;
+
+    public Traffic() {
+        messagesSent = new LongAdder();
+        messagesReceived = new LongAdder();
+        bytesSent = new LongAdder();
+        bytesReceived = new LongAdder();
+        errors = new LongAdder();
+    }
+
+    public void recordSent(int bytes) {
+        messagesSent.increment();
+        bytesSent.add(bytes);
+    }
+
+    public void recordReceived(int bytes) {
+        messagesReceived.increment();
+        bytesReceived.add(bytes);
+    }
+
+    public void recordError() {
+        errors.increment();
+    }
+
+    @Override
+    public long getMessagesSent() {
+        return messagesSent.sum();
+    }
+
+    @Override
+    public long getMessagesReceived() {
+        return messagesReceived.sum();
+    }
+
+    @Override
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return bytesReceived.sum();
+    }
+
+    @Override
+    public long getErrors() {
+        return errors.sum();
+    }
+}
@@ -0,0 +1,16 @@
+package com.github.aayushjn.keyvaluestore.metrics;
+
+/**
+ * Management view of {@link Traffic}
+ */
+public interface TrafficMXBean {
+    long getMessagesSent();
+
+    long getMessagesReceived();
+
+    long getBytesSent();
+
+    long getBytesReceived();
+
+    long getErrors();
+}
@@ -1,64 +1,186 @@
 package com.github.aayushjn.keyvaluestore.model;
 
-import java.util.HashSet;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.function.IntUnaryOperator;
 
 /**
  * Abstract class that provides a simple 2-phase commit protocol for the distributed system
  * Unlike normal 2-PC protocol, this variant requires a simple majority, i.e., 51% majority for agreement
+ * <p>
+ * Every item under vote has its own entry in a transaction table, so independent rounds can run concurrently without
+ * sharing tallies. An entry exists either because this node proposed the item, or because it acknowledged a peer's
+ * proposal and must reject competing ones until the round ends.
+ * <p>
+ * A round this node promised to a peer ends with the COMMIT or DEL of the item, which never comes if the peer lost the
+ * vote or ran out of time. A promise is therefore only held for as long as the peer may still be voting, after which
+ * it gives way to the next proposal of the item, so that a split vote does not leave the item unclaimable.
+ * <p>
+ * Peers that are suspected to have failed are left out of votes until they are readmitted, and the majority is taken
+ * over the peers that are left, so that a dead peer neither stalls a vote nor counts against it.
  * @param <S> type of data being voted on
  */
 public abstract class Agreeable<S> {
-    protected final List<String> peers;
-    protected final Set<S> votedOn;
-    protected final AtomicInteger acks;
-    protected final AtomicInteger naks;
-    protected int majority;
+    protected final CopyOnWriteArrayList<String> peers;
+    protected final ConcurrentMap<S, VoteState> transactions;
+    protected final Set<String> suspects;
+    protected volatile int majority;
+    private volatile long promiseTimeoutNanos;
 
     protected Agreeable(String... peers) {
         // use a CopyOnWriteArrayList to ensure that list modifications do not block
         this.peers = new CopyOnWriteArrayList<>(peers);
-        votedOn = new HashSet<>();
-        acks = new AtomicInteger(0);
-        naks = new AtomicInteger(0);
+        transactions = new ConcurrentHashMap<>();
+        suspects = ConcurrentHashMap.newKeySet();
         int peerCount = peers.length;
         majority = peerCount > 0 ? (int) Math.floor(peerCount / 2.0) + 1 : 0;
+        promiseTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_PROMISE_TIMEOUT_MILLIS);
     }
 
-    public boolean hasMajority() {
-        return acks.get() >= majority;
+    /**
+     * @param timeoutMillis time for which a promise to a peer holds unless its round ends, which should be no shorter
+     *                      than the deadline of a vote
+     */
+    public void setPromiseTimeout(long timeoutMillis) {
+        promiseTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
     }
 
-    public void updateAcks(IntUnaryOperator operator) {
-        acks.getAndUpdate(operator);
+    /**
+     * Starts a round for an item proposed by this node
+     * @return false if a round for the item is already in progress, whether proposed locally or by a peer
+     */
+    public boolean beginVote(S item) {
+        return open(item, new VoteState(true));
     }
 
-    public void resetAcks() {
-        acks.set(0);
+    /**
+     * Records this node's acknowledgement of a peer's proposal, which holds until the round ends or the promise times
+     * out
+     * @return false if a round for the item is already in progress, in which case the proposal must be rejected
+     */
+    public boolean promise(S item) {
+        return open(item, new VoteState(false));
     }
 
-    public void updateNaks(IntUnaryOperator operator) {
-        naks.getAndUpdate(operator);
+    private boolean open(S item, VoteState state) {
+        VoteState current = transactions.putIfAbsent(item, state);
+        if (current == null) return true;
+        // a promise that has outlived the vote it was made for gives way to the new round
+        return !current.local && System.nanoTime() - current.startedNanos > promiseTimeoutNanos
+            && transactions.replace(item, current, state);
     }
 
-    public void resetNaks() {
-        naks.set(0);
+    /**
+     * Ends the round for an item, whether it was proposed locally or promised to a peer
+     */
+    public void endVote(S item) {
+        transactions.remove(item);
     }
 
-    public Set<S> getVotedOn() {
-        return votedOn;
+    public boolean isVoting(S item) {
+        return transactions.containsKey(item);
+    }
+
+    public void recordAck(S item) {
+        VoteState state = transactions.get(item);
+        if (state != null && state.local) state.acks.incrementAndGet();
+    }
+
+    public void recordNak(S item) {
+        VoteState state = transactions.get(item);
+        if (state != null && state.local) state.naks.incrementAndGet();
+    }
+
+    public boolean hasMajority(S item) {
+        if (majority == 0) return true;
+        VoteState state = transactions.get(item);
+        return state != null && state.local && state.acks.get() >= majority;
+    }
+
+    /**
+     * @return true if enough peers declined that a majority can no longer be reached
+     */
+    public boolean hasLostMajority(S item) {
+        VoteState state = transactions.get(item);
+        return state == null || !state.local || state.naks.get() > getLivePeers().size() - majority;
     }
 
     public List<String> getPeers() {
         return peers;
     }
 
+    /**
+     * @return peers that are not suspected to have failed
+     */
+    public List<String> getLivePeers() {
+        if (suspects.isEmpty()) return peers;
+        List<String> live = new ArrayList<>(peers.size());
+        for (String peer : peers) {
+            if (!suspects.contains(peer)) live.add(peer);
+        }
+        return live;
+    }
+
+    public boolean isSuspected(String peer) {
+        return suspects.contains(peer);
+    }
+
+    /**
+     * Leaves the peer out of votes and fan-outs until it is {@link #readmit(String) readmitted}
+     */
+    public void suspect(String peer) {
+        if (peers.contains(peer) && suspects.add(peer)) recomputeMajority();
+    }
+
+    public void readmit(String peer) {
+        if (suspects.remove(peer)) recomputeMajority();
+    }
+
+    /**
+     * Adds a peer that has joined, which takes part in votes from then on
+     * @return false if it already was a peer
+     */
+    public boolean addPeer(String peer) {
+        if (!peers.addIfAbsent(peer)) return false;
+        recomputeMajority();
+        return true;
+    }
+
+    /**
+     * Forgets a peer that has left
+     */
+    public void removePeer(String peer) {
+        peers.remove(peer);
+        suspects.remove(peer);
+        recomputeMajority();
+    }
+
     public void recomputeMajority() {
-        int peerCount = peers.size();
+        int peerCount = getLivePeers().size();
         majority = peerCount > 0 ? (int) Math.floor(peerCount / 2.0) + 1 : 0;
     }
+
+    /**
+     * Tally of a single round. Counters are only updated for rounds proposed by this node.
+     */
+    protected static final class VoteState {
+        private final boolean local;
+        private final long startedNanos;
+        private final AtomicInteger acks;
+        private final AtomicInteger naks;
+
+        private VoteState(boolean local) {
+            this.local = local;
+            startedNanos = System.nanoTime();
+            acks = new AtomicInteger(0);
+            naks = new AtomicInteger(0);
+        }
+    }
+
+    private static final long DEFAULT_PROMISE_TIMEOUT_MILLIS = 5000;
 }
@@ -0,0 +1,528 @@
+package com.github.aayushjn.keyvaluestore.model;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary wire format for {@link MessageType}. The text form produced by `toString` is only meant for the console.
+ * <p>
+ * A message is an opcode byte followed by the fields of that message type. Strings are encoded as a varint byte count
+ * followed by UTF-8 bytes, and values as a tag byte followed by the value bytes. On stream transports, each message is
+ * wrapped in a frame that is prefixed by its 4-byte big-endian length, the high bits of which carry the flags of
+ * {@link PayloadCompressor}.
+ */
+public final class MessageCodec {
+    private MessageCodec() {}
+
+    /**
+     * @return number of bytes {@link #encode(MessageType, ByteBuffer)} writes for the message
+     */
+    public static int sizeOf(MessageType mt) {
+        int size = 1;
+        if (mt instanceof MessageType.Get || mt instanceof MessageType.Del || mt instanceof MessageType.Owner
+            || mt instanceof MessageType.Ack || mt instanceof MessageType.Nak || mt instanceof MessageType.Invalidate) {
+            size += sizeOfString(mt.key);
+        } else if (mt instanceof MessageType.Put || mt instanceof MessageType.Data) {
+            size += sizeOfString(mt.key) + sizeOfValue(mt.value);
+        } else if (mt instanceof MessageType.Exit || mt instanceof MessageType.Ping || mt instanceof MessageType.Join) {
+            size += sizeOfString(mt.peer);
+        } else if (mt instanceof MessageType.Commit) {
+            size += sizeOfString(mt.key) + sizeOfString(mt.peer);
+        } else if (mt instanceof MessageType.DataAll) {
+            size += sizeOfEntries((Map<?, ?>) mt.value);
+        } else if (mt instanceof MessageType.Scan scan) {
+            size += sizeOfString(scan.getCursor()) + sizeOfVarint(scan.getCount());
+        } else if (mt instanceof MessageType.Page) {
+            size += sizeOfString(mt.key) + sizeOfEntries((Map<?, ?>) mt.value);
+        } else if (mt instanceof MessageType.Reply reply) {
+            size += sizeOfString(reply.getStatus()) + sizeOfString(mt.key) + sizeOfValue(mt.value);
+        } else if (mt instanceof MessageType.Replicate) {
+            size += sizeOfString(mt.key) + sizeOfString(mt.peer) + Long.BYTES + sizeOfValue(mt.value);
+        } else if (mt instanceof MessageType.Directory) {
+            size += Long.BYTES + sizeOfString(mt.peer);
+        } else if (mt instanceof MessageType.Chunk) {
+            size += Long.BYTES + sizeOfValue(mt.value);
+        } else if (mt instanceof MessageType.Digest digest) {
+            size += sizeOfVarint(digest.getLevel()) + sizeOfInts(digest.getNodes());
+        } else if (mt instanceof MessageType.Hashes hashes) {
+            size += sizeOfVarint(hashes.getHashes().length) + hashes.getHashes().length * Long.BYTES;
+        } else if (mt instanceof MessageType.Range range) {
+            size += sizeOfInts(range.getBuckets()) + sizeOfString(mt.key);
+        } else if (mt instanceof MessageType.Keys keys) {
+            size += sizeOfString(mt.key) + sizeOfVarint(keys.getKeys().size());
+            for (String key : keys.getKeys()) {
+                size += sizeOfString(key);
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Writes the message into the buffer (in write mode)
+     * @throws BufferOverflowException if the buffer does not have {@link #sizeOf(MessageType)} bytes remaining
+     */
+    public static void encode(MessageType mt, ByteBuffer buf) throws BufferOverflowException {
+        if (mt instanceof MessageType.Get) {
+            buf.put(OP_GET);
+            putString(buf, mt.key);
+        } else if (mt instanceof MessageType.Put) {
+            buf.put(OP_PUT);
+            putString(buf, mt.key);
+            putValue(buf, mt.value);
+        } else if (mt instanceof MessageType.Del) {
+            buf.put(OP_DEL);
+            putString(buf, mt.key);
+        } else if (mt instanceof MessageType.Store) {
+            buf.put(OP_STORE);
+        } else if (mt instanceof MessageType.Exit) {
+            buf.put(OP_EXIT);
+            putString(buf, mt.peer);
+        } else if (mt instanceof MessageType.Data) {
+            buf.put(OP_DATA);
+            putString(buf, mt.key);
+            putValue(buf, mt.value);
+        } else if (mt instanceof MessageType.DataAll) {
+            buf.put(OP_DATA_ALL);
+            putEntries(buf, (Map<?, ?>) mt.value);
+        } else if (mt instanceof MessageType.Owner) {
+            buf.put(OP_OWNER);
+            putString(buf, mt.key);
+        } else if (mt instanceof MessageType.Ack) {
+            buf.put(OP_ACK);
+            putString(buf, mt.key);
+        } else if (mt instanceof MessageType.Nak) {
+            buf.put(OP_NAK);
+            putString(buf, mt.key);
+        } else if (mt instanceof MessageType.Commit) {
+            buf.put(OP_COMMIT);
+            putString(buf, mt.key);
+            putString(buf, mt.peer);
+        } else if (mt instanceof MessageType.Scan scan) {
+            buf.put(OP_SCAN);
+            putString(buf, scan.getCursor());
+            putVarint(buf, scan.getCount());
+        } else if (mt instanceof MessageType.Page) {
+            buf.put(OP_PAGE);
+            putString(buf, mt.key);
+            putEntries(buf, (Map<?, ?>) mt.value);
+        } else if (mt instanceof MessageType.Invalidate) {
+            buf.put(OP_INVALIDATE);
+            putString(buf, mt.key);
+        } else if (mt instanceof MessageType.Stats) {
+            buf.put(OP_STATS);
+        } else if (mt instanceof MessageType.Ping) {
+            buf.put(OP_PING);
+            putString(buf, mt.peer);
+        } else if (mt instanceof MessageType.Pong) {
+            buf.put(OP_PONG);
+        } else if (mt instanceof MessageType.Reply reply) {
+            buf.put(OP_REPLY);
+            putString(buf, reply.getStatus());
+            putString(buf, mt.key);
+            putValue(buf, mt.value);
+        } else if (mt instanceof MessageType.Replicate replicate) {
+            buf.put(OP_REPLICATE);
+            putString(buf, mt.key);
+            putString(buf, mt.peer);
+            buf.putLong(replicate.getVersion());
+            putValue(buf, mt.value);
+        } else if (mt instanceof MessageType.Join) {
+            buf.put(OP_JOIN);
+            putString(buf, mt.peer);
+        } else if (mt instanceof MessageType.Directory directory) {
+            buf.put(OP_DIRECTORY);
+            buf.putLong(directory.getOffset());
+            putString(buf, mt.peer);
+        } else if (mt instanceof MessageType.Chunk chunk) {
+            buf.put(OP_CHUNK);
+            buf.putLong(chunk.getNextOffset());
+            putValue(buf, mt.value);
+        } else if (mt instanceof MessageType.Digest digest) {
+            buf.put(OP_DIGEST);
+            putVarint(buf, digest.getLevel());
+            putInts(buf, digest.getNodes());
+        } else if (mt instanceof MessageType.Hashes hashes) {
+            buf.put(OP_HASHES);
+            putVarint(buf, hashes.getHashes().length);
+            for (long hash : hashes.getHashes()) {
+                buf.putLong(hash);
+            }
+        } else if (mt instanceof MessageType.Range range) {
+            buf.put(OP_RANGE);
+            putInts(buf, range.getBuckets());
+            putString(buf, mt.key);
+        } else if (mt instanceof MessageType.Keys keys) {
+            buf.put(OP_KEYS);
+            putString(buf, mt.key);
+            putVarint(buf, keys.getKeys().size());
+            for (String key : keys.getKeys()) {
+                putString(buf, key);
+            }
+        } else {
+            throw new IllegalArgumentException("unknown message type: " + mt.getClass().getSimpleName());
+        }
+    }
+
+    /**
+     * Reads a single message from the buffer (in read mode), consuming exactly the bytes of that message
+     * @throws IllegalArgumentException if the buffer does not hold a well-formed message
+     */
+    public static MessageType decode(ByteBuffer buf) throws IllegalArgumentException {
+        try {
+            byte op = buf.get();
+            return switch (op) {
+                case OP_GET -> new MessageType.Get(getString(buf));
+                case OP_PUT -> new MessageType.Put(getString(buf), getValue(buf));
+                case OP_DEL -> new MessageType.Del(getString(buf));
+                case OP_STORE -> new MessageType.Store();
+                case OP_EXIT -> new MessageType.Exit(getString(buf));
+                case OP_DATA -> new MessageType.Data(getString(buf), getValue(buf));
+                case OP_DATA_ALL -> new MessageType.DataAll(getEntries(buf));
+                case OP_OWNER -> new MessageType.Owner(getString(buf));
+                case OP_ACK -> new MessageType.Ack(getString(buf));
+                case OP_NAK -> new MessageType.Nak(getString(buf));
+                case OP_COMMIT -> new MessageType.Commit(getString(buf), getString(buf));
+                case OP_SCAN -> new MessageType.Scan(getString(buf), getVarint(buf));
+                case OP_PAGE -> {
+                    String nextCursor = getString(buf);
+                    yield new MessageType.Page(getEntries(buf), nextCursor);
+                }
+                case OP_INVALIDATE -> new MessageType.Invalidate(getString(buf));
+                case OP_STATS -> new MessageType.Stats();
+                case OP_PING -> new MessageType.Ping(getString(buf));
+                case OP_PONG -> new MessageType.Pong();
+                case OP_REPLY -> {
+                    String status = getString(buf);
+                    yield new MessageType.Reply(getString(buf), status, getValue(buf));
+                }
+                case OP_REPLICATE -> {
+                    String key = getString(buf);
+                    String owner = getString(buf);
+                    long version = buf.getLong();
+                    MessageType mt = new MessageType.Replicate(key, getValue(buf), version);
+                    mt.peer = owner;
+                    yield mt;
+                }
+                case OP_JOIN -> new MessageType.Join(getString(buf));
+                case OP_DIRECTORY -> {
+                    MessageType mt = new MessageType.Directory(buf.getLong());
+                    mt.peer = getString(buf);
+                    yield mt;
+                }
+                case OP_CHUNK -> {
+                    long nextOffset = buf.getLong();
+                    if (!(getValue(buf) instanceof byte[] block)) {
+                        throw new IllegalArgumentException("chunk without block");
+                    }
+                    yield new MessageType.Chunk(block, nextOffset);
+                }
+                case OP_DIGEST -> new MessageType.Digest(getVarint(buf), getInts(buf));
+                case OP_HASHES -> {
+                    int count = getVarint(buf);
+                    if (count > buf.remaining() / Long.BYTES) throw new BufferUnderflowException();
+                    long[] hashes = new long[count];
+                    for (int i = 0; i < count; i++) {
+                        hashes[i] = buf.getLong();
+                    }
+                    yield new MessageType.Hashes(hashes);
+                }
+                case OP_RANGE -> {
+                    int[] buckets = getInts(buf);
+                    yield new MessageType.Range(buckets, getString(buf));
+                }
+                case OP_KEYS -> {
+                    String nextCursor = getString(buf);
+                    int count = getVarint(buf);
+                    if (count > buf.remaining()) throw new BufferUnderflowException();
+                    List<String> keys = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        keys.add(getString(buf));
+                    }
+                    yield new MessageType.Keys(keys, nextCursor);
+                }
+                default -> throw new IllegalArgumentException("unknown opcode: " + op);
+            };
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("truncated message", e);
+        }
+    }
+
+    /**
+     * Encodes the message into a newly allocated array
+     */
+    public static byte[] toBytes(MessageType mt) {
+        ByteBuffer buf = ByteBuffer.allocate(sizeOf(mt));
+        encode(mt, buf);
+        return buf.array();
+    }
+
+    /**
+     * Returns the length of the frame at the head of the buffer (in read mode), including its header, or -1 if the
+     * header is not yet available
+     * @throws IOException if the header announces a length beyond {@link #MAX_FRAME_SIZE}
+     */
+    public static int peekFrameLength(ByteBuffer buf) throws IOException {
+        if (buf.remaining() < FRAME_HEADER_SIZE) return -1;
+        int length = buf.getInt(buf.position()) & ~PayloadCompressor.FLAGS;
+        if (length < 0 || length > MAX_FRAME_SIZE) {
+            throw new IOException("invalid frame length " + length);
+        }
+        return FRAME_HEADER_SIZE + length;
+    }
+
+    /**
+     * Ensures that the buffer (in write mode) can accept at least `required` more bytes
+     * @return the buffer itself, or a larger copy of it
+     */
+    public static ByteBuffer ensureRemaining(ByteBuffer buf, int required) {
+        if (buf.remaining() >= required) return buf;
+        int capacity = Math.max(buf.capacity() * 2, buf.position() + required);
+        ByteBuffer grown = buf.isDirect() ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+        buf.flip();
+        grown.put(buf);
+        return grown;
+    }
+
+    public static int sizeOfVarint(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    public static void putVarint(ByteBuffer buf, int value) {
+        while ((value & ~0x7F) != 0) {
+            buf.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buf.put((byte) value);
+    }
+
+    public static int getVarint(ByteBuffer buf) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = buf.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                if (value < 0) throw new IllegalArgumentException("negative length");
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("malformed varint");
+    }
+
+    public static int sizeOfString(String s) {
+        int length = utf8Length(s);
+        return sizeOfVarint(length) + length;
+    }
+
+    public static void putString(ByteBuffer buf, String s) {
+        putVarint(buf, utf8Length(s));
+        putUtf8(buf, s);
+    }
+
+    public static String getString(ByteBuffer buf) {
+        int length = getVarint(buf);
+        if (length > buf.remaining()) throw new BufferUnderflowException();
+        String s;
+        if (buf.hasArray()) {
+            s = new String(buf.array(), buf.arrayOffset() + buf.position(), length, StandardCharsets.UTF_8);
+        } else {
+            // decoded straight out of direct memory, with no intermediate copy of the bytes
+            s = StandardCharsets.UTF_8.decode(buf.slice(buf.position(), length)).toString();
+        }
+        buf.position(buf.position() + length);
+        return s;
+    }
+
+    /**
+     * @return number of bytes a single key/value entry takes up within a DATA_ALL or PAGE message
+     */
+    public static int sizeOfEntry(String key, Object value) {
+        return sizeOfString(key) + sizeOfValue(value);
+    }
+
+    private static int sizeOfEntries(Map<?, ?> map) {
+        int size = sizeOfVarint(map.size());
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            size += sizeOfEntry(String.valueOf(entry.getKey()), entry.getValue());
+        }
+        return size;
+    }
+
+    private static void putEntries(ByteBuffer buf, Map<?, ?> map) {
+        putVarint(buf, map.size());
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            putString(buf, String.valueOf(entry.getKey()));
+            putValue(buf, entry.getValue());
+        }
+    }
+
+    /**
+     * Entries are decoded into a map that preserves their encoded order, as pages are ordered by key
+     */
+    private static Map<String, Object> getEntries(ByteBuffer buf) {
+        int count = getVarint(buf);
+        // an entry takes at least a byte for the length of its key and one for the tag of its value
+        if (count > buf.remaining() / MIN_ENTRY_SIZE) throw new BufferUnderflowException();
+        Map<String, Object> map = LinkedHashMap.newLinkedHashMap(count);
+        for (int i = 0; i < count; i++) {
+            map.put(getString(buf), getValue(buf));
+        }
+        return map;
+    }
+
+    private static int sizeOfInts(int[] values) {
+        int size = sizeOfVarint(values.length);
+        for (int value : values) {
+            size += sizeOfVarint(value);
+        }
+        return size;
+    }
+
+    private static void putInts(ByteBuffer buf, int[] values) {
+        putVarint(buf, values.length);
+        for (int value : values) {
+            putVarint(buf, value);
+        }
+    }
+
+    private static int[] getInts(ByteBuffer buf) {
+        int count = getVarint(buf);
+        // every varint takes at least a byte, which bounds the count of a well-formed message
+        if (count > buf.remaining()) throw new BufferUnderflowException();
+        int[] values = new int[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = getVarint(buf);
+        }
+        return values;
+    }
+
+    public static int sizeOfValue(Object value) {
+        if (value == null) return 1;
+        if (value instanceof byte[] bytes) return 1 + sizeOfVarint(bytes.length) + bytes.length;
+        return 1 + sizeOfString(value.toString());
+    }
+
+    public static void putValue(ByteBuffer buf, Object value) {
+        if (value == null) {
+            buf.put(VALUE_NULL);
+        } else if (value instanceof byte[] bytes) {
+            buf.put(VALUE_BYTES);
+            putVarint(buf, bytes.length);
+            buf.put(bytes);
+        } else {
+            buf.put(VALUE_STRING);
+            putString(buf, value.toString());
+        }
+    }
+
+    public static Object getValue(ByteBuffer buf) {
+        byte tag = buf.get();
+        return switch (tag) {
+            case VALUE_NULL -> null;
+            case VALUE_STRING -> getString(buf);
+            case VALUE_BYTES -> {
+                int length = getVarint(buf);
+                if (length > buf.remaining()) throw new BufferUnderflowException();
+                byte[] bytes = new byte[length];
+                buf.get(bytes);
+                yield bytes;
+            }
+            default -> throw new IllegalArgumentException("unknown value tag: " + tag);
+        };
+    }
+
+    private static int utf8Length(String s) {
+        int length = s.length();
+        int utf8Length = length;
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80) {
+                if (c < 0x800) {
+                    utf8Length++;
+                } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    // 4 bytes for the pair, which counts as 2 chars
+                    utf8Length += 2;
+                    i++;
+                } else if (!Character.isSurrogate(c)) {
+                    utf8Length += 2;
+                }
+                // unpaired surrogates are written as a single '?'
+            }
+        }
+        return utf8Length;
+    }
+
+    private static void putUtf8(ByteBuffer buf, String s) {
+        int length = s.length();
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                buf.put((byte) c);
+            } else if (c < 0x800) {
+                buf.put((byte) (0xC0 | (c >> 6)));
+                buf.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                buf.put((byte) (0xF0 | (cp >> 18)));
+                buf.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+                buf.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+                buf.put((byte) (0x80 | (cp & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                // unpaired surrogates are replaced, matching the behaviour of String.getBytes
+                buf.put((byte) '?');
+            } else {
+                buf.put((byte) (0xE0 | (c >> 12)));
+                buf.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                buf.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    private static final byte OP_GET = 1;
+    private static final byte OP_PUT = 2;
+    private static final byte OP_DEL = 3;
+    private static final byte OP_STORE = 4;
+    private static final byte OP_EXIT = 5;
+    private static final byte OP_DATA = 6;
+    private static final byte OP_DATA_ALL = 7;
+    private static final byte OP_OWNER = 8;
+    private static final byte OP_ACK = 9;
+    private static final byte OP_NAK = 10;
+    private static final byte OP_COMMIT = 11;
+    private static final byte OP_SCAN = 12;
+    private static final byte OP_PAGE = 13;
+    private static final byte OP_INVALIDATE = 14;
+    private static final byte OP_STATS = 15;
+    private static final byte OP_PING = 16;
+    private static final byte OP_PONG = 17;
+    private static final byte OP_REPLY = 18;
+    private static final byte OP_REPLICATE = 19;
+    private static final byte OP_JOIN = 20;
+    private static final byte OP_DIRECTORY = 21;
+    private static final byte OP_CHUNK = 22;
+    private static final byte OP_DIGEST = 23;
+    private static final byte OP_HASHES = 24;
+    private static final byte OP_RANGE = 25;
+    private static final byte OP_KEYS = 26;
+
+    private static final byte VALUE_NULL = 0;
+    private static final byte VALUE_STRING = 1;
+    private static final byte VALUE_BYTES = 2;
+    private static final int MIN_ENTRY_SIZE = 2;
+
+    public static final int FRAME_HEADER_SIZE = Integer.BYTES;
+    public static final int MAX_FRAME_SIZE = 64 * 1024 * 1024;
+    public static final int DEFAULT_BUFFER_SIZE = 8 * 1024;
+}
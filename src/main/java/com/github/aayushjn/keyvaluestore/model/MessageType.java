@@ -7,7 +7,11 @@ import com.google.gson.reflect.TypeToken;
 
 import java.io.Serial;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
+import java.util.StringJoiner;
 
 /**
  * Acceptable messages for this system. These messages may be typed in the console or sent over the network.
@@ -103,9 +107,7 @@ public sealed class MessageType implements Serializable {
 
         @Override
         public String toString() {
-            Gson gson = new Gson();
-            String actualValue = gson.toJson(value);
-            return "DATA_ALL " + actualValue;
+            return "DATA_ALL " + GSON.toJson(value);
         }
 
         public static final int DATA_LIMIT = 65000;
@@ -168,8 +170,343 @@ public sealed class MessageType implements Serializable {
         }
     }
 
+    /**
+     * Requests a page of up to `count` entries whose keys follow `cursor`, where an empty cursor starts from the first
+     * key
+     */
+    public static final class Scan extends MessageType implements Serializable {
+        @Serial private static final long serialVersionUID = 20261018100000L;
+
+        public Scan(String cursor, int count) {
+            this.key = cursor;
+            this.value = count;
+        }
+
+        public String getCursor() {
+            return key;
+        }
+
+        public int getCount() {
+            return (Integer) value;
+        }
+
+        @Override
+        public String toString() {
+            return "SCAN " + value + ' ' + key;
+        }
+    }
+
+    /**
+     * A page of entries answering a {@link Scan}, along with the cursor to resume from, which is empty once the scan is
+     * complete
+     */
+    public static final class Page extends MessageType implements Serializable {
+        @Serial private static final long serialVersionUID = 20261018100100L;
+
+        public Page(Map<String, Object> entries, String nextCursor) {
+            this.key = nextCursor;
+            this.value = entries;
+        }
+
+        public String getNextCursor() {
+            return key;
+        }
+
+        @SuppressWarnings("unchecked")
+        public Map<String, Object> getEntries() {
+            return (Map<String, Object>) value;
+        }
+
+        @Override
+        public String toString() {
+            return "PAGE " + key + "|||" + GSON.toJson(value);
+        }
+    }
+
+    /**
+     * Sent by the owner of a key whenever it changes its value, so that peers drop any copy they have cached
+     */
+    public static final class Invalidate extends MessageType implements Serializable {
+        @Serial private static final long serialVersionUID = 20261018110000L;
+
+        public Invalidate(String key) {
+            this.key = key;
+        }
+
+        @Override
+        public String toString() {
+            return "INVALIDATE " + key;
+        }
+    }
+
+    /**
+     * Requests the metrics report of a node, which is answered with a {@link Data} message keyed
+     * {@code STATS}. On the console, the optional peer names the node to ask instead of this one.
+     */
+    public static final class Stats extends MessageType implements Serializable {
+        @Serial private static final long serialVersionUID = 20261018110100L;
+
+        @Override
+        public String toString() {
+            return peer.isEmpty() ? "STATS" : "STATS " + peer;
+        }
+    }
+
+    /**
+     * Liveness probe, answered with a {@link Pong}
+     */
+    public static final class Ping extends MessageType implements Serializable {
+        @Serial private static final long serialVersionUID = 20261018130000L;
+
+        public Ping(String peer) {
+            this.peer = peer;
+        }
+
+        @Override
+        public String toString() {
+            return "PING " + peer;
+        }
+    }
+
+    public static final class Pong extends MessageType implements Serializable {
+        @Serial private static final long serialVersionUID = 20261018130100L;
+
+        @Override
+        public String toString() {
+            return "PONG";
+        }
+    }
+
+    /**
+     * Outcome of a client request, sent on the client port. The status is the name of a coordinator status, and the
+     * value is the value read for a successful GET.
+     */
+    public static final class Reply extends MessageType implements Serializable {
+        @Serial private static final long serialVersionUID = 20261018150000L;
+
+        private final String status;
+
+        public Reply(String key, String status, Object value) {
+            this.key = key;
+            this.status = status;
+            this.value = value;
+        }
+
+        public String getStatus() {
+            return status;
+        }
+
+        @Override
+        public String toString() {
+            return "REPLY " + status + " " + key + (value == null ? "" : " " + value);
+        }
+    }
+
+    /**
+     * Copy of a write that the owner of a key, named by the peer, pushes to each of its replicas, which is answered
+     * with an {@link Ack}. A null value stands for a deletion. Replicas only apply a copy whose version is newer than
+     * the one they hold, so copies that arrive out of order never roll a key back.
+     */
+    public static final class Replicate extends MessageType implements Serializable {
+        @Serial private static final long serialVersionUID = 20261018160000L;
+
+        private final long version;
+
+        public Replicate(String key, Object value, long version) {
+            this.key = key;
+            this.value = value;
+            this.version = version;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        @Override
+        public String toString() {
+            return "REPLICATE " + key + ' ' + version + ' ' + peer + (value == null ? "" : " " + value);
+        }
+    }
+
+    /**
+     * Asks a member of the cluster to admit the node named by the peer, which is answered with a {@link Data} message
+     * keyed {@code MEMBERS} whose value lists the nodes of the cluster as the member knows them, itself included
+     */
+    public static final class Join extends MessageType implements Serializable {
+        @Serial private static final long serialVersionUID = 20261018170000L;
+
+        public Join(String peer) {
+            this.peer = peer;
+        }
+
+        @Override
+        public String toString() {
+            return "JOIN " + peer;
+        }
+    }
+
+    /**
+     * Requests the block of the ownership directory of a member that starts at the offset, which is answered with a
+     * {@link Chunk}. A request for offset 0 has the member take a new snapshot of its directory for the peer.
+     */
+    public static final class Directory extends MessageType implements Serializable {
+        @Serial private static final long serialVersionUID = 20261018170100L;
+
+        private final long offset;
+
+        public Directory(long offset) {
+            this.offset = offset;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        @Override
+        public String toString() {
+            return "DIRECTORY " + offset + ' ' + peer;
+        }
+    }
+
+    /**
+     * A block of an ownership directory answering a {@link Directory} request, along with the offset of the next block,
+     * which is {@link #END_OF_DIRECTORY} once the whole directory has been sent
+     */
+    public static final class Chunk extends MessageType implements Serializable {
+        @Serial private static final long serialVersionUID = 20261018170200L;
+
+        private final long nextOffset;
+
+        public Chunk(byte[] block, long nextOffset) {
+            this.value = block;
+            this.nextOffset = nextOffset;
+        }
+
+        public byte[] getBlock() {
+            return (byte[]) value;
+        }
+
+        public long getNextOffset() {
+            return nextOffset;
+        }
+
+        public boolean isLast() {
+            return nextOffset == END_OF_DIRECTORY;
+        }
+
+        @Override
+        public String toString() {
+            return "CHUNK " + nextOffset + ' ' + getBlock().length + " bytes";
+        }
+
+        public static final long END_OF_DIRECTORY = -1;
+    }
+
+    /**
+     * Asks a node for the hashes of the children of the given nodes of one level of the hash tree over its local keys,
+     * which is answered with {@link Hashes}
+     */
+    public static final class Digest extends MessageType implements Serializable {
+        @Serial private static final long serialVersionUID = 20261018180000L;
+
+        private final int level;
+
+        public Digest(int level, int[] nodes) {
+            this.level = level;
+            this.value = nodes;
+        }
+
+        public int getLevel() {
+            return level;
+        }
+
+        public int[] getNodes() {
+            return (int[]) value;
+        }
+
+        @Override
+        public String toString() {
+            return "DIGEST " + level + ' ' + join(getNodes());
+        }
+    }
+
+    /**
+     * Hashes answering a {@link Digest}, in the order of the nodes asked for
+     */
+    public static final class Hashes extends MessageType implements Serializable {
+        @Serial private static final long serialVersionUID = 20261018180100L;
+
+        public Hashes(long[] hashes) {
+            this.value = hashes;
+        }
+
+        public long[] getHashes() {
+            return (long[]) value;
+        }
+
+        @Override
+        public String toString() {
+            return "HASHES " + getHashes().length;
+        }
+    }
+
+    /**
+     * Requests the local keys of a node that fall into the given buckets of its hash tree and follow `cursor`, where
+     * an empty cursor starts from the first key, which is answered with {@link Keys}
+     */
+    public static final class Range extends MessageType implements Serializable {
+        @Serial private static final long serialVersionUID = 20261018180200L;
+
+        public Range(int[] buckets, String cursor) {
+            this.key = cursor;
+            this.value = buckets;
+        }
+
+        public int[] getBuckets() {
+            return (int[]) value;
+        }
+
+        public String getCursor() {
+            return key;
+        }
+
+        @Override
+        public String toString() {
+            return "RANGE " + join(getBuckets()) + (key.isEmpty() ? "" : " " + key);
+        }
+    }
+
+    /**
+     * Keys answering a {@link Range}, along with the cursor to resume from, which is empty once the range is complete
+     */
+    public static final class Keys extends MessageType implements Serializable {
+        @Serial private static final long serialVersionUID = 20261018180300L;
+
+        public Keys(List<String> keys, String nextCursor) {
+            this.key = nextCursor;
+            this.value = keys;
+        }
+
+        @SuppressWarnings("unchecked")
+        public List<String> getKeys() {
+            return (List<String>) value;
+        }
+
+        public String getNextCursor() {
+            return key;
+        }
+
+        @Override
+        public String toString() {
+            return "KEYS " + key + "|||" + GSON.toJson(value);
+        }
+    }
+
     @Serial private static final long serialVersionUID = 20231110182300L;
 
+    private static final Gson GSON = new Gson();
+    private static final TypeToken<Map<String, Object>> MAP_TYPE = new TypeToken<>() {};
+
     private MessageType() {}
 
     protected String key = "";
@@ -192,6 +529,33 @@ public sealed class MessageType implements Serializable {
         this.peer = peer;
     }
 
+    /**
+     * Serializes messages (e.g. over RMI) in their compact binary form instead of the default field-by-field form
+     */
+    @Serial
+    protected Object writeReplace() {
+        return new SerializedMessage(MessageCodec.toBytes(this));
+    }
+
+    private record SerializedMessage(byte[] bytes) implements Serializable {
+        @Serial
+        private Object readResolve() {
+            return MessageCodec.decode(ByteBuffer.wrap(bytes));
+        }
+    }
+
+    private static String join(int[] values) {
+        StringJoiner joiner = new StringJoiner(",");
+        for (int value : values) {
+            joiner.add(Integer.toString(value));
+        }
+        return joiner.toString();
+    }
+
+    private static int[] parseInts(String s) throws NumberFormatException {
+        return Arrays.stream(s.split(",")).mapToInt(Integer::parseInt).toArray();
+    }
+
     public static MessageType parseString(String s) throws IllegalArgumentException {
         MessageType mt = null;
         try {
@@ -202,6 +566,9 @@ public sealed class MessageType implements Serializable {
                 mt = new MessageType.Put(split[0], split[1]);
             } else if (StringUtils.hasPrefix(s, "DEL", true)) {
                 mt = new MessageType.Del(s.substring(4));
+            } else if (StringUtils.hasPrefix(s, "STATS", true)) {
+                mt = new MessageType.Stats();
+                mt.peer = s.substring(5).trim();
             } else if (StringUtils.hasPrefix(s, "STORE", true)) {
                 mt = new MessageType.Store();
             } else if (StringUtils.hasPrefix(s, "EXIT", true)) {
@@ -210,9 +577,7 @@ public sealed class MessageType implements Serializable {
                     mt.peer = s.substring(5);
                 }
             } else if (StringUtils.hasPrefix(s, "DATA_ALL", true)) {
-                Gson gson = new Gson();
-                TypeToken<Map<String, Object>> typeToken = new TypeToken<>() {};
-                mt = new MessageType.DataAll(gson.fromJson(s.substring(9), typeToken));
+                mt = new MessageType.DataAll(GSON.fromJson(s.substring(9), MAP_TYPE));
             } else if (StringUtils.hasPrefix(s, "DATA", true)) {
                 String[] split = s.substring(5).split(" ", 2);
                 mt = new MessageType.Data(split[0], split[1]);
@@ -222,12 +587,45 @@ public sealed class MessageType implements Serializable {
                 mt = new MessageType.Ack(s.substring(4));
             } else if (StringUtils.hasPrefix(s, "NAK", true)) {
                 mt = new MessageType.Nak(s.substring(4));
+            } else if (StringUtils.hasPrefix(s, "SCAN", true)) {
+                String[] split = s.substring(5).split(" ", 2);
+                mt = new MessageType.Scan(split.length > 1 ? split[1] : "", Integer.parseInt(split[0]));
+            } else if (StringUtils.hasPrefix(s, "PAGE", true)) {
+                int sepIndex = s.indexOf("|||");
+                mt = new MessageType.Page(GSON.fromJson(s.substring(sepIndex + 3), MAP_TYPE), s.substring(5, sepIndex));
+            } else if (StringUtils.hasPrefix(s, "INVALIDATE", true)) {
+                mt = new MessageType.Invalidate(s.substring(11));
+            } else if (StringUtils.hasPrefix(s, "PING", true)) {
+                mt = new MessageType.Ping(s.length() > 4 ? s.substring(5) : "");
+            } else if (StringUtils.hasPrefix(s, "PONG", true)) {
+                mt = new MessageType.Pong();
+            } else if (StringUtils.hasPrefix(s, "REPLY", true)) {
+                String[] split = s.substring(6).split(" ", 3);
+                mt = new MessageType.Reply(split[1], split[0], split.length > 2 ? split[2] : null);
+            } else if (StringUtils.hasPrefix(s, "REPLICATE", true)) {
+                String[] split = s.substring(10).split(" ", 4);
+                mt = new MessageType.Replicate(split[0], split.length > 3 ? split[3] : null, Long.parseLong(split[1]));
+                mt.peer = split[2];
+            } else if (StringUtils.hasPrefix(s, "JOIN", true)) {
+                mt = new MessageType.Join(s.substring(5));
+            } else if (StringUtils.hasPrefix(s, "DIRECTORY", true)) {
+                String[] split = s.substring(10).split(" ", 2);
+                mt = new MessageType.Directory(Long.parseLong(split[0]));
+                if (split.length > 1) mt.peer = split[1];
+            } else if (StringUtils.hasPrefix(s, "DIGEST", true)) {
+                String[] split = s.substring(7).split(" ", 2);
+                mt = new MessageType.Digest(Integer.parseInt(split[0]), parseInts(split[1]));
+            } else if (StringUtils.hasPrefix(s, "RANGE", true)) {
+                String[] split = s.substring(6).split(" ", 2);
+                mt = new MessageType.Range(parseInts(split[0]), split.length > 1 ? split[1] : "");
             } else if (StringUtils.hasPrefix(s, "COMMIT", true)) {
                 int sepIndex = s.indexOf("|||");
                 mt = new MessageType.Commit(s.substring(7, sepIndex), s.substring(sepIndex + 3));
             }
         } catch (IndexOutOfBoundsException e) {
             throw new IllegalArgumentException("key/value must be specified");
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("count and version must be numbers");
         }
 
         if (mt == null) throw new IllegalArgumentException("unknown message type: " + s);
@@ -0,0 +1,295 @@
+package com.github.aayushjn.keyvaluestore.model;
+
+import com.github.aayushjn.keyvaluestore.metrics.Metrics;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compression of the messages a node exchanges with its peers, applied to a message only where it pays off
+ * <p>
+ * A message is compressed with Deflate at its fastest level if it encodes to at least {@link #getMinBytes()}, and if a
+ * sample from the middle of a large message shrinks by at least an eighth, so that values that do not compress cost
+ * little time for nothing. The compressed form is the varint length of the encoding followed by the Deflate stream,
+ * and is only sent if it saves at least an eighth of the encoding as well.
+ * <p>
+ * Flags in the high bits of the header of a message, which is the frame length on stream transports and the
+ * correlation ID on UDP, tell how it is encoded: {@link #COMPRESSED} marks a compressed message, and {@link #ACCEPTS}
+ * that its sender takes compressed messages in return. Compression is thus negotiated per connection without a round
+ * trip of its own, as a node only compresses what it sends over a connection once a message with {@link #ACCEPTS} has
+ * come in over it. Every node decodes compressed messages, whether or not it compresses its own.
+ * <p>
+ * Deflaters and inflaters hold native memory, so they are pooled rather than kept per thread, which would tie one to
+ * every virtual thread that ever sent a message.
+ */
+public class PayloadCompressor {
+    private final Metrics metrics;
+    private final BlockingQueue<Workspace> workspaces;
+    private volatile int minBytes;
+
+    /**
+     * @param metrics metrics to record the size of every message on the wire in, or null to record nothing
+     */
+    public PayloadCompressor(Metrics metrics) {
+        this(metrics, DEFAULT_MIN_BYTES);
+    }
+
+    public PayloadCompressor(Metrics metrics, int minBytes) {
+        this.metrics = metrics;
+        this.minBytes = minBytes;
+        workspaces = new ArrayBlockingQueue<>(POOL_SIZE);
+    }
+
+    public int getMinBytes() {
+        return minBytes;
+    }
+
+    /**
+     * @param minBytes size of the encoding from which messages are compressed, or 0 to neither compress messages nor
+     *                 ask peers to
+     */
+    public void setMinBytes(int minBytes) {
+        this.minBytes = minBytes;
+    }
+
+    /**
+     * Encodes the message into the buffer (in write mode), compressing it if the peer accepts it and it pays off
+     * @param size     encoded size of the message, see {@link MessageCodec#sizeOf(MessageType)}
+     * @param compress whether the peer accepts compressed messages; a message that only fits the buffer once compressed
+     *                 is compressed regardless, as it could not be sent otherwise
+     * @return flags to set in the header of the message
+     * @throws BufferOverflowException if the message does not fit the buffer even when compressed
+     */
+    public int encode(MessageType mt, int size, ByteBuffer buf, boolean compress) throws BufferOverflowException {
+        int minBytes = this.minBytes;
+        int flags = minBytes > 0 ? ACCEPTS : 0;
+        boolean fits = size <= buf.remaining();
+        if (minBytes <= 0 || (fits && (!compress || size < minBytes))) {
+            MessageCodec.encode(mt, buf);
+            recordSent(mt, size, size, false, 0);
+            return flags;
+        }
+
+        long started = System.nanoTime();
+        Workspace workspace = acquire();
+        try {
+            byte[] raw = workspace.scratch(size);
+            MessageCodec.encode(mt, ByteBuffer.wrap(raw, 0, size));
+            int start = buf.position();
+            boolean compressed;
+            if (fits) {
+                compressed = pays(workspace, raw, size) && deflate(workspace, raw, size, buf, size - size / MIN_SAVING);
+                if (!compressed) buf.put(raw, 0, size);
+            } else {
+                compressed = deflate(workspace, raw, size, buf, buf.remaining());
+                if (!compressed) throw new BufferOverflowException();
+            }
+            recordSent(mt, size, buf.position() - start, compressed, System.nanoTime() - started);
+            return compressed ? flags | COMPRESSED : flags;
+        } finally {
+            release(workspace);
+        }
+    }
+
+    /**
+     * @return whether a sample of a large encoding shrinks enough to be worth compressing the whole of it
+     */
+    private static boolean pays(Workspace workspace, byte[] raw, int size) {
+        if (size < SAMPLE_THRESHOLD) return true;
+        Deflater deflater = workspace.deflater;
+        deflater.reset();
+        deflater.setInput(raw, (size - SAMPLE_SIZE) / 2, SAMPLE_SIZE);
+        deflater.finish();
+        deflater.deflate(workspace.sample, 0, SAMPLE_SIZE - SAMPLE_SIZE / MIN_SAVING);
+        return deflater.finished();
+    }
+
+    /**
+     * Writes the compressed form of the encoding to the buffer, unless it takes more than `maxBytes`
+     * @return whether the compressed form was written, or else the buffer is left as it was
+     */
+    private static boolean deflate(Workspace workspace, byte[] raw, int size, ByteBuffer buf, int maxBytes) {
+        int start = buf.position();
+        int limit = buf.limit();
+        if (maxBytes <= MessageCodec.sizeOfVarint(size)) return false;
+        buf.limit(start + maxBytes);
+        try {
+            MessageCodec.putVarint(buf, size);
+            Deflater deflater = workspace.deflater;
+            deflater.reset();
+            deflater.setInput(raw, 0, size);
+            deflater.finish();
+            while (!deflater.finished()) {
+                deflater.deflate(buf);
+                if (!buf.hasRemaining() && !deflater.finished()) {
+                    buf.position(start);
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            buf.limit(limit);
+        }
+    }
+
+    /**
+     * Decodes a message from the remaining bytes of the buffer (in read mode)
+     * @param flags flags from the header of the message
+     * @throws IllegalArgumentException if the message is malformed
+     */
+    public MessageType decode(ByteBuffer buf, int flags) throws IllegalArgumentException {
+        int wireBytes = buf.remaining();
+        if ((flags & COMPRESSED) == 0) {
+            MessageType mt = MessageCodec.decode(buf);
+            recordReceived(mt, wireBytes, wireBytes, 0);
+            return mt;
+        }
+
+        long started = System.nanoTime();
+        int size = MessageCodec.getVarint(buf);
+        if (size > MessageCodec.MAX_FRAME_SIZE) {
+            throw new IllegalArgumentException("compressed message announces " + size + " bytes");
+        }
+        Workspace workspace = acquire();
+        try {
+            byte[] raw = workspace.scratch(size);
+            Inflater inflater = workspace.inflater;
+            inflater.reset();
+            inflater.setInput(buf);
+            int inflated = 0;
+            try {
+                while (inflated < size && !inflater.finished()) {
+                    int n = inflater.inflate(raw, inflated, size - inflated);
+                    if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                    inflated += n;
+                }
+            } catch (DataFormatException e) {
+                throw new IllegalArgumentException("malformed compressed message", e);
+            }
+            if (inflated != size || !inflater.finished()) {
+                throw new IllegalArgumentException("compressed message does not match its length of " + size);
+            }
+            long nanos = System.nanoTime() - started;
+            ByteBuffer decompressed = ByteBuffer.wrap(raw, 0, size);
+            MessageType mt = MessageCodec.decode(decompressed);
+            if (decompressed.hasRemaining()) throw new IllegalArgumentException("trailing bytes in compressed message");
+            recordReceived(mt, size, wireBytes, nanos);
+            return mt;
+        } finally {
+            release(workspace);
+        }
+    }
+
+    /**
+     * Appends a length-prefixed frame for the message to the buffer (in write mode), growing it if required
+     * @param compress whether the peer accepts compressed messages
+     * @return buffer containing the frame, which may be a new instance if the original was too small
+     */
+    public ByteBuffer writeFrame(MessageType mt, ByteBuffer buf, boolean compress) {
+        int size = MessageCodec.sizeOf(mt);
+        buf = MessageCodec.ensureRemaining(buf, MessageCodec.FRAME_HEADER_SIZE + size);
+        int start = buf.position();
+        buf.position(start + MessageCodec.FRAME_HEADER_SIZE);
+        int flags = encode(mt, size, buf, compress);
+        buf.putInt(start, (buf.position() - start - MessageCodec.FRAME_HEADER_SIZE) | flags);
+        return buf;
+    }
+
+    /**
+     * Reads the next complete frame from the buffer (in read mode)
+     * @return frame, or null if the buffer does not yet hold a complete frame, in which case the buffer position is
+     * left untouched
+     * @throws IOException if the frame is malformed or announces a length beyond {@link MessageCodec#MAX_FRAME_SIZE}
+     */
+    public Frame readFrame(ByteBuffer buf) throws IOException {
+        int frameLength = MessageCodec.peekFrameLength(buf);
+        if (frameLength < 0 || buf.remaining() < frameLength) return null;
+
+        int flags = buf.getInt(buf.position()) & FLAGS;
+        int end = buf.position() + frameLength;
+        buf.position(buf.position() + MessageCodec.FRAME_HEADER_SIZE);
+        int limit = buf.limit();
+        buf.limit(end);
+        try {
+            MessageType mt = decode(buf, flags);
+            if (buf.hasRemaining()) throw new IOException("trailing bytes in frame");
+            return new Frame(mt, (flags & ACCEPTS) != 0);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("malformed frame", e);
+        } finally {
+            buf.limit(limit);
+            buf.position(end);
+        }
+    }
+
+    private void recordSent(MessageType mt, int size, int wireBytes, boolean compressed, long nanos) {
+        if (metrics != null) metrics.compression(mt.getClass()).recordSent(size, wireBytes, compressed, nanos);
+    }
+
+    private void recordReceived(MessageType mt, int size, int wireBytes, long nanos) {
+        if (metrics != null) metrics.compression(mt.getClass()).recordReceived(size, wireBytes, nanos);
+    }
+
+    private Workspace acquire() {
+        Workspace workspace = workspaces.poll();
+        return workspace != null ? workspace : new Workspace();
+    }
+
+    private void release(Workspace workspace) {
+        if (workspace.scratch.length > MAX_RETAINED_SCRATCH) workspace.scratch = new byte[SAMPLE_SIZE];
+        if (!workspaces.offer(workspace)) workspace.end();
+    }
+
+    /**
+     * Message read from a frame, along with whether its sender accepts compressed messages
+     */
+    public record Frame(MessageType message, boolean acceptsCompression) {
+    }
+
+    /**
+     * Deflater, inflater and buffers used by a single call at a time
+     */
+    private static final class Workspace {
+        private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        private final Inflater inflater = new Inflater();
+        private final byte[] sample = new byte[SAMPLE_SIZE];
+        private byte[] scratch = new byte[SAMPLE_SIZE];
+
+        private byte[] scratch(int size) {
+            if (scratch.length < size) scratch = new byte[Math.max(size, scratch.length * 2)];
+            return scratch;
+        }
+
+        private void end() {
+            deflater.end();
+            inflater.end();
+        }
+    }
+
+    /**
+     * Header flag of a compressed message
+     */
+    public static final int COMPRESSED = 0x40000000;
+    /**
+     * Header flag of a message whose sender accepts compressed messages
+     */
+    public static final int ACCEPTS = 0x20000000;
+    public static final int FLAGS = COMPRESSED | ACCEPTS;
+    public static final int DEFAULT_MIN_BYTES = 1024;
+    private static final int MIN_SAVING = 8;
+    private static final int SAMPLE_SIZE = 4 * 1024;
+    private static final int SAMPLE_THRESHOLD = 4 * SAMPLE_SIZE;
+    private static final int MAX_RETAINED_SCRATCH = 1024 * 1024;
+    private static final int POOL_SIZE = 2 * Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Compressor that never compresses, for connections to clients, which decodes compressed messages all the same
+     */
+    public static final PayloadCompressor NONE = new PayloadCompressor(null, 0);
+}
@@ -1,38 +1,228 @@
 package com.github.aayushjn.keyvaluestore.model;
 
-import java.util.Hashtable;
+import com.github.aayushjn.keyvaluestore.storage.EntryHandler;
+import com.github.aayushjn.keyvaluestore.storage.HeapValueStore;
+import com.github.aayushjn.keyvaluestore.storage.MutationHandler;
+import com.github.aayushjn.keyvaluestore.storage.ValueStore;
+import com.github.aayushjn.keyvaluestore.storage.WriteAheadLog;
+import com.github.aayushjn.keyvaluestore.util.MerkleTree;
+import com.github.aayushjn.keyvaluestore.util.StripedLock;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.function.BiConsumer;
+import java.util.function.UnaryOperator;
 
 /**
  * A distributed K/V store that maintains data locally and also tracks keys owned by any peers
+ * <p>
+ * Both maps are concurrent, so reads never lock. Local data is kept sorted by key so that it can be scanned in pages
+ * with a stable cursor while it is being modified. Writes that must check one map before updating the other take the
+ * stripe of the key being written, which serializes them only against writes of the same stripe.
+ * <p>
+ * If a {@link WriteAheadLog} is attached, every mutation is appended to it under the same stripe, so that records of a
+ * single key are logged in the order they were applied.
+ * <p>
+ * Values are held by a {@link ValueStore}, and the local map only holds the references it hands out. If the value store
+ * reuses the memory of released values, a value is only returned once its reference is found to still be in the map
+ * after it was read, as a concurrent write may have released it in the meantime.
+ * <p>
+ * Copies of keys owned by peers, held as one of their replicas, are kept apart from local data and are not persisted.
+ * <p>
+ * A {@link MerkleTree} is kept over the keys of local data, and one over the keys recorded for each peer, so that a
+ * node can find where its record of a peer's keys differs from that peer's local keys without listing either.
  */
 public class Store {
-    private final Map<String, Object> localStore;
+    private final ConcurrentNavigableMap<String, Object> localStore;
+    private final ValueStore values;
     private final Map<String, String> peerStore;
+    /**
+     * Reverse index of {@link #peerStore}, so that the keys of a single peer can be found without scanning every key
+     */
+    private final Map<String, PeerKeys> keysByPeer;
+    /**
+     * Hash tree over the keys of local data, which peers compare with their record of the keys this node owns
+     */
+    private final MerkleTree localTree;
+    private final Map<String, Replica> replicas;
+    /**
+     * Tombstones among {@link #replicas} in the order they were written, so that expired ones are found at the head
+     */
+    private final Queue<Tombstone> tombstones;
+    private final StripedLock locks;
+    private volatile WriteAheadLog wal;
 
     public Store() {
-        localStore = new Hashtable<>();
-        peerStore = new Hashtable<>();
+        this(new HeapValueStore());
+    }
+
+    public Store(ValueStore values) {
+        this.values = values;
+        localStore = new ConcurrentSkipListMap<>();
+        peerStore = new ConcurrentHashMap<>();
+        keysByPeer = new ConcurrentHashMap<>();
+        localTree = new MerkleTree();
+        replicas = new ConcurrentHashMap<>();
+        tombstones = new ConcurrentLinkedQueue<>();
+        locks = new StripedLock(Runtime.getRuntime().availableProcessors() * LOCK_STRIPES_PER_CORE);
+    }
+
+    /**
+     * Logs every later mutation to the given log, or stops logging if it is null
+     */
+    public void attach(WriteAheadLog wal) {
+        this.wal = wal;
     }
 
     public void putPeerForKey(String key, String peer) {
-        peerStore.computeIfAbsent(key, k -> peer);
+        WriteAheadLog log = wal;
+        long seq = 0;
+        synchronized (locks.lockFor(key)) {
+            if (peerStore.putIfAbsent(key, peer) == null) {
+                keysOf(peer).add(key);
+                if (log != null) seq = log.appendPutPeer(key, peer);
+            }
+        }
+        if (seq > 0) log.awaitDurable(seq);
+    }
+
+    /**
+     * Records the owner of a batch of keys at once, such as a block of the ownership directory of a peer. Keys that are
+     * held locally or already have an owner are left alone. Logged records are made durable once for the whole batch.
+     * @return number of keys recorded
+     */
+    public int putPeerForKeys(String peer, Collection<String> keys) {
+        WriteAheadLog log = wal;
+        long seq = 0;
+        int count = 0;
+        for (String key : keys) {
+            synchronized (locks.lockFor(key)) {
+                if (!localStore.containsKey(key) && peerStore.putIfAbsent(key, peer) == null) {
+                    keysOf(peer).add(key);
+                    count++;
+                    if (log != null) seq = log.appendPutPeer(key, peer);
+                }
+            }
+        }
+        if (seq > 0) log.awaitDurable(seq);
+        return count;
     }
 
     public void removePeerForKey(String key) {
-        peerStore.remove(key);
+        WriteAheadLog log = wal;
+        long seq = 0;
+        synchronized (locks.lockFor(key)) {
+            String peer = peerStore.remove(key);
+            if (peer != null) {
+                PeerKeys keys = keysByPeer.get(peer);
+                if (keys != null) keys.remove(key);
+                if (log != null) seq = log.appendRemovePeerForKey(key);
+            }
+        }
+        if (seq > 0) log.awaitDurable(seq);
     }
 
+    /**
+     * Forgets the owner of a batch of keys, but only of those the peer is still recorded to own
+     * @return number of keys forgotten
+     */
+    public int removePeerForKeys(String peer, Collection<String> keys) {
+        WriteAheadLog log = wal;
+        long seq = 0;
+        int count = 0;
+        for (String key : keys) {
+            synchronized (locks.lockFor(key)) {
+                if (peerStore.remove(key, peer)) {
+                    PeerKeys owned = keysByPeer.get(peer);
+                    if (owned != null) owned.remove(key);
+                    count++;
+                    if (log != null) seq = log.appendRemovePeerForKey(key);
+                }
+            }
+        }
+        if (seq > 0) log.awaitDurable(seq);
+        return count;
+    }
+
+    /**
+     * Removes every key owned by the peer. Only that peer's keys are visited, one at a time, so other operations are
+     * never blocked for longer than a single removal.
+     */
     public void removePeer(String peer) {
-        Iterator<Map.Entry<String, String>> iterator = peerStore.entrySet().iterator();
-        Map.Entry<String, String> entry;
-        while (iterator.hasNext()) {
-            entry = iterator.next();
-            if (peer.equals(entry.getValue())) {
-                iterator.remove();
+        PeerKeys keys = keysByPeer.remove(peer);
+        if (keys == null) return;
+        logPeerRemoval(peer);
+        for (String key : keys.keys()) {
+            peerStore.remove(key, peer);
+        }
+    }
+
+    /**
+     * Removes every key owned by the peer in the background, in batches of {@link #REMOVAL_BATCH_SIZE} keys. The
+     * peer's keys may still be reported by {@link #hasRemotely(String)} until the removal completes.
+     */
+    public void removePeerAsync(String peer, Executor executor) {
+        PeerKeys keys = keysByPeer.remove(peer);
+        if (keys == null) return;
+        logPeerRemoval(peer);
+        executor.execute(() -> removeBatch(peer, keys.keys().iterator(), executor));
+    }
+
+    private void removeBatch(String peer, Iterator<String> iterator, Executor executor) {
+        for (int i = 0; i < REMOVAL_BATCH_SIZE && iterator.hasNext(); i++) {
+            peerStore.remove(iterator.next(), peer);
+        }
+        if (iterator.hasNext()) {
+            // yield the thread between batches so that a huge removal never monopolizes the executor
+            executor.execute(() -> removeBatch(peer, iterator, executor));
+        }
+    }
+
+    /**
+     * A single record stands for the removal of all of the peer's keys, however many there are
+     */
+    private void logPeerRemoval(String peer) {
+        WriteAheadLog log = wal;
+        if (log != null) log.awaitDurable(log.appendRemovePeer(peer));
+    }
+
+    /**
+     * Passes every key owned by a peer that has left to the node named by the successor function, or forgets the key
+     * if that node is this one, which then only owns it if it held a replica of it
+     */
+    public void reassignPeer(String peer, String self, UnaryOperator<String> successor) {
+        PeerKeys keys = keysByPeer.remove(peer);
+        if (keys == null) return;
+        WriteAheadLog log = wal;
+        long seq = 0;
+        for (String key : keys.keys()) {
+            String owner = successor.apply(key);
+            synchronized (locks.lockFor(key)) {
+                if (!peerStore.remove(key, peer)) continue;
+                if (owner.equals(self)) {
+                    if (log != null) seq = log.appendRemovePeerForKey(key);
+                } else {
+                    peerStore.put(key, owner);
+                    keysOf(owner).add(key);
+                    if (log != null) seq = log.appendPutPeer(key, owner);
+                }
             }
         }
+        if (seq > 0) log.awaitDurable(seq);
+    }
+
+    private PeerKeys keysOf(String peer) {
+        return keysByPeer.computeIfAbsent(peer, p -> new PeerKeys());
     }
 
     public String getPeerForKey(String key) {
@@ -40,22 +230,324 @@ public class Store {
     }
 
     public Object get(String key) {
-        if (!localStore.containsKey(key)) {
+        Object value = load(key, localStore.get(key));
+        if (value == null) {
             throw new IllegalArgumentException("Key " + key + " is owned by someone else");
         }
-        return localStore.getOrDefault(key, null);
+        return value;
     }
 
+    /**
+     * @return a snapshot copy of all local data, which is safe to update concurrently
+     */
     public Map<String, Object> getAll() {
-        return new Hashtable<>(localStore);
+        Map<String, Object> all = new ConcurrentHashMap<>();
+        for (Map.Entry<String, Object> entry : localStore.entrySet()) {
+            Object value = load(entry.getKey(), entry.getValue());
+            if (value != null) all.put(entry.getKey(), value);
+        }
+        return all;
+    }
+
+    /**
+     * Reads the value behind a reference taken from the local map
+     * @return the value, or null if the key has been removed meanwhile
+     */
+    private Object load(String key, Object ref) {
+        if (!values.reusesMemory()) return ref;
+        while (ref != null) {
+            Object value;
+            try {
+                value = values.load(ref);
+            } catch (RuntimeException e) {
+                // the memory was released and reused while being read, which the check below detects
+                value = null;
+            }
+            Object current = localStore.get(key);
+            if (current == ref) return value;
+            ref = current;
+        }
+        return null;
+    }
+
+    /**
+     * Returns up to `count` local entries whose keys sort after the cursor, in key order. The page ends early once its
+     * entries would take up more than `maxBytes` on the wire, though it always holds at least one entry if any remain.
+     * Every key present for the whole duration of a scan is returned exactly once.
+     * @param cursor key to resume after, or an empty string to start from the first key
+     * @return page whose next cursor is empty if the scan is complete
+     */
+    public MessageType.Page scan(String cursor, int count, int maxBytes) {
+        Map<String, Object> tail = cursor.isEmpty() ? localStore : localStore.tailMap(cursor, false);
+        Map<String, Object> entries = new LinkedHashMap<>();
+        String lastKey = "";
+        int bytes = 0;
+        Iterator<Map.Entry<String, Object>> iterator = tail.entrySet().iterator();
+        while (iterator.hasNext() && entries.size() < count) {
+            Map.Entry<String, Object> entry = iterator.next();
+            Object value = load(entry.getKey(), entry.getValue());
+            if (value == null) continue;
+            bytes += MessageCodec.sizeOfEntry(entry.getKey(), value);
+            if (bytes > maxBytes && !entries.isEmpty()) {
+                // resume from this entry in the next page
+                return new MessageType.Page(entries, lastKey);
+            }
+            entries.put(entry.getKey(), value);
+            lastKey = entry.getKey();
+        }
+        return new MessageType.Page(entries, iterator.hasNext() ? lastKey : "");
+    }
+
+    /**
+     * Returns the local keys that sort after the cursor and fall into any of the given buckets of the local hash tree,
+     * in key order. The page ends early once its keys would take up more than `maxBytes` on the wire, though it always
+     * holds at least one key if any remain. Every local key after the cursor is visited to find them.
+     * @param cursor key to resume after, or an empty string to start from the first key
+     * @return keys along with the next cursor, which is empty if the scan is complete
+     */
+    public MessageType.Keys scanBuckets(BitSet buckets, String cursor, int maxBytes) {
+        Set<String> tail = cursor.isEmpty() ? localStore.keySet() : localStore.tailMap(cursor, false).keySet();
+        List<String> keys = new ArrayList<>();
+        int bytes = 0;
+        for (String key : tail) {
+            if (!buckets.get(MerkleTree.bucketOf(key))) continue;
+            bytes += MessageCodec.sizeOfString(key);
+            if (bytes > maxBytes && !keys.isEmpty()) {
+                // resume from this key in the next page
+                return new MessageType.Keys(keys, keys.get(keys.size() - 1));
+            }
+            keys.add(key);
+        }
+        return new MessageType.Keys(keys, "");
+    }
+
+    /**
+     * @return hash tree over the keys of local data
+     */
+    public MerkleTree getLocalTree() {
+        return localTree;
+    }
+
+    /**
+     * @return hash tree over the keys recorded as owned by the peer, which is empty if it owns none
+     */
+    public MerkleTree getPeerTree(String peer) {
+        PeerKeys keys = keysByPeer.get(peer);
+        return keys != null ? keys.tree() : new MerkleTree();
+    }
+
+    /**
+     * @return keys recorded as owned by the peer that fall into any of the given buckets of its hash tree
+     */
+    public Set<String> getPeerKeys(String peer, BitSet buckets) {
+        Set<String> found = new HashSet<>();
+        PeerKeys keys = keysByPeer.get(peer);
+        if (keys == null) return found;
+        for (String key : keys.keys()) {
+            if (buckets.get(MerkleTree.bucketOf(key)) && peer.equals(peerStore.get(key))) found.add(key);
+        }
+        return found;
     }
 
     public void put(String key, Object value) {
-        if (!peerStore.containsKey(key)) localStore.put(key, value);
+        Objects.requireNonNull(value, "value must not be null");
+        WriteAheadLog log = wal;
+        long seq = 0;
+        // copy the value into the value store before taking the stripe, so that only the map update happens under it
+        Object ref = values.store(value);
+        Object previous;
+        synchronized (locks.lockFor(key)) {
+            if (peerStore.containsKey(key)) {
+                previous = ref;
+            } else {
+                previous = localStore.put(key, ref);
+                if (previous == null) localTree.toggle(key);
+                if (log != null) seq = log.appendPut(key, value);
+            }
+        }
+        if (previous != null) values.release(previous);
+        if (seq > 0) log.awaitDurable(seq);
     }
 
     public void delete(String key) {
-        if (hasLocally(key)) localStore.remove(key);
+        WriteAheadLog log = wal;
+        long seq = 0;
+        Object previous;
+        synchronized (locks.lockFor(key)) {
+            previous = localStore.remove(key);
+            if (previous != null) {
+                localTree.toggle(key);
+                if (log != null) seq = log.appendDelete(key);
+            }
+        }
+        if (previous != null) values.release(previous);
+        if (seq > 0) log.awaitDurable(seq);
+    }
+
+    /**
+     * Hands every local entry and every peer-owned key to the handler, as puts. Keys of a peer whose removal is still
+     * running in the background are skipped, as they are no longer in the index.
+     */
+    public void dump(EntryHandler handler) {
+        for (Map.Entry<String, Object> entry : localStore.entrySet()) {
+            Object value = load(entry.getKey(), entry.getValue());
+            if (value != null) handler.put(entry.getKey(), value);
+        }
+        for (Map.Entry<String, PeerKeys> entry : keysByPeer.entrySet()) {
+            String peer = entry.getKey();
+            for (String key : entry.getValue().keys()) {
+                if (peer.equals(peerStore.get(key))) handler.putPeer(key, peer);
+            }
+        }
+    }
+
+    /**
+     * Hands the owner of every key known to this store to the consumer, grouped by owner: every local key as owned by
+     * `self`, then the keys of each peer
+     */
+    public void forEachOwner(String self, BiConsumer<String, String> consumer) {
+        for (String key : localStore.keySet()) {
+            consumer.accept(self, key);
+        }
+        for (Map.Entry<String, PeerKeys> entry : keysByPeer.entrySet()) {
+            String peer = entry.getKey();
+            for (String key : entry.getValue().keys()) {
+                if (peer.equals(peerStore.get(key))) consumer.accept(peer, key);
+            }
+        }
+    }
+
+    /**
+     * @return handler that applies recovered mutations directly, without the ownership checks of normal writes and
+     * without logging them again
+     */
+    public MutationHandler restorer() {
+        return new MutationHandler() {
+            @Override
+            public void put(String key, Object value) {
+                Object previous = localStore.put(key, values.store(value));
+                if (previous != null) {
+                    values.release(previous);
+                } else {
+                    localTree.toggle(key);
+                }
+            }
+
+            @Override
+            public void delete(String key) {
+                Object previous = localStore.remove(key);
+                if (previous != null) {
+                    values.release(previous);
+                    localTree.toggle(key);
+                }
+            }
+
+            @Override
+            public void putPeer(String key, String peer) {
+                String previous = peerStore.put(key, peer);
+                if (previous != null && !previous.equals(peer)) {
+                    PeerKeys keys = keysByPeer.get(previous);
+                    if (keys != null) keys.remove(key);
+                }
+                keysOf(peer).add(key);
+            }
+
+            @Override
+            public void removePeerForKey(String key) {
+                String peer = peerStore.remove(key);
+                if (peer != null) {
+                    PeerKeys keys = keysByPeer.get(peer);
+                    if (keys != null) keys.remove(key);
+                }
+            }
+
+            @Override
+            public void removePeer(String peer) {
+                PeerKeys keys = keysByPeer.remove(peer);
+                if (keys == null) return;
+                for (String key : keys.keys()) {
+                    peerStore.remove(key, peer);
+                }
+            }
+        };
+    }
+
+    /**
+     * Applies a copy of a write pushed by the owner of a key, unless the copy already held is newer. A copy from
+     * another owner than that of the held copy always replaces it, as a key only changes owner once its previous owner
+     * has left.
+     * @param value new value, or null if the key was deleted, which is kept as a tombstone so that a late copy of an
+     *              earlier write is not applied. A tombstone is dropped as soon as a newer copy replaces it, and
+     *              otherwise after {@link #TOMBSTONE_TTL_MILLIS}, by which time any copy of an earlier write has long
+     *              arrived or been given up on; expired tombstones are purged by later calls of this method.
+     */
+    public void putReplica(String key, String owner, Object value, long version) {
+        Replica replica = replicas.compute(key, (k, current) ->
+            current == null || version > current.version() || !current.owner().equals(owner)
+                ? new Replica(owner, value, version)
+                : current
+        );
+        if (replica.value() == null && replica.version() == version) {
+            tombstones.add(new Tombstone(key, version, System.nanoTime()));
+        }
+        purgeTombstones();
+    }
+
+    private void purgeTombstones() {
+        long now = System.nanoTime();
+        Tombstone head;
+        while ((head = tombstones.peek()) != null && now - head.writtenAt() >= TOMBSTONE_TTL_NANOS) {
+            Tombstone tombstone = tombstones.poll();
+            if (tombstone == null) return;
+            if (now - tombstone.writtenAt() < TOMBSTONE_TTL_NANOS) {
+                // another caller took the expired head first, so this one goes back until it expires too
+                tombstones.add(tombstone);
+                return;
+            }
+            // a tombstone that has been replaced by a newer copy is left to that copy
+            replicas.computeIfPresent(tombstone.key(), (k, current) ->
+                current.value() == null && current.version() == tombstone.version() ? null : current
+            );
+        }
+    }
+
+    /**
+     * @return replicated value of the key, or null if no copy is held or the key was deleted
+     */
+    public Object getReplica(String key) {
+        Replica replica = replicas.get(key);
+        return replica != null ? replica.value() : null;
+    }
+
+    /**
+     * Takes over the replicated keys of a peer that has left. Every key passes to the node named by the successor
+     * function: keys passed to this node become local, and the others are kept as replicas of their new owner.
+     * @return keys that became local
+     */
+    public List<String> promoteReplicas(String peer, String self, UnaryOperator<String> successor) {
+        List<String> promoted = new ArrayList<>();
+        for (Map.Entry<String, Replica> entry : replicas.entrySet()) {
+            Replica replica = entry.getValue();
+            if (!replica.owner().equals(peer)) continue;
+            String key = entry.getKey();
+            String owner = successor.apply(key);
+            if (!owner.equals(self)) {
+                replicas.replace(key, replica, new Replica(owner, replica.value(), replica.version()));
+            } else if (replicas.remove(key, replica) && replica.value() != null) {
+                // the record of the previous owner would keep the key from being written locally
+                removePeerForKey(key);
+                put(key, replica.value());
+                promoted.add(key);
+            }
+        }
+        return promoted;
+    }
+
+    /**
+     * @return live view of the keys of local data, sorted
+     */
+    public Set<String> getLocalKeys() {
+        return localStore.keySet();
     }
 
     public boolean hasLocally(String key) {
@@ -69,4 +561,39 @@ public class Store {
     public boolean hasKey(String key) {
         return hasLocally(key) || hasRemotely(key);
     }
+
+    private record Replica(String owner, Object value, long version) {
+    }
+
+    /**
+     * @param writtenAt {@link System#nanoTime()} at which the tombstone was written
+     */
+    private record Tombstone(String key, long version, long writtenAt) {
+    }
+
+    /**
+     * Keys recorded as owned by a single peer, along with a hash tree over them that is kept in step with the set
+     */
+    private record PeerKeys(Set<String> keys, MerkleTree tree) {
+        private PeerKeys() {
+            this(ConcurrentHashMap.newKeySet(), new MerkleTree());
+        }
+
+        private void add(String key) {
+            if (keys.add(key)) tree.toggle(key);
+        }
+
+        private void remove(String key) {
+            if (keys.remove(key)) tree.toggle(key);
+        }
+    }
+
+    private static final int REMOVAL_BATCH_SIZE = 4096;
+    private static final int LOCK_STRIPES_PER_CORE = 16;
+    /**
+     * Time a replica tombstone is kept, three times the default interval of anti-entropy rounds and far beyond the
+     * deadline of the write whose late copies it holds off
+     */
+    private static final long TOMBSTONE_TTL_MILLIS = 30000;
+    private static final long TOMBSTONE_TTL_NANOS = TimeUnit.MILLISECONDS.toNanos(TOMBSTONE_TTL_MILLIS);
 }
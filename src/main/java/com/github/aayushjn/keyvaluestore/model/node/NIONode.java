@@ -0,0 +1,232 @@
+package com.github.aayushjn.keyvaluestore.model.node;
+
+import com.github.aayushjn.keyvaluestore.model.MessageCodec;
+import com.github.aayushjn.keyvaluestore.model.MessageType;
+import com.github.aayushjn.keyvaluestore.model.PayloadCompressor;
+import com.github.aayushjn.keyvaluestore.model.Store;
+import com.github.aayushjn.keyvaluestore.net.BlockingMessengerAdapter;
+import com.github.aayushjn.keyvaluestore.net.nio.NIOMessenger;
+
+import java.io.IOException;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+
+/**
+ * Non-blocking TCP node. A single selector loop accepts every peer connection and services all reads and writes, so
+ * idle connections cost nothing and the number of peers does not dictate the number of threads.
+ * <p>
+ * Messages whose handling may block are handled off the selector loop, which queues their responses on their
+ * connection once it is woken up, see {@link Node#handleRemoteMessage(MessageType, java.util.function.Consumer)}.
+ */
+public class NIONode extends Node {
+    private final ServerSocketChannel listenChannel;
+    private final Selector selector;
+    /**
+     * Connections that have responses queued from outside the selector loop
+     */
+    private final Queue<SelectionKey> pendingResponses;
+    private volatile Thread selectorThread;
+
+    public NIONode(String addr, int port, String... peers) throws IOException {
+        this(addr, port, ExecutionMode.PLATFORM, peers);
+    }
+
+    public NIONode(String addr, int port, ExecutionMode executionMode, String... peers) throws IOException {
+        this(addr, port, executionMode, new Store(), peers);
+    }
+
+    public NIONode(
+        String addr,
+        int port,
+        ExecutionMode executionMode,
+        Store store,
+        String... peers
+    ) throws IOException {
+        super(NodeType.NIO, executionMode, store, peers);
+
+        InetAddress bindAddr;
+        try {
+            bindAddr = InetAddress.getByName(addr);
+        } catch (UnknownHostException e) {
+            bindAddr = InetAddress.getLoopbackAddress();
+        }
+        selector = Selector.open();
+        pendingResponses = new ConcurrentLinkedQueue<>();
+        listenChannel = ServerSocketChannel.open();
+        listenChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        listenChannel.bind(new InetSocketAddress(bindAddr, port), peers.length);
+        listenChannel.configureBlocking(false);
+        listenChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+        selfAddr = addr + ":" + port;
+        // requests block on the channel to the peer, so asynchronous calls each take a task thread for the duration of
+        // the call
+        messenger = new BlockingMessengerAdapter(new NIOMessenger(selfAddr, compressor), taskExecutor);
+        logger.info(() -> "listening on " + listenChannel.socket().getLocalSocketAddress());
+
+        state.compareAndSet(NodeState.READY, NodeState.RUNNING);
+    }
+
+    @Override
+    protected void listenOnSocket() {
+        selectorThread = Thread.currentThread();
+        while (state.get() == NodeState.RUNNING) {
+            try {
+                selector.select();
+            } catch (ClosedSelectorException ignored) {
+                // selector is closed when the node shuts down
+                return;
+            } catch (IOException e) {
+                logger.log(Level.WARNING, e, e::getMessage);
+                return;
+            }
+
+            SelectionKey pending;
+            while ((pending = pendingResponses.poll()) != null) {
+                try {
+                    if (pending.isValid()) flushResponses(pending);
+                } catch (CancelledKeyException ignored) {
+                    // connection was closed while its response was being prepared
+                } catch (IOException e) {
+                    logger.log(Level.FINE, e, e::getMessage);
+                    closeConnection(pending);
+                }
+            }
+
+            Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+            while (iterator.hasNext()) {
+                SelectionKey key = iterator.next();
+                iterator.remove();
+                try {
+                    if (!key.isValid()) continue;
+                    if (key.isAcceptable()) {
+                        accept();
+                    }
+                    if (key.isValid() && key.isReadable()) {
+                        read(key);
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        write(key);
+                    }
+                } catch (CancelledKeyException ignored) {
+                    // connection was closed while its events were being handled
+                } catch (IOException e) {
+                    logger.log(Level.FINE, e, e::getMessage);
+                    closeConnection(key);
+                }
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = listenChannel.accept();
+        if (channel == null) return;
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        channel.register(selector, SelectionKey.OP_READ, new Connection());
+    }
+
+    private void read(SelectionKey key) throws IOException {
+        SocketChannel channel = (SocketChannel) key.channel();
+        Connection conn = (Connection) key.attachment();
+
+        if (channel.read(conn.readBuffer) < 0) {
+            closeConnection(key);
+            return;
+        }
+
+        conn.readBuffer.flip();
+        boolean exit = false;
+        PayloadCompressor.Frame frame;
+        while ((frame = compressor.readFrame(conn.readBuffer)) != null) {
+            MessageType mt = frame.message();
+            if (frame.acceptsCompression()) conn.peerAccepts = true;
+            handleRemoteMessage(mt, resp -> queueResponse(key, conn, resp));
+            if (mt instanceof MessageType.Exit) {
+                exit = true;
+                break;
+            }
+        }
+        int frameLength = MessageCodec.peekFrameLength(conn.readBuffer);
+        conn.readBuffer.compact();
+        if (frameLength > conn.readBuffer.capacity()) {
+            conn.readBuffer = MessageCodec.ensureRemaining(conn.readBuffer, frameLength - conn.readBuffer.position());
+        }
+
+        if (exit) {
+            closeConnection(key);
+        } else {
+            flushResponses(key);
+        }
+    }
+
+    private void queueResponse(SelectionKey key, Connection conn, MessageType resp) {
+        if (resp == null) return;
+        conn.responses.add(resp);
+        // responses queued by the selector loop itself are flushed once it has read every frame
+        if (Thread.currentThread() != selectorThread) {
+            pendingResponses.add(key);
+            selector.wakeup();
+        }
+    }
+
+    private void flushResponses(SelectionKey key) throws IOException {
+        Connection conn = (Connection) key.attachment();
+        MessageType resp;
+        while ((resp = conn.responses.poll()) != null) {
+            conn.writeBuffer = compressor.writeFrame(resp, conn.writeBuffer, conn.peerAccepts);
+        }
+        if (conn.writeBuffer.position() > 0) write(key);
+    }
+
+    private void write(SelectionKey key) throws IOException {
+        SocketChannel channel = (SocketChannel) key.channel();
+        Connection conn = (Connection) key.attachment();
+
+        conn.writeBuffer.flip();
+        channel.write(conn.writeBuffer);
+        conn.writeBuffer.compact();
+        if (conn.writeBuffer.position() > 0) {
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        } else {
+            key.interestOps(SelectionKey.OP_READ);
+        }
+    }
+
+    private void closeConnection(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            logger.log(Level.FINE, e, e::getMessage);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        super.close();
+        selector.close();
+        listenChannel.close();
+        ((BlockingMessengerAdapter) messenger).close();
+    }
+
+    /**
+     * Per-connection buffers, reused across every frame received on the connection, and whether the peer accepts
+     * compressed responses
+     * <p>
+     * Responses are queued until the selector loop writes them out. The response to a message handled off the loop may
+     * be written after those of later messages, which the messenger of a peer never notices, as it waits for each
+     * response before sending its next request over the connection.
+     */
+    private static final class Connection {
+        private final Queue<MessageType> responses = new ConcurrentLinkedQueue<>();
+        private ByteBuffer readBuffer = ByteBuffer.allocateDirect(MessageCodec.DEFAULT_BUFFER_SIZE);
+        private ByteBuffer writeBuffer = ByteBuffer.allocateDirect(MessageCodec.DEFAULT_BUFFER_SIZE);
+        private boolean peerAccepts;
+    }
+}
@@ -1,15 +1,43 @@
 package com.github.aayushjn.keyvaluestore.model.node;
 
+import com.github.aayushjn.keyvaluestore.metrics.Metrics;
+import com.github.aayushjn.keyvaluestore.metrics.Timer;
 import com.github.aayushjn.keyvaluestore.model.Agreeable;
+import com.github.aayushjn.keyvaluestore.model.MessageCodec;
 import com.github.aayushjn.keyvaluestore.model.MessageType;
+import com.github.aayushjn.keyvaluestore.model.PayloadCompressor;
 import com.github.aayushjn.keyvaluestore.model.Store;
-import com.github.aayushjn.keyvaluestore.net.Messenger;
+import com.github.aayushjn.keyvaluestore.net.AntiEntropy;
+import com.github.aayushjn.keyvaluestore.net.AsyncMessenger;
+import com.github.aayushjn.keyvaluestore.net.CachingMessenger;
+import com.github.aayushjn.keyvaluestore.net.FailureDetector;
+import com.github.aayushjn.keyvaluestore.net.MeteredMessenger;
+import com.github.aayushjn.keyvaluestore.storage.DirectorySnapshot;
+import com.github.aayushjn.keyvaluestore.util.HashRing;
+import com.github.aayushjn.keyvaluestore.util.LruCache;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.Set;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -20,75 +48,846 @@ public abstract class Node extends Agreeable<String> implements Closeable {
     protected Store store;
     protected final NodeType type;
     protected AtomicReference<NodeState> state;
-    protected Messenger messenger;
+    protected AsyncMessenger messenger;
+    protected final ExecutionMode executionMode;
+    protected final Metrics metrics;
+    /**
+     * Compressor of the messages exchanged with peers, which transports that compress messages share
+     */
+    protected final PayloadCompressor compressor;
+    /**
+     * Address peers know this node by, set by subclasses once they are bound
+     */
+    protected String selfAddr;
+    private volatile AsyncMessenger meteredMessenger;
+    private volatile CachingMessenger cachingMessenger;
+    private volatile Placement placement;
+    private volatile HashRing ring;
+    private volatile UnaryOperator<MessageType> writeHandler;
+    private volatile int replicationFactor;
+    private volatile Replication replication;
+    private volatile Consumer<String> repairHandler;
+    private volatile Consumer<String> handOffHandler;
+    private int requestedReplicas;
+    /**
+     * Snapshots of the ownership directory being fetched by joining nodes, by node
+     */
+    private final Map<String, DirectorySnapshot> directorySnapshots;
+    /**
+     * Keys deleted while this node fetches the directory of a member, which may still list them
+     */
+    private volatile Set<String> directoryDeletes;
+    private long heartbeatIntervalMillis;
+    private double phiThreshold;
+    private volatile FailureDetector failureDetector;
+    private long antiEntropyIntervalMillis;
+    private volatile AntiEntropy antiEntropy;
+
     protected Node(NodeType type, String... peers) {
-        super(peers);
+        this(type, ExecutionMode.PLATFORM, peers);
+    }
+
+    protected Node(NodeType type, ExecutionMode executionMode, String... peers) {
+        this(type, executionMode, new Store(), peers);
+    }
 
-        int peerCount = peers.length;
+    /**
+     * @param store store to serve, which may already hold recovered data
+     */
+    protected Node(NodeType type, ExecutionMode executionMode, Store store, String... peers) {
+        this(type, executionMode, store, 1, peers);
+    }
+
+    /**
+     * @param connectionsPerPeer number of connections each peer opens to this node, each of which may be served by a
+     *                           thread of its own
+     */
+    protected Node(NodeType type, ExecutionMode executionMode, Store store, int connectionsPerPeer, String... peers) {
+        super(peers);
 
         this.type = type;
+        this.executionMode = executionMode;
         state = new AtomicReference<>(NodeState.READY);
+        metrics = new Metrics(type.name().toLowerCase(Locale.ROOT));
+        compressor = new PayloadCompressor(metrics);
+        placement = Placement.VOTE;
+        replication = Replication.ASYNC;
+        heartbeatIntervalMillis = FailureDetector.DEFAULT_INTERVAL_MILLIS;
+        phiThreshold = FailureDetector.DEFAULT_THRESHOLD;
+        antiEntropyIntervalMillis = AntiEntropy.DEFAULT_INTERVAL_MILLIS;
+        directorySnapshots = new ConcurrentHashMap<>();
 
-        executorService = Executors.newFixedThreadPool(peerCount > 0 ? peerCount + 1 : 1);
+        executorService = executionMode.newExecutor(peers.length * connectionsPerPeer);
+        taskExecutor = executionMode.newTaskExecutor();
 
-        store = new Store();
+        this.store = store;
     }
 
     protected ExecutorService executorService;
+    /**
+     * Executor for short-lived outbound work such as fanning requests out to peers. It is kept separate from
+     * {@link #executorService} so that outbound calls never queue behind listener tasks.
+     */
+    protected final ExecutorService taskExecutor;
 
     public Store getStore() {
         return store;
     }
 
-    public Messenger getMessenger() {
-        return messenger;
+    /**
+     * @return messenger for outbound calls, which goes through the remote value cache if it is enabled
+     */
+    public AsyncMessenger getMessenger() {
+        CachingMessenger cache = cachingMessenger;
+        return cache != null ? cache : meteredMessenger();
+    }
+
+    private AsyncMessenger meteredMessenger() {
+        AsyncMessenger metered = meteredMessenger;
+        if (metered == null) {
+            // the wrapper keeps no state of its own, so one created by a racing caller is just as good
+            metered = new MeteredMessenger(messenger, metrics, selfAddr);
+            meteredMessenger = metered;
+        }
+        return metered;
+    }
+
+    /**
+     * Caches the values of keys owned by peers that are read through {@link #getMessenger()}. Every node of the cluster
+     * should enable the cache, as only nodes that cache send out invalidations when they change a key.
+     * @param ttlMillis time after which cached values expire, or 0 if they only expire through invalidation
+     */
+    public void enableCache(long maxBytes, long ttlMillis) {
+        cachingMessenger = new CachingMessenger(meteredMessenger(), maxBytes, ttlMillis);
+    }
+
+    /**
+     * @return remote value cache, or null if it is not enabled
+     */
+    public CachingMessenger getCache() {
+        return cachingMessenger;
+    }
+
+    /**
+     * Switches to the given placement of keys, which must be the same on every node of the cluster. Under
+     * {@link Placement#HASH}, the ring is built from this node and its peers.
+     */
+    public synchronized void setPlacement(Placement placement) {
+        this.placement = placement;
+        buildRing();
+    }
+
+    /**
+     * Has the owner of every key push its writes to the given number of peers, which serve reads of the key as well.
+     * The replicas of a key are the peers that follow its owner on a hash ring over the cluster, so every node finds
+     * them by itself whatever the placement. Every node of the cluster must use the same settings.
+     * @param replicas number of copies of each key besides that of its owner, which is capped at the number of peers,
+     *                 including those that join later
+     */
+    public synchronized void setReplication(int replicas, Replication replication) {
+        requestedReplicas = replicas;
+        replicationFactor = Math.min(replicas, peers.size());
+        this.replication = replication;
+        buildRing();
+    }
+
+    private void buildRing() {
+        if (placement == Placement.HASH || replicationFactor > 0) {
+            List<String> members = new ArrayList<>(peers);
+            members.add(selfAddr);
+            ring = new HashRing(members);
+        } else {
+            ring = null;
+        }
+    }
+
+    /**
+     * Removes the peer from the ring, which only moves the keys it owned to other nodes
+     * @return ring before the removal
+     */
+    private synchronized HashRing leaveRing(String peer) {
+        HashRing previous = ring;
+        if (previous != null) ring = previous.without(peer);
+        return previous;
+    }
+
+    public Placement getPlacement() {
+        return placement;
+    }
+
+    /**
+     * @return the node that owns the key under {@link Placement#HASH}
+     * @throws IllegalStateException if keys are placed by vote
+     */
+    public String getOwner(String key) {
+        if (placement != Placement.HASH) throw new IllegalStateException("keys are not placed by hash");
+        return ring.getOwner(key);
+    }
+
+    public int getReplicationFactor() {
+        return replicationFactor;
+    }
+
+    public Replication getReplication() {
+        return replication;
+    }
+
+    /**
+     * @return nodes that hold copies of the key, given the node that owns it
+     */
+    public List<String> getReplicas(String key, String owner) {
+        int count = replicationFactor;
+        if (count == 0) return List.of();
+        return replicasOf(ring, key, owner, count);
+    }
+
+    private static List<String> replicasOf(HashRing ring, String key, String owner, int count) {
+        List<String> replicas = new ArrayList<>(ring.getOwners(key, count + 1));
+        replicas.remove(owner);
+        return replicas.size() > count ? replicas.subList(0, count) : replicas;
+    }
+
+    /**
+     * Sets the handler of PUT and DEL requests that peers forward to this node as the owner of a key under
+     * {@link Placement#HASH}, which answers each with a {@link MessageType.Reply}
+     */
+    public void setWriteHandler(UnaryOperator<MessageType> writeHandler) {
+        this.writeHandler = writeHandler;
     }
 
+    /**
+     * Sets the handler of keys owned by this node whose writes have to be pushed to their replicas again, as a peer
+     * that held copies of them has left or as this node has just taken them over
+     */
+    public void setRepairHandler(Consumer<String> repairHandler) {
+        this.repairHandler = repairHandler;
+    }
+
+    /**
+     * Sets the handler of keys held by this node that a node which has just joined owns under {@link Placement#HASH},
+     * which have to be moved to it
+     */
+    public void setHandOffHandler(Consumer<String> handOffHandler) {
+        this.handOffHandler = handOffHandler;
+    }
+
+    /**
+     * Sets how peers are monitored once the node listens. Peers that stop answering heartbeats are suspected and left
+     * out of votes and fan-outs until they answer again.
+     * @param intervalMillis time between heartbeats sent to each peer, or 0 to never suspect peers
+     * @param threshold      suspicion level above which a peer is suspected, see {@link FailureDetector}
+     */
+    public void setFailureDetection(long intervalMillis, double threshold) {
+        heartbeatIntervalMillis = intervalMillis;
+        phiThreshold = threshold;
+    }
+
+    /**
+     * Sets how often, once the node listens, its record of the keys owned by a peer is compared with that peer's own
+     * under {@link Placement#VOTE}, see {@link AntiEntropy}
+     * @param intervalMillis time between comparisons, each with a single peer, or 0 to never compare records
+     */
+    public void setAntiEntropy(long intervalMillis) {
+        antiEntropyIntervalMillis = intervalMillis;
+    }
+
+    /**
+     * Sets from which size messages to peers are compressed, see {@link PayloadCompressor}. Messages over
+     * {@link NodeType#RMI} are never compressed.
+     * @param minBytes encoded size of the smallest message to compress, or 0 to never compress messages
+     */
+    public void setCompression(int minBytes) {
+        compressor.setMinBytes(minBytes);
+    }
+
+    /**
+     * @return anti-entropy of the ownership directory, or null if it is not running
+     */
+    public AntiEntropy getAntiEntropy() {
+        return antiEntropy;
+    }
+
+    public ExecutorService getTaskExecutor() {
+        return taskExecutor;
+    }
+
+    public String getSelfAddr() {
+        return selfAddr;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return human-readable report of the metrics of this node and of its remote value cache
+     */
+    public String getStatsReport() {
+        StringBuilder sb = new StringBuilder(metrics.report());
+        sb.append("Peers: ").append(getLivePeers().size()).append(" of ").append(peers.size()).append(" live");
+        FailureDetector detector = failureDetector;
+        for (String peer : peers) {
+            if (isSuspected(peer)) {
+                sb.append(", ").append(peer).append(" suspected");
+                if (detector != null) sb.append(String.format(" (phi %.1f)", detector.phi(peer)));
+            }
+        }
+        sb.append('\n');
+        AntiEntropy repair = antiEntropy;
+        if (repair != null) {
+            AntiEntropy.Stats stats = repair.getStats();
+            sb.append("Anti-entropy: ").append(stats.rounds()).append(" rounds, ").append(stats.differingBuckets())
+                .append(" buckets differed, ").append(stats.keysRecorded()).append(" keys recorded, ")
+                .append(stats.keysForgotten()).append(" keys forgotten\n");
+        }
+        CachingMessenger cache = cachingMessenger;
+        if (cache == null) {
+            sb.append("Remote value cache is disabled\n");
+        } else {
+            LruCache.Stats stats = cache.getStats();
+            sb.append("Cache: ").append(stats.hits()).append(" hits, ").append(stats.misses()).append(" misses (")
+                .append(String.format("%.1f", stats.hitRatio() * 100)).append("% hit ratio), ")
+                .append(stats.evictions()).append(" evictions, ").append(stats.size()).append(" entries, ")
+                .append(stats.weight()).append(" bytes\n");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Handles a message received from a peer, recording its latency and size in the metrics of the node
+     * @return response to send back, or null if the message needs none
+     */
     protected MessageType handleRemoteMessage(MessageType mt) {
+        Timer timer = metrics.handler(mt);
+        long start = System.nanoTime();
+        MessageType resp;
+        try {
+            resp = serve(mt);
+        } catch (RuntimeException e) {
+            timer.recordError(System.nanoTime() - start);
+            metrics.getTraffic().recordError();
+            throw e;
+        }
+        timer.record(System.nanoTime() - start);
+        metrics.getTraffic().recordReceived(MessageCodec.sizeOf(mt));
+        if (resp != null) metrics.getTraffic().recordSent(MessageCodec.sizeOf(resp));
+        return resp;
+    }
+
+    /**
+     * Handles a message received from a peer and hands its response to `respond`. Messages whose handling may block,
+     * which are writes forwarded to this node as the owner of their key and requests for blocks of the ownership
+     * directory, are handled on {@link #taskExecutor}, so that they never hold up the thread that reads the messages of
+     * a connection, or of every connection, behind them.
+     * @param respond called once with the response, or with null if the message needs none or could not be handled
+     */
+    protected void handleRemoteMessage(MessageType mt, Consumer<MessageType> respond) {
+        if (!mayBlock(mt)) {
+            respondTo(mt, respond);
+            return;
+        }
+        try {
+            taskExecutor.execute(() -> respondTo(mt, respond));
+        } catch (RejectedExecutionException e) {
+            // the node is shutting down
+            respond.accept(null);
+        }
+    }
+
+    /**
+     * Handles a message on the calling thread and hands its response to `respond`, see
+     * {@link #handleRemoteMessage(MessageType, Consumer)}
+     */
+    protected void respondTo(MessageType mt, Consumer<MessageType> respond) {
+        MessageType resp;
+        try {
+            resp = handleRemoteMessage(mt);
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, e, e::getMessage);
+            resp = null;
+        }
+        respond.accept(resp);
+    }
+
+    private boolean mayBlock(MessageType mt) {
+        return mt instanceof MessageType.Directory
+            || (placement == Placement.HASH && (mt instanceof MessageType.Put || mt instanceof MessageType.Del));
+    }
+
+    private MessageType serve(MessageType mt) {
         MessageType resp = null;
         if (mt instanceof MessageType.Get) {
+            // always respond, with a null value if the key is not held here, so the requester is never left waiting
             if (store.hasLocally(mt.getKey())) {
                 resp = new MessageType.Data(mt.getKey(), store.get(mt.getKey()));
+            } else {
+                resp = new MessageType.Data(mt.getKey(), store.getReplica(mt.getKey()));
             }
+        } else if (mt instanceof MessageType.Replicate replicate) {
+            store.putReplica(mt.getKey(), mt.getPeer(), mt.getValue(), replicate.getVersion());
+            resp = new MessageType.Ack(mt.getKey());
+        } else if (placement == Placement.HASH && (mt instanceof MessageType.Put || mt instanceof MessageType.Del)) {
+            UnaryOperator<MessageType> handler = writeHandler;
+            resp = handler != null ? handler.apply(mt) : new MessageType.Nak(mt.getKey());
         } else if (mt instanceof MessageType.Del) {
+            Set<String> deletes = directoryDeletes;
+            if (deletes != null) deletes.add(mt.getKey());
             store.removePeerForKey(mt.getKey());
-            votedOn.remove(mt.getKey());
+            endVote(mt.getKey());
+            invalidate(mt.getKey());
         } else if (mt instanceof MessageType.Store) {
             resp = new MessageType.DataAll(store.getAll());
+        } else if (mt instanceof MessageType.Scan scan) {
+            resp = store.scan(scan.getCursor(), Math.min(scan.getCount(), MAX_SCAN_COUNT), MAX_PAGE_BYTES);
         } else if (mt instanceof MessageType.Owner) {
-            if (store.hasKey(mt.getKey()) || votedOn.contains(mt.getKey())) {
-                resp = new MessageType.Nak(mt.getKey());
-            } else {
+            if (!store.hasKey(mt.getKey()) && promise(mt.getKey())) {
                 resp = new MessageType.Ack(mt.getKey());
+            } else {
+                resp = new MessageType.Nak(mt.getKey());
             }
-            votedOn.add(mt.getKey());
         } else if (mt instanceof MessageType.Commit) {
             store.putPeerForKey(mt.getKey(), mt.getPeer());
-            votedOn.remove(mt.getKey());
+            endVote(mt.getKey());
+            invalidate(mt.getKey());
+        } else if (mt instanceof MessageType.Ping) {
+            resp = new MessageType.Pong();
+        } else if (mt instanceof MessageType.Stats) {
+            resp = new MessageType.Data(STATS_KEY, getStatsReport());
+        } else if (mt instanceof MessageType.Invalidate) {
+            invalidate(mt.getKey());
+        } else if (mt instanceof MessageType.Join) {
+            admit(mt.getPeer());
+            List<String> members = new ArrayList<>(peers);
+            members.add(selfAddr);
+            resp = new MessageType.Data(MEMBERS_KEY, String.join(",", members));
+        } else if (mt instanceof MessageType.Directory directory) {
+            resp = serveDirectory(directory.getPeer(), directory.getOffset());
+        } else if (mt instanceof MessageType.Digest || mt instanceof MessageType.Range) {
+            resp = AntiEntropy.answer(store, mt, MAX_PAGE_BYTES);
         } else if (mt instanceof MessageType.Exit) {
-            store.removePeer(mt.getPeer());
-            peers.remove(mt.getPeer());
-            recomputeMajority();
+            String peer = mt.getPeer();
+            closeDirectory(peer);
+            if (replicationFactor == 0) store.removePeerAsync(peer, taskExecutor);
+            removePeer(peer);
+            FailureDetector detector = failureDetector;
+            if (detector != null) detector.remove(peer);
+            HashRing previous = leaveRing(peer);
+            if (replicationFactor > 0) taskExecutor.execute(() -> takeOver(peer, previous));
+            CachingMessenger cache = cachingMessenger;
+            if (cache != null) cache.invalidatePeer(mt.getPeer());
         } else {
             logger.warning(() -> "Unsupported message type received " + mt);
         }
         return resp;
     }
 
+    /**
+     * Hands the keys of a peer that has left over to the next node in line for each, which is its first replica. This
+     * node takes over the keys it is next in line for, and has those and every key whose copies were held by the peer
+     * replicated again, so that they are back to their number of copies.
+     */
+    private void takeOver(String peer, HashRing previous) {
+        HashRing current = ring;
+        List<String> promoted = store.promoteReplicas(peer, selfAddr, current::getOwner);
+        if (placement == Placement.VOTE) store.reassignPeer(peer, selfAddr, current::getOwner);
+
+        Consumer<String> handler = repairHandler;
+        if (handler == null) return;
+        promoted.forEach(handler);
+        Set<String> promotedKeys = new HashSet<>(promoted);
+        for (String key : store.getLocalKeys()) {
+            if (!promotedKeys.contains(key) && replicasOf(previous, key, selfAddr, replicationFactor).contains(peer)) {
+                handler.accept(key);
+            }
+        }
+    }
+
+    /**
+     * Adds a node that has joined the cluster to the peers. It takes part in votes and fan-outs from then on, and is
+     * handed the keys of this node that it now owns or holds copies of.
+     * @return false if the node already was a peer
+     */
+    public boolean admit(String peer) {
+        if (peer.equals(selfAddr)) return false;
+        boolean replicasGrown;
+        synchronized (this) {
+            if (!addPeer(peer)) return false;
+            int previousFactor = replicationFactor;
+            replicationFactor = Math.min(requestedReplicas, peers.size());
+            replicasGrown = replicationFactor > previousFactor;
+            buildRing();
+        }
+        logger.info(() -> peer + " joined the cluster");
+        FailureDetector detector = failureDetector;
+        if (detector != null) detector.add(peer);
+        if (ring != null) {
+            try {
+                taskExecutor.execute(() -> rebalance(peer, replicasGrown));
+            } catch (RejectedExecutionException e) {
+                // the node is shutting down
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Moves what a node that has joined takes over from this one: the keys it owns under {@link Placement#HASH} are
+     * handed off to it, and the keys it holds copies of are replicated to it
+     * @param replicasGrown whether every key has more replicas than before, which have to be replicated to as well
+     */
+    private void rebalance(String peer, boolean replicasGrown) {
+        HashRing current = ring;
+        Consumer<String> handOff = handOffHandler;
+        Consumer<String> repair = repairHandler;
+        int count = replicationFactor;
+        for (String key : store.getLocalKeys()) {
+            if (placement == Placement.HASH && current.getOwner(key).equals(peer)) {
+                if (handOff != null) handOff.accept(key);
+            } else if (repair != null && count > 0
+                && (replicasGrown || replicasOf(current, key, selfAddr, count).contains(peer))) {
+                repair.accept(key);
+            }
+        }
+    }
+
+    /**
+     * Joins the cluster through the first of the given members that answers. Every member of the cluster is asked to
+     * admit this node, after which, under {@link Placement#VOTE}, the ownership directory of that member is fetched, so
+     * that this node knows the owner of every key from the start.
+     * @throws IOException if none of the members could be reached, or the directory could not be fetched
+     */
+    public void join(List<String> members) throws IOException {
+        AsyncMessenger messenger = getMessenger();
+        String seed = null;
+        List<String> learnt = List.of();
+        IOException failure = new IOException("no member to join through");
+        for (String member : members) {
+            try {
+                learnt = membersOf(messenger.join(member));
+                seed = member;
+                break;
+            } catch (IOException e) {
+                logger.log(Level.WARNING, e, () -> "could not join through " + member + ": " + e.getMessage());
+                failure = e;
+            }
+        }
+        if (seed == null) throw failure;
+
+        // announce this node to every member before the directory is taken, so that the keys each of them commits
+        // from then on reach this node directly
+        Set<String> announced = new HashSet<>(List.of(seed, selfAddr));
+        while (!learnt.isEmpty()) {
+            List<String> unannounced = new ArrayList<>();
+            for (String member : learnt) {
+                admit(member);
+                if (announced.add(member)) unannounced.add(member);
+            }
+            List<CompletableFuture<MessageType>> calls = unannounced.stream().map(messenger::joinAsync).toList();
+            learnt = new ArrayList<>();
+            for (int i = 0; i < calls.size(); i++) {
+                try {
+                    learnt.addAll(membersOf(AsyncMessenger.await(calls.get(i))));
+                } catch (IOException e) {
+                    String member = unannounced.get(i);
+                    logger.log(Level.WARNING, e, () -> "could not announce to " + member + ": " + e.getMessage());
+                }
+            }
+            learnt.removeAll(announced);
+        }
+
+        if (placement == Placement.VOTE) fetchDirectory(seed);
+    }
+
+    private static List<String> membersOf(MessageType resp) throws IOException {
+        if (!(resp instanceof MessageType.Data data) || !MEMBERS_KEY.equals(data.getKey())) {
+            throw new IOException("unexpected response to join: " + resp);
+        }
+        return List.of(String.valueOf(data.getValue()).split(","));
+    }
+
+    /**
+     * Records the owners of the keys in the ownership directory of a member, one block at a time. Keys that are
+     * committed or deleted while the directory is fetched reach this node directly, and take precedence over it.
+     */
+    private void fetchDirectory(String member) throws IOException {
+        long start = System.nanoTime();
+        Set<String> deletes = ConcurrentHashMap.newKeySet();
+        directoryDeletes = deletes;
+        try {
+            long offset = 0;
+            long keyCount = 0;
+            MessageType.Chunk chunk;
+            do {
+                chunk = fetchChunk(member, offset);
+                if (chunk.getBlock().length > 0) {
+                    DirectorySnapshot.Block block = DirectorySnapshot.decode(chunk.getBlock());
+                    List<String> keys = block.keys();
+                    if (!deletes.isEmpty()) keys = keys.stream().filter(key -> !deletes.contains(key)).toList();
+                    if (!block.owner().equals(selfAddr)) store.putPeerForKeys(block.owner(), keys);
+                    keyCount += keys.size();
+                }
+                offset = chunk.getNextOffset();
+            } while (!chunk.isLast());
+            long keys = keyCount;
+            long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            logger.info(() -> "Fetched the owners of " + keys + " keys from " + member + " in " + millis + " ms");
+        } catch (IllegalArgumentException e) {
+            throw new IOException("malformed directory block from " + member, e);
+        } finally {
+            directoryDeletes = null;
+        }
+    }
+
+    /**
+     * Fetches a block of a directory, asking again if the response is lost, as fetching a block is idempotent
+     */
+    private MessageType.Chunk fetchChunk(String member, long offset) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                if (getMessenger().fetchDirectory(new MessageType.Directory(offset), member)
+                    instanceof MessageType.Chunk chunk) {
+                    return chunk;
+                }
+                throw new IOException(member + " could not send its directory");
+            } catch (SocketTimeoutException e) {
+                // a retry at the start would take a new snapshot and leave the previous one behind
+                if (offset == 0 || attempt == DIRECTORY_FETCH_ATTEMPTS) throw e;
+            }
+        }
+    }
+
+    /**
+     * Serves a block of the ownership directory of this node to a joining node, taking a new snapshot of the directory
+     * for a request at offset 0
+     * @return the block, or a {@link MessageType.Nak} if the snapshot was not found or failed
+     */
+    private MessageType serveDirectory(String peer, long offset) {
+        try {
+            DirectorySnapshot snapshot;
+            if (offset == 0) {
+                snapshot = DirectorySnapshot.take(
+                    consumer -> store.forEachOwner(selfAddr, consumer),
+                    MAX_PAGE_BYTES,
+                    taskExecutor
+                );
+                DirectorySnapshot previous = directorySnapshots.put(peer, snapshot);
+                if (previous != null) previous.close();
+                expireDirectoryLater(peer, snapshot, DIRECTORY_IDLE_MILLIS);
+                offset = snapshot.firstBlock();
+            } else {
+                snapshot = directorySnapshots.get(peer);
+                if (snapshot == null) return new MessageType.Nak("");
+            }
+            MessageType.Chunk chunk = snapshot.read(offset, DIRECTORY_WAIT_MILLIS);
+            if (chunk.isLast()) closeDirectory(peer);
+            return chunk;
+        } catch (IOException e) {
+            logger.log(Level.WARNING, e, e::getMessage);
+            closeDirectory(peer);
+            return new MessageType.Nak("");
+        }
+    }
+
+    /**
+     * Closes the snapshot once it has not been read from for {@link #DIRECTORY_IDLE_MILLIS}, as a joining node that
+     * fails midway never fetches its last block
+     */
+    private void expireDirectoryLater(String peer, DirectorySnapshot snapshot, long delayMillis) {
+        CompletableFuture.delayedExecutor(delayMillis, TimeUnit.MILLISECONDS, taskExecutor).execute(() -> {
+            if (directorySnapshots.get(peer) != snapshot) return;
+            long idleMillis = TimeUnit.NANOSECONDS.toMillis(snapshot.getIdleNanos());
+            if (idleMillis < DIRECTORY_IDLE_MILLIS) {
+                expireDirectoryLater(peer, snapshot, DIRECTORY_IDLE_MILLIS - idleMillis);
+            } else if (directorySnapshots.remove(peer, snapshot)) {
+                logger.warning(() -> "dropping directory snapshot of " + peer + " after it was idle for " + idleMillis
+                    + " ms");
+                try {
+                    snapshot.close();
+                } catch (IOException e) {
+                    logger.log(Level.WARNING, e, e::getMessage);
+                }
+            }
+        });
+    }
+
+    private void closeDirectory(String peer) {
+        DirectorySnapshot snapshot = directorySnapshots.remove(peer);
+        if (snapshot == null) return;
+        try {
+            snapshot.close();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, e, e::getMessage);
+        }
+    }
+
+    private void invalidate(String key) {
+        CachingMessenger cache = cachingMessenger;
+        if (cache != null) cache.invalidate(key);
+    }
+
     protected abstract void listenOnSocket();
 
     public void listen() {
+        metrics.register(selfAddr);
         executorService.submit(this::listenOnSocket);
+        if (heartbeatIntervalMillis > 0) {
+            failureDetector = new FailureDetector(
+                this::getMessenger,
+                heartbeatIntervalMillis,
+                phiThreshold,
+                new FailureDetector.Listener() {
+                    @Override
+                    public void suspected(String peer) {
+                        suspect(peer);
+                    }
+
+                    @Override
+                    public void recovered(String peer) {
+                        readmit(peer);
+                    }
+                }
+            );
+            failureDetector.start(peers);
+        }
+        if (placement == Placement.VOTE && antiEntropyIntervalMillis > 0) {
+            antiEntropy = new AntiEntropy(this::getMessenger, store, this::getLivePeers, antiEntropyIntervalMillis);
+            antiEntropy.start();
+        }
     }
 
     @Override
     public void close() throws IOException {
         if (state.compareAndSet(NodeState.RUNNING, NodeState.STOPPED)) {
             logger.info("Shutting down");
+            if (failureDetector != null) failureDetector.close();
+            if (antiEntropy != null) antiEntropy.close();
+            directorySnapshots.keySet().forEach(this::closeDirectory);
             executorService.shutdownNow();
+            taskExecutor.shutdownNow();
+            metrics.close();
+        }
+    }
+
+    /**
+     * Threading model used to serve inbound connections and requests
+     */
+    public enum ExecutionMode {
+        /**
+         * Bounded pool of platform threads, sized to one listener plus one thread per peer connection, and a bounded
+         * pool for the requests those connections carry
+         */
+        PLATFORM {
+            @Override
+            public ExecutorService newExecutor(int connectionCount) {
+                return Executors.newFixedThreadPool(connectionCount > 0 ? connectionCount + 1 : 1);
+            }
+
+            @Override
+            public ExecutorService newTaskExecutor() {
+                // no task is ever queued: once every thread is busy, the thread that submits a task runs it itself,
+                // so the reader of a connection that floods the node stops reading until it has caught up
+                return new ThreadPoolExecutor(
+                    0,
+                    TASK_THREADS_PER_CORE * Runtime.getRuntime().availableProcessors(),
+                    TASK_THREAD_KEEP_ALIVE_SECONDS,
+                    TimeUnit.SECONDS,
+                    new SynchronousQueue<>(),
+                    newThreadFactory(),
+                    (task, pool) -> {
+                        // unlike the CallerRunsPolicy, tell the caller that the node is shutting down
+                        if (pool.isShutdown()) throw new RejectedExecutionException("task executor has been shut down");
+                        task.run();
+                    }
+                );
+            }
+
+            @Override
+            public ThreadFactory newThreadFactory() {
+                return Thread.ofPlatform().daemon().factory();
+            }
+
+            @Override
+            public void grow(ExecutorService executor, int connectionCount) {
+                if (!(executor instanceof ThreadPoolExecutor pool)) return;
+                synchronized (pool) {
+                    // the maximum must never drop below the core size, so it is raised first
+                    int size = pool.getMaximumPoolSize() + connectionCount;
+                    pool.setMaximumPoolSize(size);
+                    pool.setCorePoolSize(size);
+                }
+            }
+        },
+        /**
+         * A new virtual thread for every task, so blocking socket calls do not hold on to a platform thread
+         */
+        VIRTUAL {
+            @Override
+            public ExecutorService newExecutor(int connectionCount) {
+                return Executors.newVirtualThreadPerTaskExecutor();
+            }
+
+            @Override
+            public ExecutorService newTaskExecutor() {
+                return Executors.newVirtualThreadPerTaskExecutor();
+            }
+
+            @Override
+            public ThreadFactory newThreadFactory() {
+                return Thread.ofVirtual().factory();
+            }
+        };
+
+        public abstract ExecutorService newExecutor(int connectionCount);
+
+        /**
+         * @return executor for short-lived tasks, which runs a task on the submitting thread rather than queue it when
+         * it has no thread to spare
+         */
+        public abstract ExecutorService newTaskExecutor();
+
+        /**
+         * @return factory for long-running background threads that live outside the node's executor
+         */
+        public abstract ThreadFactory newThreadFactory();
+
+        /**
+         * Makes room in an executor created by {@link #newExecutor(int)} for the given number of additional connections
+         */
+        public void grow(ExecutorService executor, int connectionCount) {
         }
     }
 
+    /**
+     * How the owner of a key is decided
+     */
+    public enum Placement {
+        /**
+         * The first node to write a key claims it by a majority vote of the peers, and every peer records the owner
+         */
+        VOTE,
+        /**
+         * Keys are assigned to nodes by a consistent-hash ring over the members of the cluster, so that every node
+         * computes the owner by itself and writes are forwarded to it
+         */
+        HASH;
+    }
+
+    /**
+     * How long the owner of a key waits for its replicas on a write
+     */
+    public enum Replication {
+        /**
+         * Writes are pushed to the replicas in the background, so a read served by a replica may briefly miss the
+         * latest write
+         */
+        ASYNC,
+        /**
+         * Semi-synchronous: a write completes once the first replica has acknowledged it, or once the deadline has
+         * passed without any replica doing so
+         */
+        SYNC;
+    }
+
     protected enum NodeState {
         READY,
         RUNNING,
@@ -98,10 +897,42 @@ public abstract class Node extends Agreeable<String> implements Closeable {
     protected enum NodeType {
         TCP,
         UDP,
-        RMI;
+        RMI,
+        NIO;
     }
 
+    /**
+     * Upper bound on the entries of a single scan page, whatever the requester asks for
+     */
+    public static final int MAX_SCAN_COUNT = 10000;
+    /**
+     * Upper bound on the encoded size of a scan page, chosen so that a page always fits in a single datagram
+     */
+    public static final int MAX_PAGE_BYTES = 60000;
+    /**
+     * Key of the data message a node answers a stats request with, whose value is the report of the node
+     */
+    public static final String STATS_KEY = "STATS";
+    /**
+     * Key of the data message a node answers a join with, whose value lists the nodes of the cluster, comma-separated
+     */
+    public static final String MEMBERS_KEY = "MEMBERS";
     public static final String MSG_KEY_NOT_LOCAL = "Key not present here";
     public static final String MSG_OK = "<OK>";
+    /**
+     * Time a request for a block of a directory waits for the block to be written before it is answered empty
+     */
+    private static final long DIRECTORY_WAIT_MILLIS = 250;
+    /**
+     * Time after which a directory snapshot that no block has been requested from is dropped
+     */
+    private static final long DIRECTORY_IDLE_MILLIS = 60000;
+    private static final int DIRECTORY_FETCH_ATTEMPTS = 3;
+    /**
+     * Threads per core that handle requests in PLATFORM execution mode, which is more than the cores can keep busy as
+     * most requests wait on peers
+     */
+    private static final int TASK_THREADS_PER_CORE = 32;
+    private static final long TASK_THREAD_KEEP_ALIVE_SECONDS = 60;
     protected static final Logger logger = Logger.getLogger(Node.class.getName());
 }
@@ -1,5 +1,7 @@
 package com.github.aayushjn.keyvaluestore.model.node;
 
+import com.github.aayushjn.keyvaluestore.model.Store;
+import com.github.aayushjn.keyvaluestore.net.BlockingMessengerAdapter;
 import com.github.aayushjn.keyvaluestore.net.rmi.RMIMessenger;
 import com.github.aayushjn.keyvaluestore.net.rmi.RMIServer;
 
@@ -13,24 +15,52 @@ import java.util.logging.Level;
 
 public class RMINode extends Node {
     private final String rmiId;
+    private final RMIMessenger rmiMessenger;
 
     public RMINode(String addr, int port, String... peers) throws RemoteException, MalformedURLException {
-        super(NodeType.RMI, peers);
+        this(addr, port, ExecutionMode.PLATFORM, peers);
+    }
+
+    public RMINode(
+        String addr,
+        int port,
+        ExecutionMode executionMode,
+        String... peers
+    ) throws RemoteException, MalformedURLException {
+        this(addr, port, executionMode, new Store(), peers);
+    }
 
-        RMIServer server = new RMIServer(store, this);
+    public RMINode(
+        String addr,
+        int port,
+        ExecutionMode executionMode,
+        Store store,
+        String... peers
+    ) throws RemoteException, MalformedURLException {
+        super(NodeType.RMI, executionMode, store, peers);
+
+        RMIServer server = new RMIServer(this::handleRemoteMessage);
         rmiId = "rmi://" + addr + ":" + port + "/remote";
         LocateRegistry.createRegistry(port);
         Naming.rebind(rmiId, server);
 
-        messenger = new RMIMessenger(addr + ":" + port);
+        selfAddr = addr + ":" + port;
+        rmiMessenger = new RMIMessenger(selfAddr);
+        // RMI calls can only block, so asynchronous calls each take a task thread for the duration of the call
+        messenger = new BlockingMessengerAdapter(rmiMessenger, taskExecutor);
 
         logger.info(() -> "node ready\n");
 
         state.compareAndSet(NodeState.READY, NodeState.RUNNING);
     }
 
+    /**
+     * The RMI runtime handles incoming connections on its own threads, so listening only warms up the stubs of peers
+     */
     @Override
-    protected void listenOnSocket() { /* RMI implementation will handle incoming connections on underlying socket */ }
+    protected void listenOnSocket() {
+        rmiMessenger.warmUp(peers);
+    }
 
     @Override
     public void close() throws IOException {
@@ -1,27 +1,61 @@
 package com.github.aayushjn.keyvaluestore.model.node;
 
 import com.github.aayushjn.keyvaluestore.model.MessageType;
+import com.github.aayushjn.keyvaluestore.model.Store;
+import com.github.aayushjn.keyvaluestore.net.tcp.ConnectionPool;
+import com.github.aayushjn.keyvaluestore.net.tcp.FramedConnection;
 import com.github.aayushjn.keyvaluestore.net.tcp.TCPMessenger;
 
 import java.io.*;
 import java.net.*;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 
 public class TCPNode extends Node {
     private final ServerSocket listenSocket;
     /**
-     * Mapping of peers to corresponding sockets. Ensures that all peers are always connected and do not have to perform
-     * TCP handshake everytime a message is to be sent.
+     * Connections to every peer, opened when the node starts listening and kept open so that messages never have to
+     * wait for a TCP handshake
      */
-    private final Map<String, Socket> socketMap;
+    private final ConnectionPool pool;
+    private final int connectionsPerPeer;
+    private final AtomicInteger openConnections;
+    /**
+     * Number of inbound connections the executor has threads for, which grows as nodes join
+     */
+    private int connectionCapacity;
 
     public TCPNode(String addr, int port, String... peers) throws IOException {
-        super(NodeType.TCP, peers);
+        this(addr, port, ExecutionMode.PLATFORM, peers);
+    }
+
+    public TCPNode(String addr, int port, ExecutionMode executionMode, String... peers) throws IOException {
+        this(addr, port, executionMode, new Store(), peers);
+    }
+
+    public TCPNode(
+        String addr,
+        int port,
+        ExecutionMode executionMode,
+        Store store,
+        String... peers
+    ) throws IOException {
+        this(addr, port, executionMode, store, DEFAULT_CONNECTIONS_PER_PEER, peers);
+    }
+
+    /**
+     * @param connectionsPerPeer number of connections this node opens to each peer, and expects each peer to open
+     */
+    public TCPNode(
+        String addr,
+        int port,
+        ExecutionMode executionMode,
+        Store store,
+        int connectionsPerPeer,
+        String... peers
+    ) throws IOException {
+        super(NodeType.TCP, executionMode, store, connectionsPerPeer, peers);
 
         InetAddress bindAddr;
         try {
@@ -29,10 +63,14 @@ public class TCPNode extends Node {
         } catch (UnknownHostException e) {
             bindAddr = InetAddress.getLoopbackAddress();
         }
-        listenSocket = new ServerSocket(port, peers.length, bindAddr);
+        listenSocket = new ServerSocket(port, peers.length * connectionsPerPeer, bindAddr);
         listenSocket.setReuseAddress(true);
-        socketMap = HashMap.newHashMap(peers.length);
-        messenger = new TCPMessenger(addr + ":" + port, socketMap);
+        this.connectionsPerPeer = connectionsPerPeer;
+        openConnections = new AtomicInteger();
+        connectionCapacity = peers.length * connectionsPerPeer;
+        selfAddr = addr + ":" + port;
+        pool = new ConnectionPool(selfAddr, connectionsPerPeer, compressor, executionMode.newThreadFactory());
+        messenger = new TCPMessenger(selfAddr, pool);
         logger.info(() -> "listening on " + listenSocket.getLocalSocketAddress());
 
         state.compareAndSet(NodeState.READY, NodeState.RUNNING);
@@ -40,53 +78,91 @@ public class TCPNode extends Node {
 
     @Override
     protected void listenOnSocket() {
-        Runnable task = () -> {
+        pool.warmUp(peers);
+        while (state.get() == NodeState.RUNNING) {
             Socket socket;
             try {
                 socket = listenSocket.accept();
+            } catch (SocketException ignored) {
+                // listen socket is closed when the node shuts down
+                return;
             } catch (IOException e) {
-                throw new RuntimeException(e);
+                logger.log(Level.WARNING, e, e::getMessage);
+                continue;
+            }
+            if (openConnections.incrementAndGet() > connectionCapacity) {
+                // a node that has joined connects beyond what the executor was sized for, and its connections would
+                // otherwise wait for a thread that is never freed
+                executionMode.grow(executorService, connectionsPerPeer);
+                connectionCapacity += connectionsPerPeer;
             }
-            while (!socket.isClosed()) {
+            // each connection is served by its own task, which is a virtual thread in VIRTUAL execution mode
+            executorService.submit(() -> {
                 try {
-                    BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-                    BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
-
-                    while (!reader.ready());
-                    MessageType mt = MessageType.parseString(reader.readLine());
+                    serve(socket);
+                } finally {
+                    openConnections.decrementAndGet();
+                }
+            });
+        }
+    }
 
-                    MessageType resp = handleRemoteMessage(mt);
-                    if (resp != null) {
-                        // append new-line character to ensure that listener can use `readLine` without hiccups
-                        writer.write(resp + "\n");
-                        writer.flush();
-                    }
-                    if (mt instanceof MessageType.Exit) {
-                        socket.close();
-                    }
-                } catch (SocketException ignored) {
-                    // ignore this since the socket is most likely closed
-                } catch (IOException e) {
-                    logger.log(Level.WARNING, e, e::getMessage);
+    private void serve(Socket socket) {
+        try (FramedConnection connection = new FramedConnection(socket, compressor)) {
+            FramedConnection.Frame frame;
+            while ((frame = connection.read()) != null) {
+                MessageType mt = frame.message();
+                int id = frame.id();
+                if (id == FramedConnection.NO_RESPONSE || mt instanceof MessageType.Exit) {
+                    // one-way messages (commits, deletes, invalidations and exits) are applied right here, in the
+                    // order the peer sent them, as a later one may undo an earlier one for the same key
+                    respondTo(mt, resp -> respond(connection, id, resp));
+                    if (mt instanceof MessageType.Exit) break;
+                    continue;
+                }
+                // every request is handled by a task of its own, so that a slow request does not hold up those behind
+                // it on the connection, whose responses are written as soon as they are ready
+                try {
+                    taskExecutor.execute(() -> respondTo(mt, resp -> respond(connection, id, resp)));
+                } catch (RejectedExecutionException e) {
+                    // the node is shutting down
+                    break;
                 }
             }
-        };
-        List<Future<?>> futures = new ArrayList<>(peers.size());
-        while (state.get() == NodeState.RUNNING) {
-            if (futures.size() == peers.size()) {
-                futures.removeIf(Future::isDone);
-            }
-            if (futures.size() == peers.size()) continue;
-            futures.add(executorService.submit(task));
+        } catch (SocketException ignored) {
+            // ignore this since the socket is most likely closed
+        } catch (IOException e) {
+            logger.log(Level.WARNING, e, e::getMessage);
+        }
+    }
+
+    private void respond(FramedConnection connection, int id, MessageType resp) {
+        // the response echoes the request's correlation ID so the peer can match it to the waiting caller
+        if (resp == null || id == FramedConnection.NO_RESPONSE) return;
+        try {
+            connection.write(id, resp);
+        } catch (IOException e) {
+            // the connection failed or was closed while the request was being handled
+            logger.log(Level.FINE, e, e::getMessage);
         }
     }
 
+    @Override
+    protected MessageType handleRemoteMessage(MessageType mt) {
+        MessageType resp = super.handleRemoteMessage(mt);
+        if (mt instanceof MessageType.Exit) {
+            // stop reconnecting to a peer that has left
+            pool.remove(mt.getPeer());
+        }
+        return resp;
+    }
+
     @Override
     public void close() throws IOException {
         super.close();
         listenSocket.close();
-        for (Socket socket : socketMap.values()) {
-            if (socket.isConnected()) socket.close();
-        }
+        pool.close();
     }
+
+    public static final int DEFAULT_CONNECTIONS_PER_PEER = 2;
 }
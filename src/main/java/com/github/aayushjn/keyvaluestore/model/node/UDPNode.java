@@ -1,25 +1,45 @@
 package com.github.aayushjn.keyvaluestore.model.node;
 
+import com.github.aayushjn.keyvaluestore.model.MessageCodec;
 import com.github.aayushjn.keyvaluestore.model.MessageType;
+import com.github.aayushjn.keyvaluestore.model.PayloadCompressor;
+import com.github.aayushjn.keyvaluestore.model.Store;
 import com.github.aayushjn.keyvaluestore.net.udp.UDPMessenger;
+import com.github.aayushjn.keyvaluestore.util.BufferPool;
 
 import java.io.IOException;
 import java.net.*;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.concurrent.Future;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
 import java.util.logging.Level;
 
-import static com.github.aayushjn.keyvaluestore.model.MessageType.DataAll.DATA_LIMIT;
-
 public class UDPNode extends Node {
-    private final DatagramSocket listenSocket;
-    // While UDP can utilize the same underlying socket for send/receive, to ensure minimal changes in remaining code,
-    // a separate DatagramSocket is used.
-    private final DatagramSocket sendSocket;
+    private final DatagramChannel listenChannel;
+    /**
+     * Receive buffers are handed from the receive loop to the worker handling the datagram, which returns them to the
+     * pool once the response is sent
+     */
+    private final BufferPool bufferPool;
 
     public UDPNode(String addr, int port, String... peers) throws IOException {
-        super(NodeType.UDP, peers);
+        this(addr, port, ExecutionMode.PLATFORM, peers);
+    }
+
+    public UDPNode(String addr, int port, ExecutionMode executionMode, String... peers) throws IOException {
+        this(addr, port, executionMode, new Store(), peers);
+    }
+
+    public UDPNode(
+        String addr,
+        int port,
+        ExecutionMode executionMode,
+        Store store,
+        String... peers
+    ) throws IOException {
+        super(NodeType.UDP, executionMode, store, peers);
 
         InetAddress bindAddr;
         try {
@@ -27,56 +47,82 @@ public class UDPNode extends Node {
         } catch (UnknownHostException e) {
             bindAddr = InetAddress.getLoopbackAddress();
         }
-        listenSocket = new DatagramSocket(port, bindAddr);
-        listenSocket.setReuseAddress(true);
+        listenChannel = DatagramChannel.open();
+        listenChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        listenChannel.bind(new InetSocketAddress(bindAddr, port));
 
-        sendSocket = new DatagramSocket();
+        bufferPool = new BufferPool(UDPMessenger.MAX_DATAGRAM_SIZE, BUFFER_POOL_SIZE);
+        selfAddr = addr + ":" + port;
+        // requests go out on a channel of the messenger's own, separate from the one serving peers
+        messenger = new UDPMessenger(selfAddr, compressor, executionMode.newThreadFactory());
 
-        messenger = new UDPMessenger(addr + ":" + port, sendSocket);
-
-        logger.info(() -> "listening on " + listenSocket.getLocalSocketAddress() + "\n");
+        logger.info(() -> "listening on " + listenChannel.socket().getLocalSocketAddress() + "\n");
 
         state.compareAndSet(NodeState.READY, NodeState.RUNNING);
     }
 
     @Override
     protected void listenOnSocket() {
-        Runnable task = () -> {
+        while (state.get() == NodeState.RUNNING) {
+            ByteBuffer buf = bufferPool.acquire();
+            SocketAddress remoteAddress;
             try {
-                byte[] buf = new byte[DATA_LIMIT];
-                DatagramPacket packet = new DatagramPacket(buf, buf.length);
-                listenSocket.receive(packet);
-                InetAddress remoteAddress = packet.getAddress();
-                int remotePort = packet.getPort();
-
-
-                MessageType mt = MessageType.parseString(new String(packet.getData(), 0, packet.getLength()).trim());
-                MessageType resp = handleRemoteMessage(mt);
-                if (resp != null) {
-                    buf = resp.toString().getBytes();
-                    packet = new DatagramPacket(buf, buf.length, remoteAddress, remotePort);
-                    listenSocket.send(packet);
-                }
-            } catch (SocketException ignored) {
-                // ignore this since socket is closed
+                remoteAddress = listenChannel.receive(buf);
+            } catch (ClosedChannelException ignored) {
+                // listen channel is closed when the node shuts down
+                return;
             } catch (IOException e) {
+                bufferPool.release(buf);
                 logger.log(Level.WARNING, e, e::getMessage);
+                continue;
             }
-        };
-        List<Future<?>> futures = new ArrayList<>(peers.size());
-        while (state.get() == NodeState.RUNNING) {
-            if (futures.size() == peers.size()) {
-                futures.removeIf(Future::isDone);
-            }
-            if (futures.size() == peers.size()) continue;
-            futures.add(executorService.submit(task));
+            buf.flip();
+            // each datagram is handled by its own task, which is a virtual thread in VIRTUAL execution mode
+            executorService.submit(() -> handleDatagram(buf, remoteAddress));
+        }
+    }
+
+    private void handleDatagram(ByteBuffer buf, SocketAddress remoteAddress) {
+        int header;
+        MessageType mt;
+        try {
+            header = buf.getInt();
+            mt = compressor.decode(buf, header & PayloadCompressor.FLAGS);
+        } catch (IllegalArgumentException | BufferUnderflowException e) {
+            logger.log(Level.WARNING, e, e::toString);
+            bufferPool.release(buf);
+            return;
+        }
+        // the buffer is reused for the response, which may be sent from another thread
+        handleRemoteMessage(mt, resp -> respond(buf, header, resp, remoteAddress));
+    }
+
+    private void respond(ByteBuffer buf, int header, MessageType resp, SocketAddress remoteAddress) {
+        try {
+            int id = header & UDPMessenger.ID_MASK;
+            if (resp == null || id == UDPMessenger.NO_RESPONSE) return;
+            buf.clear().limit(UDPMessenger.MAX_PAYLOAD_SIZE).position(Integer.BYTES);
+            boolean compress = (header & PayloadCompressor.ACCEPTS) != 0;
+            int respFlags = compressor.encode(resp, MessageCodec.sizeOf(resp), buf, compress);
+            // the response carries the correlation ID of the request, which the messenger matches it by
+            buf.putInt(0, id | respFlags);
+            buf.flip();
+            listenChannel.send(buf, remoteAddress);
+        } catch (ClosedChannelException ignored) {
+            // ignore this since channel is closed
+        } catch (BufferOverflowException | IOException e) {
+            logger.log(Level.WARNING, e, e::toString);
+        } finally {
+            bufferPool.release(buf);
         }
     }
 
     @Override
     public void close() throws IOException {
         super.close();
-        listenSocket.close();
-        sendSocket.close();
+        listenChannel.close();
+        ((UDPMessenger) messenger).close();
     }
+
+    private static final int BUFFER_POOL_SIZE = 64;
 }
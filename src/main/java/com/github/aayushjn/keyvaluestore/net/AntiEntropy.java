@@ -0,0 +1,197 @@
+package com.github.aayushjn.keyvaluestore.net;
+
+import com.github.aayushjn.keyvaluestore.model.MessageType;
+import com.github.aayushjn.keyvaluestore.model.Store;
+import com.github.aayushjn.keyvaluestore.util.MerkleTree;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Background repair of the ownership directory, whose records are otherwise only kept up to date by best-effort COMMIT
+ * and DEL broadcasts, so that a record missed by a node is not missing for good
+ * <p>
+ * Every round, the node picks a live peer at random and compares the hash tree over the keys it records the peer to
+ * own with the hash tree of the peer over its local keys. It descends from the root only into the subtrees whose
+ * hashes differ, and then fetches the keys of the buckets that differ from the peer, which owns them and so is the
+ * authority on them: keys it was not recorded to own are recorded, and recorded keys it no longer holds are forgotten.
+ * What is exchanged thus grows with the number of buckets that differ, not with the number of keys, and comes down to
+ * the hashes of the first level of the tree when nothing does.
+ * <p>
+ * A key that this node holds itself, or records another peer to own, is left as it is, as two nodes only both claim a
+ * key if they won its vote on either side of a partition.
+ */
+public class AntiEntropy implements Closeable {
+    private final Supplier<AsyncMessenger> messenger;
+    private final Store store;
+    private final Supplier<List<String>> peers;
+    private final long intervalMillis;
+    private final ScheduledExecutorService scheduler;
+    private final LongAdder rounds;
+    private final LongAdder differingBuckets;
+    private final LongAdder keysRecorded;
+    private final LongAdder keysForgotten;
+
+    /**
+     * @param messenger      supplies the messenger to reach peers with
+     * @param peers          supplies the live peers, one of which is picked every round
+     * @param intervalMillis time between rounds
+     */
+    public AntiEntropy(
+        Supplier<AsyncMessenger> messenger,
+        Store store,
+        Supplier<List<String>> peers,
+        long intervalMillis
+    ) {
+        this.messenger = messenger;
+        this.store = store;
+        this.peers = peers;
+        this.intervalMillis = intervalMillis;
+        rounds = new LongAdder();
+        differingBuckets = new LongAdder();
+        keysRecorded = new LongAdder();
+        keysForgotten = new LongAdder();
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "anti-entropy");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void start() {
+        scheduler.scheduleWithFixedDelay(this::round, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void round() {
+        List<String> live = peers.get();
+        if (live.isEmpty()) return;
+        String peer = live.get(ThreadLocalRandom.current().nextInt(live.size()));
+        try {
+            reconcile(peer);
+        } catch (IOException e) {
+            logger.log(Level.FINE, e, () -> "anti-entropy with " + peer + " failed: " + e.getMessage());
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, e, e::getMessage);
+        }
+    }
+
+    /**
+     * Brings the record of the keys the peer owns in line with the keys the peer holds
+     * @throws IOException if the peer could not be reached or sent an unexpected response
+     */
+    public void reconcile(String peer) throws IOException {
+        MerkleTree tree = store.getPeerTree(peer);
+        // every level has at most as many nodes that differ as fit in a single request
+        int[] nodes = {0};
+        for (int level = 0; level < MerkleTree.DEPTH && nodes.length > 0; level++) {
+            long[] theirs = request(peer, new MessageType.Digest(level, nodes), MessageType.Hashes.class).getHashes();
+            if (theirs.length != nodes.length * MerkleTree.FANOUT) {
+                throw new IOException(peer + " sent " + theirs.length + " hashes for " + nodes.length + " nodes");
+            }
+            long[] mine = tree.children(level, nodes);
+            int[] differing = new int[theirs.length];
+            int count = 0;
+            for (int i = 0; i < theirs.length; i++) {
+                if (theirs[i] != mine[i]) {
+                    differing[count++] = nodes[i / MerkleTree.FANOUT] * MerkleTree.FANOUT + i % MerkleTree.FANOUT;
+                }
+            }
+            nodes = Arrays.copyOf(differing, count);
+        }
+        rounds.increment();
+        if (nodes.length == 0) return;
+
+        BitSet buckets = new BitSet(MerkleTree.BUCKETS);
+        for (int bucket : nodes) {
+            buckets.set(bucket);
+        }
+        // the record is read before the keys of the peer, so that a key the peer claims in the meantime is recorded
+        // rather than forgotten
+        Set<String> recorded = store.getPeerKeys(peer, buckets);
+        List<String> unrecorded = new ArrayList<>();
+        String cursor = "";
+        do {
+            MessageType.Keys keys = request(peer, new MessageType.Range(nodes, cursor), MessageType.Keys.class);
+            for (String key : keys.getKeys()) {
+                if (!recorded.remove(key)) unrecorded.add(key);
+            }
+            cursor = keys.getNextCursor();
+        } while (!cursor.isEmpty());
+
+        int added = store.putPeerForKeys(peer, unrecorded);
+        int removed = store.removePeerForKeys(peer, recorded);
+        differingBuckets.add(nodes.length);
+        keysRecorded.add(added);
+        keysForgotten.add(removed);
+        int differed = nodes.length;
+        logger.fine(() -> differed + " buckets differed from " + peer + ", recorded " + added + " and forgot "
+            + removed + " of its keys");
+    }
+
+    private <T extends MessageType> T request(String peer, MessageType mt, Class<T> type) throws IOException {
+        MessageType resp = messenger.get().reconcile(mt, peer);
+        if (!type.isInstance(resp)) throw new IOException("unexpected response from " + peer + ": " + resp);
+        return type.cast(resp);
+    }
+
+    /**
+     * Answers a {@link MessageType.Digest} or {@link MessageType.Range} from a peer with the local keys of the store
+     * @return {@link MessageType.Hashes} or {@link MessageType.Keys} holding at most `maxPageBytes` of keys, or a
+     * {@link MessageType.Nak} if the request names nodes or buckets that do not exist
+     */
+    public static MessageType answer(Store store, MessageType mt, int maxPageBytes) {
+        try {
+            if (mt instanceof MessageType.Digest digest) {
+                return new MessageType.Hashes(store.getLocalTree().children(digest.getLevel(), digest.getNodes()));
+            }
+            if (mt instanceof MessageType.Range range) {
+                BitSet buckets = new BitSet(MerkleTree.BUCKETS);
+                for (int bucket : range.getBuckets()) {
+                    if (bucket < 0 || bucket >= MerkleTree.BUCKETS) {
+                        throw new IllegalArgumentException("no bucket " + bucket);
+                    }
+                    buckets.set(bucket);
+                }
+                return store.scanBuckets(buckets, range.getCursor(), maxPageBytes);
+            }
+            throw new IllegalArgumentException("not an anti-entropy request: " + mt);
+        } catch (IllegalArgumentException e) {
+            logger.log(Level.WARNING, e, e::getMessage);
+            return new MessageType.Nak("");
+        }
+    }
+
+    public Stats getStats() {
+        return new Stats(rounds.sum(), differingBuckets.sum(), keysRecorded.sum(), keysForgotten.sum());
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Totals over every round so far
+     * @param differingBuckets number of buckets fetched from peers, as their hashes differed
+     * @param keysRecorded     keys recorded as owned by the peer that held them
+     * @param keysForgotten    records of keys that their peer no longer held
+     */
+    public record Stats(long rounds, long differingBuckets, long keysRecorded, long keysForgotten) {
+    }
+
+    public static final long DEFAULT_INTERVAL_MILLIS = 10000;
+    private static final Logger logger = Logger.getLogger(AntiEntropy.class.getName());
+}
@@ -0,0 +1,141 @@
+package com.github.aayushjn.keyvaluestore.net;
+
+import com.github.aayushjn.keyvaluestore.model.MessageType;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Messenger whose calls return as soon as the request is sent, with a future that completes once the response arrives,
+ * so that no thread is tied up for the round trip. Futures fail with an {@link IOException} if the request could not be
+ * sent or the peer did not answer in time, as the blocking calls would throw.
+ * <p>
+ * The blocking calls of {@link Messenger} wait for the asynchronous ones.
+ */
+public interface AsyncMessenger extends Messenger {
+    CompletableFuture<MessageType> getValueForKeyAsync(MessageType mt, String peer);
+    CompletableFuture<MessageType> requestAcknowledgementAsync(MessageType mt, String peer);
+    CompletableFuture<MessageType> getAllDataAsync(String peer);
+    CompletableFuture<MessageType> scanAsync(MessageType mt, String peer);
+    CompletableFuture<MessageType> pingAsync(String peer);
+    CompletableFuture<MessageType> getStatsAsync(String peer);
+    CompletableFuture<MessageType> writeKeyAsync(MessageType mt, String peer);
+    CompletableFuture<MessageType> replicateKeyAsync(MessageType mt, String peer);
+    CompletableFuture<MessageType> joinAsync(String peer);
+    CompletableFuture<MessageType> fetchDirectoryAsync(MessageType mt, String peer);
+    CompletableFuture<MessageType> reconcileAsync(MessageType mt, String peer);
+    /**
+     * @return future that completes once the message has been sent, as no response is expected
+     */
+    CompletableFuture<Void> deleteKeyAsync(MessageType mt, String peer);
+    CompletableFuture<Void> commitKeyAsync(MessageType mt, String peer);
+    CompletableFuture<Void> invalidateKeyAsync(MessageType mt, String peer);
+    CompletableFuture<Void> exitAsync(String peer);
+
+    @Override
+    default MessageType getValueForKey(MessageType mt, String peer) throws IOException {
+        return await(getValueForKeyAsync(mt, peer));
+    }
+
+    @Override
+    default MessageType requestAcknowledgement(MessageType mt, String peer) throws IOException {
+        return await(requestAcknowledgementAsync(mt, peer));
+    }
+
+    @Override
+    default MessageType getAllData(String peer) throws IOException {
+        return await(getAllDataAsync(peer));
+    }
+
+    @Override
+    default MessageType scan(MessageType mt, String peer) throws IOException {
+        return await(scanAsync(mt, peer));
+    }
+
+    @Override
+    default MessageType ping(String peer) throws IOException {
+        return await(pingAsync(peer));
+    }
+
+    @Override
+    default MessageType getStats(String peer) throws IOException {
+        return await(getStatsAsync(peer));
+    }
+
+    @Override
+    default MessageType writeKey(MessageType mt, String peer) throws IOException {
+        return await(writeKeyAsync(mt, peer));
+    }
+
+    @Override
+    default MessageType replicateKey(MessageType mt, String peer) throws IOException {
+        return await(replicateKeyAsync(mt, peer));
+    }
+
+    @Override
+    default MessageType join(String peer) throws IOException {
+        return await(joinAsync(peer));
+    }
+
+    @Override
+    default MessageType fetchDirectory(MessageType mt, String peer) throws IOException {
+        return await(fetchDirectoryAsync(mt, peer));
+    }
+
+    @Override
+    default MessageType reconcile(MessageType mt, String peer) throws IOException {
+        return await(reconcileAsync(mt, peer));
+    }
+
+    @Override
+    default void deleteKey(MessageType mt, String peer) throws IOException {
+        await(deleteKeyAsync(mt, peer));
+    }
+
+    @Override
+    default void commitKey(MessageType mt, String peer) throws IOException {
+        await(commitKeyAsync(mt, peer));
+    }
+
+    @Override
+    default void invalidateKey(MessageType mt, String peer) throws IOException {
+        await(invalidateKeyAsync(mt, peer));
+    }
+
+    @Override
+    default void exit(String peer) throws IOException {
+        await(exitAsync(peer));
+    }
+
+    /**
+     * Waits for the future, rethrowing the exception it failed with
+     */
+    static <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while awaiting response");
+        } catch (ExecutionException e) {
+            throw asIOException(e.getCause());
+        }
+    }
+
+    /**
+     * @return the exception a future failed with as an {@link IOException}, unwrapping it if it was wrapped along the
+     * way
+     */
+    static IOException asIOException(Throwable e) {
+        if (e instanceof CompletionException && e.getCause() != null) e = e.getCause();
+        if (e instanceof IOException cause) return cause;
+        if (e instanceof TimeoutException) {
+            return new SocketTimeoutException("no response within " + RESPONSE_TIMEOUT_MILLIS + " ms");
+        }
+        return new IOException(e);
+    }
+}
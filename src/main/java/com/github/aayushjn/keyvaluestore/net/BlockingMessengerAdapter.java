@@ -0,0 +1,213 @@
+package com.github.aayushjn.keyvaluestore.net;
+
+import com.github.aayushjn.keyvaluestore.model.MessageType;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Asynchronous view of a messenger whose transport can only block, such as RMI, where every call is a blocking remote
+ * method invocation. Each asynchronous call runs the blocking one on the executor, while blocking calls go straight to
+ * the messenger without a hand-off.
+ */
+public class BlockingMessengerAdapter implements AsyncMessenger, Closeable {
+    private final Messenger messenger;
+    private final Executor executor;
+
+    public BlockingMessengerAdapter(Messenger messenger, Executor executor) {
+        this.messenger = messenger;
+        this.executor = executor;
+    }
+
+    @Override
+    public CompletableFuture<MessageType> getValueForKeyAsync(MessageType mt, String peer) {
+        return supply(() -> messenger.getValueForKey(mt, peer));
+    }
+
+    @Override
+    public CompletableFuture<MessageType> requestAcknowledgementAsync(MessageType mt, String peer) {
+        return supply(() -> messenger.requestAcknowledgement(mt, peer));
+    }
+
+    @Override
+    public CompletableFuture<MessageType> getAllDataAsync(String peer) {
+        return supply(() -> messenger.getAllData(peer));
+    }
+
+    @Override
+    public CompletableFuture<MessageType> scanAsync(MessageType mt, String peer) {
+        return supply(() -> messenger.scan(mt, peer));
+    }
+
+    @Override
+    public CompletableFuture<MessageType> pingAsync(String peer) {
+        return supply(() -> messenger.ping(peer));
+    }
+
+    @Override
+    public CompletableFuture<MessageType> getStatsAsync(String peer) {
+        return supply(() -> messenger.getStats(peer));
+    }
+
+    @Override
+    public CompletableFuture<MessageType> writeKeyAsync(MessageType mt, String peer) {
+        return supply(() -> messenger.writeKey(mt, peer));
+    }
+
+    @Override
+    public CompletableFuture<MessageType> replicateKeyAsync(MessageType mt, String peer) {
+        return supply(() -> messenger.replicateKey(mt, peer));
+    }
+
+    @Override
+    public CompletableFuture<MessageType> joinAsync(String peer) {
+        return supply(() -> messenger.join(peer));
+    }
+
+    @Override
+    public CompletableFuture<MessageType> fetchDirectoryAsync(MessageType mt, String peer) {
+        return supply(() -> messenger.fetchDirectory(mt, peer));
+    }
+
+    @Override
+    public CompletableFuture<MessageType> reconcileAsync(MessageType mt, String peer) {
+        return supply(() -> messenger.reconcile(mt, peer));
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteKeyAsync(MessageType mt, String peer) {
+        return supply(() -> {
+            messenger.deleteKey(mt, peer);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> commitKeyAsync(MessageType mt, String peer) {
+        return supply(() -> {
+            messenger.commitKey(mt, peer);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> invalidateKeyAsync(MessageType mt, String peer) {
+        return supply(() -> {
+            messenger.invalidateKey(mt, peer);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> exitAsync(String peer) {
+        return supply(() -> {
+            messenger.exit(peer);
+            return null;
+        });
+    }
+
+    @Override
+    public MessageType getValueForKey(MessageType mt, String peer) throws IOException {
+        return messenger.getValueForKey(mt, peer);
+    }
+
+    @Override
+    public MessageType requestAcknowledgement(MessageType mt, String peer) throws IOException {
+        return messenger.requestAcknowledgement(mt, peer);
+    }
+
+    @Override
+    public MessageType getAllData(String peer) throws IOException {
+        return messenger.getAllData(peer);
+    }
+
+    @Override
+    public MessageType scan(MessageType mt, String peer) throws IOException {
+        return messenger.scan(mt, peer);
+    }
+
+    @Override
+    public MessageType ping(String peer) throws IOException {
+        return messenger.ping(peer);
+    }
+
+    @Override
+    public MessageType getStats(String peer) throws IOException {
+        return messenger.getStats(peer);
+    }
+
+    @Override
+    public MessageType writeKey(MessageType mt, String peer) throws IOException {
+        return messenger.writeKey(mt, peer);
+    }
+
+    @Override
+    public MessageType replicateKey(MessageType mt, String peer) throws IOException {
+        return messenger.replicateKey(mt, peer);
+    }
+
+    @Override
+    public MessageType join(String peer) throws IOException {
+        return messenger.join(peer);
+    }
+
+    @Override
+    public MessageType fetchDirectory(MessageType mt, String peer) throws IOException {
+        return messenger.fetchDirectory(mt, peer);
+    }
+
+    @Override
+    public MessageType reconcile(MessageType mt, String peer) throws IOException {
+        return messenger.reconcile(mt, peer);
+    }
+
+    @Override
+    public void deleteKey(MessageType mt, String peer) throws IOException {
+        messenger.deleteKey(mt, peer);
+    }
+
+    @Override
+    public void commitKey(MessageType mt, String peer) throws IOException {
+        messenger.commitKey(mt, peer);
+    }
+
+    @Override
+    public void invalidateKey(MessageType mt, String peer) throws IOException {
+        messenger.invalidateKey(mt, peer);
+    }
+
+    @Override
+    public void exit(String peer) throws IOException {
+        messenger.exit(peer);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (messenger instanceof Closeable closeable) closeable.close();
+    }
+
+    private <T> CompletableFuture<T> supply(Call<T> call) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                try {
+                    future.complete(call.call());
+                } catch (IOException | RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // the node is shutting down
+            future.completeExceptionally(new IOException("messenger is closed", e));
+        }
+        return future;
+    }
+
+    @FunctionalInterface
+    private interface Call<T> {
+        T call() throws IOException;
+    }
+}
@@ -0,0 +1,234 @@
+package com.github.aayushjn.keyvaluestore.net;
+
+import com.github.aayushjn.keyvaluestore.model.MessageType;
+import com.github.aayushjn.keyvaluestore.util.LruCache;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Messenger that caches the values of keys owned by peers, so that repeated reads of a hot key do not each cost a round
+ * trip. Every other call is passed straight through.
+ * <p>
+ * Entries are dropped when the owner deletes or changes the key or leaves, and in any case once they expire. A value
+ * loaded while an invalidation of a nearby key is received is not cached, so an invalidation is never undone by a read
+ * that was already in flight.
+ */
+public class CachingMessenger implements AsyncMessenger {
+    private final AsyncMessenger messenger;
+    private final LruCache<String, CachedValue> cache;
+
+    /**
+     * @param maxBytes  approximate upper bound on the memory taken up by cached entries
+     * @param ttlMillis time after which entries expire, or 0 if they only expire through invalidation
+     */
+    public CachingMessenger(AsyncMessenger messenger, long maxBytes, long ttlMillis) {
+        this.messenger = messenger;
+        cache = new LruCache<>(maxBytes, ttlMillis, CachingMessenger::weigh);
+    }
+
+    @Override
+    public MessageType getValueForKey(MessageType mt, String peer) throws IOException {
+        CachedValue cached = cache.get(mt.getKey());
+        if (cached != null && cached.owner.equals(peer)) {
+            return new MessageType.Data(mt.getKey(), cached.value);
+        }
+
+        long stamp = cache.stamp(mt.getKey());
+        MessageType resp = messenger.getValueForKey(mt, peer);
+        if (resp != null && resp.getValue() != null) {
+            cache.put(mt.getKey(), new CachedValue(peer, resp.getValue()), stamp);
+        }
+        return resp;
+    }
+
+    @Override
+    public MessageType requestAcknowledgement(MessageType mt, String peer) throws IOException {
+        return messenger.requestAcknowledgement(mt, peer);
+    }
+
+    @Override
+    public MessageType getAllData(String peer) throws IOException {
+        return messenger.getAllData(peer);
+    }
+
+    @Override
+    public MessageType scan(MessageType mt, String peer) throws IOException {
+        return messenger.scan(mt, peer);
+    }
+
+    @Override
+    public MessageType ping(String peer) throws IOException {
+        return messenger.ping(peer);
+    }
+
+    @Override
+    public MessageType getStats(String peer) throws IOException {
+        return messenger.getStats(peer);
+    }
+
+    @Override
+    public MessageType writeKey(MessageType mt, String peer) throws IOException {
+        try {
+            return messenger.writeKey(mt, peer);
+        } finally {
+            // the cached value is out of date once the write has been applied
+            cache.invalidate(mt.getKey());
+        }
+    }
+
+    @Override
+    public MessageType replicateKey(MessageType mt, String peer) throws IOException {
+        return messenger.replicateKey(mt, peer);
+    }
+
+    @Override
+    public MessageType join(String peer) throws IOException {
+        return messenger.join(peer);
+    }
+
+    @Override
+    public MessageType fetchDirectory(MessageType mt, String peer) throws IOException {
+        return messenger.fetchDirectory(mt, peer);
+    }
+
+    @Override
+    public MessageType reconcile(MessageType mt, String peer) throws IOException {
+        return messenger.reconcile(mt, peer);
+    }
+
+    @Override
+    public void deleteKey(MessageType mt, String peer) throws IOException {
+        messenger.deleteKey(mt, peer);
+    }
+
+    @Override
+    public void commitKey(MessageType mt, String peer) throws IOException {
+        messenger.commitKey(mt, peer);
+    }
+
+    @Override
+    public void invalidateKey(MessageType mt, String peer) throws IOException {
+        messenger.invalidateKey(mt, peer);
+    }
+
+    @Override
+    public void exit(String peer) throws IOException {
+        messenger.exit(peer);
+    }
+
+    @Override
+    public CompletableFuture<MessageType> getValueForKeyAsync(MessageType mt, String peer) {
+        CachedValue cached = cache.get(mt.getKey());
+        if (cached != null && cached.owner.equals(peer)) {
+            return CompletableFuture.completedFuture(new MessageType.Data(mt.getKey(), cached.value));
+        }
+
+        long stamp = cache.stamp(mt.getKey());
+        return messenger.getValueForKeyAsync(mt, peer).thenApply(resp -> {
+            if (resp != null && resp.getValue() != null) {
+                cache.put(mt.getKey(), new CachedValue(peer, resp.getValue()), stamp);
+            }
+            return resp;
+        });
+    }
+
+    @Override
+    public CompletableFuture<MessageType> requestAcknowledgementAsync(MessageType mt, String peer) {
+        return messenger.requestAcknowledgementAsync(mt, peer);
+    }
+
+    @Override
+    public CompletableFuture<MessageType> getAllDataAsync(String peer) {
+        return messenger.getAllDataAsync(peer);
+    }
+
+    @Override
+    public CompletableFuture<MessageType> scanAsync(MessageType mt, String peer) {
+        return messenger.scanAsync(mt, peer);
+    }
+
+    @Override
+    public CompletableFuture<MessageType> pingAsync(String peer) {
+        return messenger.pingAsync(peer);
+    }
+
+    @Override
+    public CompletableFuture<MessageType> getStatsAsync(String peer) {
+        return messenger.getStatsAsync(peer);
+    }
+
+    @Override
+    public CompletableFuture<MessageType> writeKeyAsync(MessageType mt, String peer) {
+        // the cached value is out of date once the write has been applied
+        return messenger.writeKeyAsync(mt, peer).whenComplete((resp, e) -> cache.invalidate(mt.getKey()));
+    }
+
+    @Override
+    public CompletableFuture<MessageType> replicateKeyAsync(MessageType mt, String peer) {
+        return messenger.replicateKeyAsync(mt, peer);
+    }
+
+    @Override
+    public CompletableFuture<MessageType> joinAsync(String peer) {
+        return messenger.joinAsync(peer);
+    }
+
+    @Override
+    public CompletableFuture<MessageType> fetchDirectoryAsync(MessageType mt, String peer) {
+        return messenger.fetchDirectoryAsync(mt, peer);
+    }
+
+    @Override
+    public CompletableFuture<MessageType> reconcileAsync(MessageType mt, String peer) {
+        return messenger.reconcileAsync(mt, peer);
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteKeyAsync(MessageType mt, String peer) {
+        return messenger.deleteKeyAsync(mt, peer);
+    }
+
+    @Override
+    public CompletableFuture<Void> commitKeyAsync(MessageType mt, String peer) {
+        return messenger.commitKeyAsync(mt, peer);
+    }
+
+    @Override
+    public CompletableFuture<Void> invalidateKeyAsync(MessageType mt, String peer) {
+        return messenger.invalidateKeyAsync(mt, peer);
+    }
+
+    @Override
+    public CompletableFuture<Void> exitAsync(String peer) {
+        return messenger.exitAsync(peer);
+    }
+
+    public void invalidate(String key) {
+        cache.invalidate(key);
+    }
+
+    /**
+     * Drops every cached value owned by the peer
+     */
+    public void invalidatePeer(String peer) {
+        cache.invalidateIf((key, cached) -> cached.owner.equals(peer));
+    }
+
+    public LruCache.Stats getStats() {
+        return cache.getStats();
+    }
+
+    /**
+     * Rough heap footprint of an entry: both strings, the value and the bookkeeping objects around them
+     */
+    private static int weigh(String key, CachedValue cached) {
+        int valueSize = cached.value instanceof byte[] bytes ? bytes.length : 2 * cached.value.toString().length();
+        return 2 * key.length() + valueSize + ENTRY_OVERHEAD;
+    }
+
+    private record CachedValue(String owner, Object value) {
+    }
+
+    private static final int ENTRY_OVERHEAD = 128;
+}
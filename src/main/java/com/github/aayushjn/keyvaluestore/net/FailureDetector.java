@@ -0,0 +1,226 @@
+package com.github.aayushjn.keyvaluestore.net;
+
+import com.github.aayushjn.keyvaluestore.model.MessageType;
+
+import java.io.Closeable;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Phi-accrual failure detector, fed by pinging every peer once per heartbeat interval
+ * <p>
+ * Instead of a fixed timeout, every peer has a suspicion level phi that grows with the time since its last heartbeat,
+ * measured against the intervals between its recent heartbeats: phi is -log10 of the probability that a heartbeat
+ * would arrive even later than now, were intervals normally distributed. A peer whose phi rises above the threshold is
+ * suspected, and is readmitted by its next heartbeat. A threshold of 8 means that a suspicion is wrong about once in
+ * 10^8 times, given the observed distribution.
+ * <p>
+ * Pings are sent asynchronously, and to each peer only once its previous ping has completed, so that a peer that
+ * hangs does not hold up the heartbeats of the others.
+ */
+public class FailureDetector implements Closeable {
+    private final Supplier<AsyncMessenger> messenger;
+    private final long intervalMillis;
+    private final double threshold;
+    private final Listener listener;
+    private final Map<String, PeerState> peers;
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * @param messenger      supplies the messenger to ping peers with
+     * @param intervalMillis time between pings of a peer
+     * @param threshold      phi above which a peer is suspected
+     * @param listener       told whenever a peer becomes suspected or is readmitted
+     */
+    public FailureDetector(
+        Supplier<AsyncMessenger> messenger,
+        long intervalMillis,
+        double threshold,
+        Listener listener
+    ) {
+        this.messenger = messenger;
+        this.intervalMillis = intervalMillis;
+        this.threshold = threshold;
+        this.listener = listener;
+        peers = new ConcurrentHashMap<>();
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "failure-detector");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts monitoring the given peers, each as if it had just sent a heartbeat
+     */
+    public void start(Collection<String> peers) {
+        for (String peer : peers) {
+            add(peer);
+        }
+        scheduler.scheduleWithFixedDelay(this::tick, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void add(String peer) {
+        peers.putIfAbsent(peer, new PeerState(System.nanoTime(), intervalMillis));
+    }
+
+    /**
+     * Stops monitoring a peer, e.g. one that has left the cluster
+     */
+    public void remove(String peer) {
+        peers.remove(peer);
+    }
+
+    public boolean isSuspected(String peer) {
+        PeerState state = peers.get(peer);
+        return state != null && state.suspected;
+    }
+
+    /**
+     * @return current suspicion level of the peer, or 0 if it is not monitored
+     */
+    public double phi(String peer) {
+        PeerState state = peers.get(peer);
+        return state != null ? state.phi(System.nanoTime()) : 0;
+    }
+
+    private void tick() {
+        long now = System.nanoTime();
+        for (Map.Entry<String, PeerState> entry : peers.entrySet()) {
+            String peer = entry.getKey();
+            PeerState state = entry.getValue();
+            try {
+                synchronized (state) {
+                    if (!state.suspected && state.phi(now) > threshold) {
+                        state.suspected = true;
+                        logger.warning(() -> "suspecting " + peer + " after no heartbeat for "
+                            + TimeUnit.NANOSECONDS.toMillis(now - state.lastHeartbeat) + " ms");
+                        listener.suspected(peer);
+                    }
+                }
+                if (!state.pinging) {
+                    state.pinging = true;
+                    ping(peer, state);
+                }
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, e, e::getMessage);
+            }
+        }
+    }
+
+    private void ping(String peer, PeerState state) {
+        messenger.get().pingAsync(peer).whenComplete((resp, e) -> {
+            try {
+                if (resp instanceof MessageType.Pong) {
+                    synchronized (state) {
+                        state.heartbeat(System.nanoTime());
+                        if (state.suspected && peers.get(peer) == state) {
+                            state.suspected = false;
+                            logger.info(() -> "readmitting " + peer);
+                            listener.recovered(peer);
+                        }
+                    }
+                } else if (e != null) {
+                    logger.log(Level.FINE, e, () -> "heartbeat of " + peer + " failed: " + e.getMessage());
+                }
+            } finally {
+                state.pinging = false;
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Receives changes of the suspicion of peers, on the thread that detects them. Every change is passed on while the
+     * state of the peer is locked, so the calls for a peer arrive in the order of its changes, and must not block.
+     */
+    public interface Listener {
+        void suspected(String peer);
+
+        void recovered(String peer);
+    }
+
+    /**
+     * Heartbeat history of a single peer, keeping a sliding window of the intervals between heartbeats
+     */
+    private static final class PeerState {
+        private final long[] intervals;
+        private int count;
+        private int next;
+        private double sum;
+        private double sumOfSquares;
+        private volatile long lastHeartbeat;
+        private volatile boolean suspected;
+        private volatile boolean pinging;
+
+        /**
+         * The window is seeded with the expected interval, so that a peer that never answers is suspected all the same
+         */
+        private PeerState(long start, long intervalMillis) {
+            intervals = new long[WINDOW_SIZE];
+            lastHeartbeat = start;
+            record(TimeUnit.MILLISECONDS.toNanos(intervalMillis));
+        }
+
+        /**
+         * The silence of a suspected peer is not a sample of its heartbeat intervals, so its first heartbeat after it
+         * recovers only restarts the clock
+         */
+        private synchronized void heartbeat(long now) {
+            if (!suspected) record(now - lastHeartbeat);
+            lastHeartbeat = now;
+        }
+
+        private void record(long interval) {
+            if (count == intervals.length) {
+                sum -= intervals[next];
+                sumOfSquares -= (double) intervals[next] * intervals[next];
+            } else {
+                count++;
+            }
+            intervals[next] = interval;
+            sum += interval;
+            sumOfSquares += (double) interval * interval;
+            next = (next + 1) % intervals.length;
+        }
+
+        private synchronized double phi(long now) {
+            double mean = sum / count;
+            double variance = sumOfSquares / count - mean * mean;
+            double stdDev = Math.max(Math.sqrt(Math.max(variance, 0)), MIN_STD_DEV_NANOS);
+            double elapsed = now - lastHeartbeat;
+            double y = (elapsed - mean - ACCEPTABLE_PAUSE_NANOS) / stdDev;
+            // logistic approximation of the cumulative normal distribution
+            double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+            if (y > 0) {
+                return -Math.log10(e / (1.0 + e));
+            }
+            return -Math.log10(1.0 - 1.0 / (1.0 + e));
+        }
+    }
+
+    public static final long DEFAULT_INTERVAL_MILLIS = 500;
+    public static final double DEFAULT_THRESHOLD = 8;
+    private static final int WINDOW_SIZE = 100;
+    /**
+     * Lower bound on the deviation of intervals, so that a run of very regular heartbeats does not make the detector
+     * suspect a peer over the slightest delay
+     */
+    private static final double MIN_STD_DEV_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    /**
+     * Pause in heartbeats that is tolerated on top of the mean interval, e.g. for a garbage collection on the peer
+     */
+    private static final double ACCEPTABLE_PAUSE_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+    private static final Logger logger = Logger.getLogger(FailureDetector.class.getName());
+}
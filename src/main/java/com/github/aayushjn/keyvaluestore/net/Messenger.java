@@ -11,7 +11,47 @@ public interface Messenger {
     MessageType getValueForKey(MessageType mt, String peer) throws IOException;
     MessageType requestAcknowledgement(MessageType mt, String peer) throws IOException;
     MessageType getAllData(String peer) throws IOException;
+    MessageType scan(MessageType mt, String peer) throws IOException;
+    MessageType ping(String peer) throws IOException;
+    MessageType getStats(String peer) throws IOException;
+    /**
+     * Asks the owner of a key to apply a PUT or DEL on behalf of this node
+     * @return {@link MessageType.Reply} with the outcome
+     */
+    MessageType writeKey(MessageType mt, String peer) throws IOException;
+    /**
+     * Pushes a write of a key this node owns to one of the replicas of the key
+     * @return {@link MessageType.Ack} once the replica holds the write
+     */
+    MessageType replicateKey(MessageType mt, String peer) throws IOException;
+    /**
+     * Asks a member of the cluster to admit this node
+     * @return {@link MessageType.Data} listing the members of the cluster
+     */
+    MessageType join(String peer) throws IOException;
+    /**
+     * Fetches a block of the ownership directory of a member
+     * @return {@link MessageType.Chunk} holding the block
+     */
+    MessageType fetchDirectory(MessageType mt, String peer) throws IOException;
+    /**
+     * Takes a step of anti-entropy against a peer, comparing this node's record of the keys the peer owns with the
+     * peer's own
+     * @return {@link MessageType.Hashes} answering a {@link MessageType.Digest}, or {@link MessageType.Keys} answering
+     * a {@link MessageType.Range}
+     */
+    MessageType reconcile(MessageType mt, String peer) throws IOException;
     void deleteKey(MessageType mt, String peer) throws IOException;
     void commitKey(MessageType mt, String peer) throws IOException;
+    void invalidateKey(MessageType mt, String peer) throws IOException;
     void exit(String peer) throws IOException;
+
+    /**
+     * Time allowed for connecting to a peer
+     */
+    int CONNECT_TIMEOUT_MILLIS = 2000;
+    /**
+     * Time allowed for a peer to answer a request, after which the request fails as if the peer were down
+     */
+    int RESPONSE_TIMEOUT_MILLIS = 5000;
 }
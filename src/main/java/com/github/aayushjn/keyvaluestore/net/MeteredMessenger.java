@@ -0,0 +1,267 @@
+package com.github.aayushjn.keyvaluestore.net;
+
+import com.github.aayushjn.keyvaluestore.metrics.Metrics;
+import com.github.aayushjn.keyvaluestore.model.MessageCodec;
+import com.github.aayushjn.keyvaluestore.model.MessageType;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Messenger that records the latency, size and outcome of every call into the metrics of the node, per peer and for
+ * the transport as a whole. A request that fails or gets no response counts as an error. Asynchronous calls are
+ * recorded once their future completes.
+ */
+public class MeteredMessenger implements AsyncMessenger {
+    private final AsyncMessenger messenger;
+    private final Metrics metrics;
+    private final String selfAddr;
+
+    public MeteredMessenger(AsyncMessenger messenger, Metrics metrics, String selfAddr) {
+        this.messenger = messenger;
+        this.metrics = metrics;
+        this.selfAddr = selfAddr;
+    }
+
+    @Override
+    public MessageType getValueForKey(MessageType mt, String peer) throws IOException {
+        return request(peer, mt, () -> messenger.getValueForKey(mt, peer));
+    }
+
+    @Override
+    public MessageType requestAcknowledgement(MessageType mt, String peer) throws IOException {
+        return request(peer, mt, () -> messenger.requestAcknowledgement(mt, peer));
+    }
+
+    @Override
+    public MessageType getAllData(String peer) throws IOException {
+        return request(peer, new MessageType.Store(), () -> messenger.getAllData(peer));
+    }
+
+    @Override
+    public MessageType scan(MessageType mt, String peer) throws IOException {
+        return request(peer, mt, () -> messenger.scan(mt, peer));
+    }
+
+    @Override
+    public MessageType ping(String peer) throws IOException {
+        return request(peer, new MessageType.Ping(selfAddr), () -> messenger.ping(peer));
+    }
+
+    @Override
+    public MessageType getStats(String peer) throws IOException {
+        return request(peer, new MessageType.Stats(), () -> messenger.getStats(peer));
+    }
+
+    @Override
+    public MessageType writeKey(MessageType mt, String peer) throws IOException {
+        return request(peer, mt, () -> messenger.writeKey(mt, peer));
+    }
+
+    @Override
+    public MessageType replicateKey(MessageType mt, String peer) throws IOException {
+        return request(peer, mt, () -> messenger.replicateKey(mt, peer));
+    }
+
+    @Override
+    public MessageType join(String peer) throws IOException {
+        return request(peer, new MessageType.Join(selfAddr), () -> messenger.join(peer));
+    }
+
+    @Override
+    public MessageType fetchDirectory(MessageType mt, String peer) throws IOException {
+        return request(peer, mt, () -> messenger.fetchDirectory(mt, peer));
+    }
+
+    @Override
+    public MessageType reconcile(MessageType mt, String peer) throws IOException {
+        return request(peer, mt, () -> messenger.reconcile(mt, peer));
+    }
+
+    @Override
+    public void deleteKey(MessageType mt, String peer) throws IOException {
+        send(peer, mt, () -> messenger.deleteKey(mt, peer));
+    }
+
+    @Override
+    public void commitKey(MessageType mt, String peer) throws IOException {
+        send(peer, mt, () -> messenger.commitKey(mt, peer));
+    }
+
+    @Override
+    public void invalidateKey(MessageType mt, String peer) throws IOException {
+        send(peer, mt, () -> messenger.invalidateKey(mt, peer));
+    }
+
+    @Override
+    public void exit(String peer) throws IOException {
+        send(peer, new MessageType.Exit(selfAddr), () -> messenger.exit(peer));
+    }
+
+    @Override
+    public CompletableFuture<MessageType> getValueForKeyAsync(MessageType mt, String peer) {
+        return requestAsync(peer, mt, () -> messenger.getValueForKeyAsync(mt, peer));
+    }
+
+    @Override
+    public CompletableFuture<MessageType> requestAcknowledgementAsync(MessageType mt, String peer) {
+        return requestAsync(peer, mt, () -> messenger.requestAcknowledgementAsync(mt, peer));
+    }
+
+    @Override
+    public CompletableFuture<MessageType> getAllDataAsync(String peer) {
+        return requestAsync(peer, new MessageType.Store(), () -> messenger.getAllDataAsync(peer));
+    }
+
+    @Override
+    public CompletableFuture<MessageType> scanAsync(MessageType mt, String peer) {
+        return requestAsync(peer, mt, () -> messenger.scanAsync(mt, peer));
+    }
+
+    @Override
+    public CompletableFuture<MessageType> pingAsync(String peer) {
+        return requestAsync(peer, new MessageType.Ping(selfAddr), () -> messenger.pingAsync(peer));
+    }
+
+    @Override
+    public CompletableFuture<MessageType> getStatsAsync(String peer) {
+        return requestAsync(peer, new MessageType.Stats(), () -> messenger.getStatsAsync(peer));
+    }
+
+    @Override
+    public CompletableFuture<MessageType> writeKeyAsync(MessageType mt, String peer) {
+        return requestAsync(peer, mt, () -> messenger.writeKeyAsync(mt, peer));
+    }
+
+    @Override
+    public CompletableFuture<MessageType> replicateKeyAsync(MessageType mt, String peer) {
+        return requestAsync(peer, mt, () -> messenger.replicateKeyAsync(mt, peer));
+    }
+
+    @Override
+    public CompletableFuture<MessageType> joinAsync(String peer) {
+        return requestAsync(peer, new MessageType.Join(selfAddr), () -> messenger.joinAsync(peer));
+    }
+
+    @Override
+    public CompletableFuture<MessageType> fetchDirectoryAsync(MessageType mt, String peer) {
+        return requestAsync(peer, mt, () -> messenger.fetchDirectoryAsync(mt, peer));
+    }
+
+    @Override
+    public CompletableFuture<MessageType> reconcileAsync(MessageType mt, String peer) {
+        return requestAsync(peer, mt, () -> messenger.reconcileAsync(mt, peer));
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteKeyAsync(MessageType mt, String peer) {
+        return sendAsync(peer, mt, () -> messenger.deleteKeyAsync(mt, peer));
+    }
+
+    @Override
+    public CompletableFuture<Void> commitKeyAsync(MessageType mt, String peer) {
+        return sendAsync(peer, mt, () -> messenger.commitKeyAsync(mt, peer));
+    }
+
+    @Override
+    public CompletableFuture<Void> invalidateKeyAsync(MessageType mt, String peer) {
+        return sendAsync(peer, mt, () -> messenger.invalidateKeyAsync(mt, peer));
+    }
+
+    @Override
+    public CompletableFuture<Void> exitAsync(String peer) {
+        return sendAsync(peer, new MessageType.Exit(selfAddr), () -> messenger.exitAsync(peer));
+    }
+
+    private MessageType request(String peer, MessageType request, Request call) throws IOException {
+        long start = System.nanoTime();
+        MessageType resp;
+        try {
+            resp = call.call();
+        } catch (IOException | RuntimeException e) {
+            recordError(peer, start);
+            throw e;
+        }
+        recordResponse(peer, request, resp, start);
+        return resp;
+    }
+
+    private CompletableFuture<MessageType> requestAsync(
+        String peer,
+        MessageType request,
+        Supplier<CompletableFuture<MessageType>> call
+    ) {
+        long start = System.nanoTime();
+        return call.get().whenComplete((resp, e) -> {
+            if (e != null) {
+                recordError(peer, start);
+            } else {
+                recordResponse(peer, request, resp, start);
+            }
+        });
+    }
+
+    private void recordResponse(String peer, MessageType request, MessageType resp, long start) {
+        // sized after the call, as messengers may fill in fields of the request
+        recordSent(peer, request);
+        if (resp == null) {
+            recordError(peer, start);
+        } else {
+            metrics.peerLatency(peer).record(System.nanoTime() - start);
+            int size = MessageCodec.sizeOf(resp);
+            metrics.peerTraffic(peer).recordReceived(size);
+            metrics.getTraffic().recordReceived(size);
+        }
+    }
+
+    private void send(String peer, MessageType message, Send call) throws IOException {
+        long start = System.nanoTime();
+        try {
+            call.call();
+        } catch (IOException | RuntimeException e) {
+            recordError(peer, start);
+            throw e;
+        }
+        metrics.peerLatency(peer).record(System.nanoTime() - start);
+        recordSent(peer, message);
+    }
+
+    private CompletableFuture<Void> sendAsync(
+        String peer,
+        MessageType message,
+        Supplier<CompletableFuture<Void>> call
+    ) {
+        long start = System.nanoTime();
+        return call.get().whenComplete((ignored, e) -> {
+            if (e != null) {
+                recordError(peer, start);
+            } else {
+                metrics.peerLatency(peer).record(System.nanoTime() - start);
+                recordSent(peer, message);
+            }
+        });
+    }
+
+    private void recordSent(String peer, MessageType message) {
+        int size = MessageCodec.sizeOf(message);
+        metrics.peerTraffic(peer).recordSent(size);
+        metrics.getTraffic().recordSent(size);
+    }
+
+    private void recordError(String peer, long start) {
+        metrics.peerLatency(peer).recordError(System.nanoTime() - start);
+        metrics.peerTraffic(peer).recordError();
+        metrics.getTraffic().recordError();
+    }
+
+    @FunctionalInterface
+    private interface Request {
+        MessageType call() throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface Send {
+        void call() throws IOException;
+    }
+}
@@ -0,0 +1,156 @@
+package com.github.aayushjn.keyvaluestore.net;
+
+import com.github.aayushjn.keyvaluestore.model.Agreeable;
+import com.github.aayushjn.keyvaluestore.model.MessageType;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Fans a request out to every peer at once and gathers the responses, so that a multi-peer operation costs the slowest
+ * peer's round trip rather than the sum of all of them. Every call is bounded by a deadline; peers that fail or do not
+ * answer in time are treated as having declined.
+ * <p>
+ * Requests are made through the asynchronous messenger and responses are tallied as they complete, so a fan-out takes
+ * no thread per peer; only the caller waits, for the outcome.
+ */
+public class ScatterGather {
+    private final AsyncMessenger messenger;
+    private final long timeoutMillis;
+
+    /**
+     * @param messenger messenger used for each individual peer call
+     * @param timeoutMillis deadline for each fan-out, in milliseconds
+     */
+    public ScatterGather(AsyncMessenger messenger, long timeoutMillis) {
+        this.messenger = messenger;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Requests acknowledgement from every live peer, tallying votes in the given {@link Agreeable} under the key of the
+     * message. The round must already have been started with {@link Agreeable#beginVote(Object)}. Returns as soon as a
+     * majority has acknowledged or enough peers have declined that a majority can no longer be reached.
+     * @return true if a majority acknowledged before the deadline
+     */
+    public boolean vote(MessageType mt, Agreeable<String> agreeable) {
+        String key = mt.getKey();
+        List<String> peers = List.copyOf(agreeable.getLivePeers());
+        if (agreeable.hasMajority(key)) return true;
+
+        CompletableFuture<Boolean> decision = new CompletableFuture<>();
+        for (String peer : peers) {
+            messenger.requestAcknowledgementAsync(mt, peer).whenComplete((resp, e) -> {
+                if (e != null) logFailure("vote request to " + peer, e);
+                if (resp instanceof MessageType.Ack) {
+                    agreeable.recordAck(key);
+                    if (agreeable.hasMajority(key)) decision.complete(true);
+                } else {
+                    // a failed or missing response counts against the proposal
+                    agreeable.recordNak(key);
+                    if (agreeable.hasLostMajority(key)) decision.complete(false);
+                }
+            });
+        }
+        return await(decision, false);
+    }
+
+    /**
+     * Invokes the call for every peer at once and waits until all of them have completed or the deadline passes
+     */
+    public void broadcast(List<String> peers, PeerCall call) {
+        CompletableFuture<?>[] calls = new CompletableFuture<?>[peers.size()];
+        for (int i = 0; i < calls.length; i++) {
+            String peer = peers.get(i);
+            calls[i] = call.call(peer).whenComplete((ignored, e) -> {
+                if (e != null) logFailure("call to " + peer, e);
+            });
+        }
+        try {
+            CompletableFuture.allOf(calls).get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            long incomplete = Arrays.stream(calls).filter(f -> !f.isDone()).count();
+            logger.warning(() -> incomplete + " peer(s) did not complete within " + timeoutMillis + " ms");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // every failure has been logged already
+        }
+    }
+
+    /**
+     * Invokes the call for every peer at once without waiting for any of them, logging those that fail
+     */
+    public void send(List<String> peers, PeerCall call) {
+        for (String peer : peers) {
+            call.call(peer).whenComplete((ignored, e) -> {
+                if (e != null) logFailure("call to " + peer, e);
+            });
+        }
+    }
+
+    /**
+     * Sends the request to every peer at once, returning as soon as `required` of them have answered with an
+     * {@link MessageType.Ack} or the deadline passes. With none required, it returns at once and the requests complete
+     * in the background.
+     * @return true if enough peers acknowledged before the deadline
+     */
+    public boolean acknowledge(List<String> peers, PeerRequest request, int required) {
+        CountDownLatch acks = new CountDownLatch(Math.min(required, peers.size()));
+        for (String peer : peers) {
+            request.call(peer).whenComplete((resp, e) -> {
+                if (e != null) logFailure("request to " + peer, e);
+                if (resp instanceof MessageType.Ack) acks.countDown();
+            });
+        }
+        if (acks.getCount() == 0) return true;
+        try {
+            return acks.await(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private <T> T await(CompletableFuture<T> future, T onTimeout) {
+        try {
+            return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            logger.warning(() -> "no decision within " + timeoutMillis + " ms");
+            return onTimeout;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return onTimeout;
+        } catch (ExecutionException e) {
+            return onTimeout;
+        }
+    }
+
+    private static void logFailure(String call, Throwable e) {
+        IOException cause = AsyncMessenger.asIOException(e);
+        logger.log(Level.WARNING, cause, () -> call + " failed: " + cause.getMessage());
+    }
+
+    /**
+     * A single call made against one peer
+     */
+    @FunctionalInterface
+    public interface PeerCall {
+        CompletableFuture<?> call(String peer);
+    }
+
+    /**
+     * A single request made against one peer
+     */
+    @FunctionalInterface
+    public interface PeerRequest {
+        CompletableFuture<MessageType> call(String peer);
+    }
+
+    public static final long DEFAULT_TIMEOUT_MILLIS = 5000;
+    private static final Logger logger = Logger.getLogger(ScatterGather.class.getName());
+}
@@ -0,0 +1,254 @@
+package com.github.aayushjn.keyvaluestore.net.nio;
+
+import com.github.aayushjn.keyvaluestore.model.MessageCodec;
+import com.github.aayushjn.keyvaluestore.model.MessageType;
+import com.github.aayushjn.keyvaluestore.model.PayloadCompressor;
+import com.github.aayushjn.keyvaluestore.net.Messenger;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class NIOMessenger implements Messenger, Closeable {
+    private final String selfAddr;
+    private final PayloadCompressor compressor;
+    private final Map<String, PeerChannel> channels;
+
+    /**
+     * @param compressor compressor of the requests sent to peers
+     */
+    public NIOMessenger(String selfAddr, PayloadCompressor compressor) {
+        this.selfAddr = selfAddr;
+        this.compressor = compressor;
+        channels = new ConcurrentHashMap<>();
+    }
+
+    @Override
+    public MessageType getValueForKey(MessageType mt, String peer) throws IOException {
+        return getChannel(peer).request(mt);
+    }
+
+    @Override
+    public MessageType requestAcknowledgement(MessageType mt, String peer) throws IOException {
+        return getChannel(peer).request(mt);
+    }
+
+    @Override
+    public MessageType getAllData(String peer) throws IOException {
+        return getChannel(peer).request(new MessageType.Store());
+    }
+
+    @Override
+    public MessageType scan(MessageType mt, String peer) throws IOException {
+        return getChannel(peer).request(mt);
+    }
+
+    @Override
+    public MessageType ping(String peer) throws IOException {
+        return getChannel(peer).request(new MessageType.Ping(selfAddr));
+    }
+
+    @Override
+    public MessageType getStats(String peer) throws IOException {
+        return getChannel(peer).request(new MessageType.Stats());
+    }
+
+    @Override
+    public MessageType writeKey(MessageType mt, String peer) throws IOException {
+        return getChannel(peer).request(mt);
+    }
+
+    @Override
+    public MessageType replicateKey(MessageType mt, String peer) throws IOException {
+        mt.setPeer(selfAddr);
+        return getChannel(peer).request(mt);
+    }
+
+    @Override
+    public MessageType join(String peer) throws IOException {
+        return getChannel(peer).request(new MessageType.Join(selfAddr));
+    }
+
+    @Override
+    public MessageType fetchDirectory(MessageType mt, String peer) throws IOException {
+        mt.setPeer(selfAddr);
+        return getChannel(peer).request(mt);
+    }
+
+    @Override
+    public MessageType reconcile(MessageType mt, String peer) throws IOException {
+        return getChannel(peer).request(mt);
+    }
+
+    @Override
+    public void deleteKey(MessageType mt, String peer) throws IOException {
+        getChannel(peer).send(mt);
+    }
+
+    @Override
+    public void invalidateKey(MessageType mt, String peer) throws IOException {
+        getChannel(peer).send(mt);
+    }
+
+    @Override
+    public void commitKey(MessageType mt, String peer) throws IOException {
+        mt.setPeer(selfAddr);
+        getChannel(peer).send(mt);
+    }
+
+    @Override
+    public void exit(String peer) throws IOException {
+        PeerChannel channel = getChannel(peer);
+        channel.send(new MessageType.Exit(selfAddr));
+        channels.remove(peer, channel);
+        channel.close();
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (PeerChannel channel : channels.values()) {
+            channel.close();
+        }
+        channels.clear();
+    }
+
+    private PeerChannel getChannel(String peer) throws IOException {
+        PeerChannel channel = channels.get(peer);
+        if (channel != null && channel.isOpen()) return channel;
+
+        String[] split = peer.split(":");
+        SocketChannel socketChannel = SocketChannel.open();
+        try {
+            socketChannel.socket().connect(
+                new InetSocketAddress(split[0], Integer.parseInt(split[1])), CONNECT_TIMEOUT_MILLIS
+            );
+            socketChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        } catch (IOException e) {
+            socketChannel.close();
+            throw e;
+        }
+        PeerChannel created = new PeerChannel(socketChannel, compressor);
+        if (channel == null ? channels.putIfAbsent(peer, created) != null : !channels.replace(peer, channel, created)) {
+            // another caller connected first, so use that connection instead
+            created.close();
+        }
+        return channels.get(peer);
+    }
+
+    /**
+     * Channel to a single peer. Requests are serialized on the channel so that responses are read in the order the
+     * requests were written. The channel is non-blocking and waits on a selector of its own, so that a peer that stops
+     * answering fails the request after {@link Messenger#RESPONSE_TIMEOUT_MILLIS}; the channel is closed then, as a
+     * late response would be taken for that of the next request.
+     * <p>
+     * Requests are serialized by a lock rather than a monitor, so that a virtual thread awaiting a response does not
+     * pin its carrier thread.
+     */
+    private static final class PeerChannel implements Closeable {
+        private final SocketChannel channel;
+        private final Selector selector;
+        private final SelectionKey key;
+        private final PayloadCompressor compressor;
+        private final ReentrantLock lock;
+        private ByteBuffer writeBuffer;
+        private ByteBuffer readBuffer;
+        private boolean peerAccepts;
+
+        private PeerChannel(SocketChannel channel, PayloadCompressor compressor) throws IOException {
+            this.channel = channel;
+            this.compressor = compressor;
+            channel.configureBlocking(false);
+            selector = Selector.open();
+            key = channel.register(selector, 0);
+            lock = new ReentrantLock();
+            writeBuffer = ByteBuffer.allocateDirect(MessageCodec.DEFAULT_BUFFER_SIZE);
+            readBuffer = ByteBuffer.allocateDirect(MessageCodec.DEFAULT_BUFFER_SIZE);
+        }
+
+        private void send(MessageType mt) throws IOException {
+            lock.lock();
+            try {
+                write(mt);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private MessageType request(MessageType mt) throws IOException {
+            lock.lock();
+            try {
+                write(mt);
+                return read();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void write(MessageType mt) throws IOException {
+            writeBuffer.clear();
+            writeBuffer = compressor.writeFrame(mt, writeBuffer, peerAccepts);
+            writeBuffer.flip();
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(RESPONSE_TIMEOUT_MILLIS);
+            while (writeBuffer.hasRemaining()) {
+                if (channel.write(writeBuffer) == 0) await(SelectionKey.OP_WRITE, deadline);
+            }
+        }
+
+        private MessageType read() throws IOException {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(RESPONSE_TIMEOUT_MILLIS);
+            readBuffer.clear();
+            while (true) {
+                readBuffer.flip();
+                PayloadCompressor.Frame frame = compressor.readFrame(readBuffer);
+                if (frame != null) {
+                    if (frame.acceptsCompression()) peerAccepts = true;
+                    return frame.message();
+                }
+
+                int frameLength = MessageCodec.peekFrameLength(readBuffer);
+                readBuffer.compact();
+                if (frameLength > readBuffer.capacity()) {
+                    readBuffer = MessageCodec.ensureRemaining(readBuffer, frameLength - readBuffer.position());
+                }
+                int read = channel.read(readBuffer);
+                if (read < 0) {
+                    close();
+                    throw new EOFException("connection closed by peer");
+                }
+                if (read == 0) await(SelectionKey.OP_READ, deadline);
+            }
+        }
+
+        private void await(int ops, long deadline) throws IOException {
+            long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remainingMillis <= 0) {
+                close();
+                throw new SocketTimeoutException("no response within " + RESPONSE_TIMEOUT_MILLIS + " ms");
+            }
+            key.interestOps(ops);
+            selector.select(remainingMillis);
+            selector.selectedKeys().clear();
+        }
+
+        private boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+            selector.close();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.github.aayushjn.keyvaluestore.net.rmi;
+
+import com.github.aayushjn.keyvaluestore.net.Messenger;
+
+import java.io.IOException;
+import java.io.Serial;
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.rmi.server.RMIClientSocketFactory;
+import java.rmi.server.RMIServerSocketFactory;
+
+/**
+ * Socket factory for RMI connections that disables Nagle's algorithm, so that small calls are not held back waiting for
+ * the acknowledgement of the previous one. The RMI runtime already wraps both socket streams in buffered streams.
+ * Client sockets bound both connecting and waiting for a reply, so that a call to a peer that has died fails instead of
+ * hanging.
+ * <p>
+ * The factory is serialized along with the server's stub, so that clients use it as well.
+ */
+public class NoDelaySocketFactory implements RMIClientSocketFactory, RMIServerSocketFactory, Serializable {
+    @Serial private static final long serialVersionUID = 20261018120000L;
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+        Socket socket = new Socket();
+        socket.connect(new InetSocketAddress(host, port), Messenger.CONNECT_TIMEOUT_MILLIS);
+        socket.setTcpNoDelay(true);
+        socket.setKeepAlive(true);
+        socket.setSoTimeout(Messenger.RESPONSE_TIMEOUT_MILLIS);
+        return socket;
+    }
+
+    @Override
+    public ServerSocket createServerSocket(int port) throws IOException {
+        return new ServerSocket(port) {
+            @Override
+            public Socket accept() throws IOException {
+                Socket socket = super.accept();
+                socket.setTcpNoDelay(true);
+                return socket;
+            }
+        };
+    }
+
+    /**
+     * All instances are interchangeable, which lets the RMI runtime share connections between stubs using them
+     */
+    @Override
+    public boolean equals(Object obj) {
+        return obj != null && obj.getClass() == getClass();
+    }
+
+    @Override
+    public int hashCode() {
+        return getClass().hashCode();
+    }
+}
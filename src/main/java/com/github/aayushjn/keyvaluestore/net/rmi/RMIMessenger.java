@@ -4,21 +4,53 @@ import com.github.aayushjn.keyvaluestore.model.MessageType;
 import com.github.aayushjn.keyvaluestore.net.Messenger;
 
 import java.io.IOException;
-import java.rmi.Naming;
+import java.rmi.ConnectException;
+import java.rmi.ConnectIOException;
+import java.rmi.NoSuchObjectException;
 import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+/**
+ * Messenger that calls the RMI server of each peer
+ * <p>
+ * The stub of every peer is looked up once and reused for every call. A stub that turns out to be stale, because the
+ * peer restarted or its connection was refused, is dropped and looked up again, and the call is retried once. Other
+ * remote failures only drop the stub, since the call may already have been carried out.
+ */
 public class RMIMessenger implements Messenger {
     private final String selfAddr;
+    private final Map<String, ServerInterface> stubs;
 
     public RMIMessenger(String selfAddr) {
         this.selfAddr = selfAddr;
+        stubs = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Looks up the stubs of the given peers ahead of the first call. Peers that are not reachable yet are looked up on
+     * their first call instead.
+     */
+    public void warmUp(List<String> peers) {
+        for (String peer : peers) {
+            try {
+                getStub(peer);
+            } catch (IOException | NotBoundException e) {
+                logger.log(Level.FINE, e, e::getMessage);
+            }
+        }
     }
 
     @Override
     public MessageType getValueForKey(MessageType mt, String peer) throws IOException {
         try {
-            ServerInterface server = (ServerInterface) Naming.lookup("rmi://" + peer + "/remote");
-            return server.getValueForKey(mt, selfAddr);
+            return call(peer, server -> server.getValueForKey(mt, selfAddr));
         } catch (NotBoundException e) {
             e.printStackTrace();
             return null;
@@ -28,8 +60,7 @@ public class RMIMessenger implements Messenger {
     @Override
     public MessageType requestAcknowledgement(MessageType mt, String peer) throws IOException {
         try {
-            ServerInterface server = (ServerInterface) Naming.lookup("rmi://" + peer + "/remote");
-            return server.requestAcknowledgement(mt, selfAddr);
+            return call(peer, server -> server.requestAcknowledgement(mt, selfAddr));
         } catch (NotBoundException e) {
             return null;
         }
@@ -38,8 +69,81 @@ public class RMIMessenger implements Messenger {
     @Override
     public MessageType getAllData(String peer) throws IOException {
         try {
-            ServerInterface server = (ServerInterface) Naming.lookup("rmi://" + peer + "/remote");
-            return server.getAllData(selfAddr);
+            return call(peer, server -> server.getAllData(selfAddr));
+        } catch (NotBoundException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public MessageType scan(MessageType mt, String peer) throws IOException {
+        try {
+            return call(peer, server -> server.scan(mt, selfAddr));
+        } catch (NotBoundException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public MessageType ping(String peer) throws IOException {
+        try {
+            return call(peer, server -> server.ping(selfAddr));
+        } catch (NotBoundException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public MessageType getStats(String peer) throws IOException {
+        try {
+            return call(peer, server -> server.getStats(selfAddr));
+        } catch (NotBoundException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public MessageType writeKey(MessageType mt, String peer) throws IOException {
+        try {
+            return call(peer, server -> server.writeKey(mt, selfAddr));
+        } catch (NotBoundException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public MessageType replicateKey(MessageType mt, String peer) throws IOException {
+        mt.setPeer(selfAddr);
+        try {
+            return call(peer, server -> server.replicateKey(mt, selfAddr));
+        } catch (NotBoundException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public MessageType join(String peer) throws IOException {
+        try {
+            return call(peer, server -> server.join(selfAddr));
+        } catch (NotBoundException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public MessageType fetchDirectory(MessageType mt, String peer) throws IOException {
+        mt.setPeer(selfAddr);
+        try {
+            return call(peer, server -> server.fetchDirectory(mt, selfAddr));
+        } catch (NotBoundException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public MessageType reconcile(MessageType mt, String peer) throws IOException {
+        try {
+            return call(peer, server -> server.reconcile(mt, selfAddr));
         } catch (NotBoundException e) {
             return null;
         }
@@ -48,25 +152,75 @@ public class RMIMessenger implements Messenger {
     @Override
     public void deleteKey(MessageType mt, String peer) throws IOException {
         try {
-            ServerInterface server = (ServerInterface) Naming.lookup("rmi://" + peer + "/remote");
-            server.deleteKey(mt, selfAddr);
+            call(peer, server -> {
+                server.deleteKey(mt, selfAddr);
+                return null;
+            });
+        } catch (NotBoundException ignored) {}
+    }
+
+    @Override
+    public void invalidateKey(MessageType mt, String peer) throws IOException {
+        try {
+            call(peer, server -> {
+                server.invalidateKey(mt, selfAddr);
+                return null;
+            });
         } catch (NotBoundException ignored) {}
     }
 
     @Override
     public void commitKey(MessageType mt, String peer) throws IOException {
+        mt.setPeer(selfAddr);
         try {
-            ServerInterface server = (ServerInterface) Naming.lookup("rmi://" + peer + "/remote");
-            mt.setPeer(selfAddr);
-            server.commitKey(mt, selfAddr);
+            call(peer, server -> {
+                server.commitKey(mt, selfAddr);
+                return null;
+            });
         } catch (NotBoundException ignored) {}
     }
 
     @Override
     public void exit(String peer) throws IOException {
         try {
-            ServerInterface server = (ServerInterface) Naming.lookup("rmi://" + peer + "/remote");
-            server.exit(selfAddr);
+            call(peer, server -> {
+                server.exit(selfAddr);
+                return null;
+            });
         } catch (NotBoundException ignored) {}
+        stubs.remove(peer);
     }
+
+    private <T> T call(String peer, RemoteCall<T> call) throws IOException, NotBoundException {
+        ServerInterface server = getStub(peer);
+        try {
+            return call.call(server);
+        } catch (NoSuchObjectException | ConnectException | ConnectIOException e) {
+            // the call never reached the peer, so it is safe to retry with a fresh stub
+            stubs.remove(peer, server);
+            return call.call(getStub(peer));
+        } catch (RemoteException e) {
+            stubs.remove(peer, server);
+            throw e;
+        }
+    }
+
+    private ServerInterface getStub(String peer) throws IOException, NotBoundException {
+        ServerInterface server = stubs.get(peer);
+        if (server != null) return server;
+        String[] split = peer.split(":");
+        // look up through the same socket factory as calls, so that the lookup of a dead peer is bounded as well
+        Registry registry = LocateRegistry.getRegistry(split[0], Integer.parseInt(split[1]), SOCKET_FACTORY);
+        server = (ServerInterface) registry.lookup("remote");
+        ServerInterface existing = stubs.putIfAbsent(peer, server);
+        return existing != null ? existing : server;
+    }
+
+    @FunctionalInterface
+    private interface RemoteCall<T> {
+        T call(ServerInterface server) throws RemoteException;
+    }
+
+    private static final NoDelaySocketFactory SOCKET_FACTORY = new NoDelaySocketFactory();
+    private static final Logger logger = Logger.getLogger(RMIMessenger.class.getName());
 }
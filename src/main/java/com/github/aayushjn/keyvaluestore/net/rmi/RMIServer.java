@@ -1,68 +1,95 @@
 package com.github.aayushjn.keyvaluestore.net.rmi;
 
-import com.github.aayushjn.keyvaluestore.model.Agreeable;
 import com.github.aayushjn.keyvaluestore.model.MessageType;
-import com.github.aayushjn.keyvaluestore.model.Store;
 
 import java.io.Serial;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
 import java.util.Objects;
+import java.util.function.UnaryOperator;
 
 
 /**
  * RMI capable server implementation
+ * <p>
+ * Every remote call is turned back into the message it stands for and passed to the same handler that the socket
+ * transports use, so that all transports behave alike.
  */
 public class RMIServer extends UnicastRemoteObject implements ServerInterface {
     @Serial private static final long serialVersionUID = 20231114095600L;
 
-    private final transient Store store;
-    private final transient Agreeable<String> agreeable;
+    private final transient UnaryOperator<MessageType> handler;
 
-    public RMIServer(Store store, Agreeable<String> agreeable) throws RemoteException {
-        super();
+    /**
+     * @param handler handles a received message and returns the response, if any
+     */
+    public RMIServer(UnaryOperator<MessageType> handler) throws RemoteException {
+        super(0, SOCKET_FACTORY, SOCKET_FACTORY);
 
-        this.store = store;
-        this.agreeable = agreeable;
+        this.handler = handler;
     }
 
     public MessageType getValueForKey(MessageType mt, String peer) throws RemoteException {
-        MessageType resp = null;
-        if (store.hasLocally(mt.getKey())) {
-            resp = new MessageType.Data(mt.getKey(), store.get(mt.getKey()));
-        }
-        return resp;
+        return handler.apply(mt);
     }
 
     public MessageType requestAcknowledgement(MessageType mt, String peer) throws RemoteException {
-        MessageType resp;
-        if (store.hasKey(mt.getKey()) || agreeable.getVotedOn().contains(mt.getKey())) {
-            resp = new MessageType.Nak(mt.getKey());
-        } else {
-            resp = new MessageType.Ack(mt.getKey());
-        }
-        agreeable.getVotedOn().add(mt.getKey());
-        return resp;
+        return handler.apply(mt);
     }
 
     public MessageType getAllData(String peer) throws RemoteException {
-        return new MessageType.DataAll(store.getAll());
+        return handler.apply(new MessageType.Store());
+    }
+
+    public MessageType scan(MessageType mt, String peer) throws RemoteException {
+        return handler.apply(mt);
+    }
+
+    public MessageType ping(String peer) throws RemoteException {
+        return handler.apply(new MessageType.Ping(peer));
+    }
+
+    public MessageType getStats(String peer) throws RemoteException {
+        return handler.apply(new MessageType.Stats());
+    }
+
+    public MessageType writeKey(MessageType mt, String peer) throws RemoteException {
+        return handler.apply(mt);
+    }
+
+    public MessageType replicateKey(MessageType mt, String peer) throws RemoteException {
+        mt.setPeer(peer);
+        return handler.apply(mt);
+    }
+
+    public MessageType join(String peer) throws RemoteException {
+        return handler.apply(new MessageType.Join(peer));
+    }
+
+    public MessageType fetchDirectory(MessageType mt, String peer) throws RemoteException {
+        mt.setPeer(peer);
+        return handler.apply(mt);
+    }
+
+    public MessageType reconcile(MessageType mt, String peer) throws RemoteException {
+        return handler.apply(mt);
     }
 
     public void deleteKey(MessageType mt, String peer) throws RemoteException {
-        store.removePeerForKey(mt.getKey());
-        agreeable.getVotedOn().remove(mt.getKey());
+        handler.apply(mt);
     }
 
     public void commitKey(MessageType mt, String peer) throws RemoteException {
-        store.putPeerForKey(mt.getKey(), peer);
-        agreeable.getVotedOn().remove(mt.getKey());
+        mt.setPeer(peer);
+        handler.apply(mt);
+    }
+
+    public void invalidateKey(MessageType mt, String peer) throws RemoteException {
+        handler.apply(mt);
     }
 
     public void exit(String peer) throws RemoteException {
-        store.removePeer(peer);
-        agreeable.getPeers().remove(peer);
-        agreeable.recomputeMajority();
+        handler.apply(new MessageType.Exit(peer));
     }
 
     @Override
@@ -77,11 +104,13 @@ public class RMIServer extends UnicastRemoteObject implements ServerInterface {
             return false;
         }
 
-        return Objects.equals(store, ((RMIServer) obj).store) && Objects.equals(agreeable, ((RMIServer) obj).agreeable);
+        return Objects.equals(handler, ((RMIServer) obj).handler);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(store, agreeable);
+        return Objects.hash(handler);
     }
+
+    private static final NoDelaySocketFactory SOCKET_FACTORY = new NoDelaySocketFactory();
 }
@@ -15,9 +15,27 @@ public interface ServerInterface extends Remote {
 
     MessageType getAllData(String peer) throws RemoteException;
 
+    MessageType scan(MessageType mt, String peer) throws RemoteException;
+
+    MessageType ping(String peer) throws RemoteException;
+
+    MessageType getStats(String peer) throws RemoteException;
+
+    MessageType writeKey(MessageType mt, String peer) throws RemoteException;
+
+    MessageType replicateKey(MessageType mt, String peer) throws RemoteException;
+
+    MessageType join(String peer) throws RemoteException;
+
+    MessageType fetchDirectory(MessageType mt, String peer) throws RemoteException;
+
+    MessageType reconcile(MessageType mt, String peer) throws RemoteException;
+
     void deleteKey(MessageType mt, String peer) throws RemoteException;
 
     void commitKey(MessageType mt, String peer) throws RemoteException;
 
+    void invalidateKey(MessageType mt, String peer) throws RemoteException;
+
     void exit(String peer) throws RemoteException;
 }
@@ -0,0 +1,264 @@
+package com.github.aayushjn.keyvaluestore.net.tcp;
+
+import com.github.aayushjn.keyvaluestore.model.MessageType;
+import com.github.aayushjn.keyvaluestore.model.PayloadCompressor;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Fixed number of multiplexed connections to each peer
+ * <p>
+ * Callers check connections out round-robin. As every connection carries any number of concurrent requests, a
+ * checked-out connection is never handed back and may be shared with other callers. A connection found closed is
+ * reopened by the caller that finds it, unless the last attempt to reach the peer failed recently: attempts are spaced
+ * by an exponential backoff with jitter, so that an unreachable peer costs a failed connect at most once per backoff
+ * period.
+ * <p>
+ * Messages that must reach a peer in the order they were sent are written to its first connection only, see
+ * {@link #checkoutOrdered(String)}.
+ * <p>
+ * In the background, connections that have been idle for a while are probed with a {@link MessageType.Ping} and
+ * dropped if the peer does not answer in time, and closed connections are reopened, so that callers rarely have to
+ * connect themselves.
+ */
+public class ConnectionPool implements Closeable {
+    private final String selfAddr;
+    private final int size;
+    private final PayloadCompressor compressor;
+    private final ThreadFactory threadFactory;
+    private final Map<String, PeerConnections> pools;
+    private final ScheduledExecutorService maintainer;
+
+    /**
+     * @param size          number of connections to each peer
+     * @param threadFactory factory for the threads that read responses
+     */
+    public ConnectionPool(String selfAddr, int size, ThreadFactory threadFactory) {
+        this(selfAddr, size, PayloadCompressor.NONE, threadFactory);
+    }
+
+    /**
+     * @param size          number of connections to each peer
+     * @param compressor    compressor of the requests sent over the connections
+     * @param threadFactory factory for the threads that read responses
+     */
+    public ConnectionPool(String selfAddr, int size, PayloadCompressor compressor, ThreadFactory threadFactory) {
+        this.selfAddr = selfAddr;
+        this.size = size;
+        this.compressor = compressor;
+        this.threadFactory = threadFactory;
+        pools = new ConcurrentHashMap<>();
+        maintainer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "tcp-pool-maintainer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        maintainer.scheduleWithFixedDelay(
+            this::maintain,
+            PROBE_INTERVAL_MILLIS,
+            PROBE_INTERVAL_MILLIS,
+            TimeUnit.MILLISECONDS
+        );
+    }
+
+    /**
+     * Opens every connection to the given peers in the background
+     */
+    public void warmUp(List<String> peers) {
+        for (String peer : peers) {
+            PeerConnections connections = poolFor(peer);
+            maintainer.execute(() -> connections.fill());
+        }
+    }
+
+    /**
+     * @return an open connection to the peer
+     * @throws ConnectException if the peer could not be reached recently and is still in its backoff period
+     */
+    public MultiplexedConnection checkout(String peer) throws IOException {
+        return poolFor(peer).checkout();
+    }
+
+    /**
+     * @return the first connection to the peer, reopened if it is closed, which carries every message that has to
+     * arrive in order with the others sent through it
+     * @throws ConnectException if the peer could not be reached recently and is still in its backoff period
+     */
+    public MultiplexedConnection checkoutOrdered(String peer) throws IOException {
+        return poolFor(peer).checkoutOrdered();
+    }
+
+    /**
+     * Closes every connection to the peer and forgets about it
+     */
+    public void remove(String peer) {
+        PeerConnections connections = pools.remove(peer);
+        if (connections != null) connections.close();
+    }
+
+    private PeerConnections poolFor(String peer) {
+        return pools.computeIfAbsent(peer, PeerConnections::new);
+    }
+
+    private void maintain() {
+        for (PeerConnections connections : pools.values()) {
+            try {
+                connections.probe();
+                connections.fill();
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, e, e::getMessage);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        maintainer.shutdownNow();
+        for (PeerConnections connections : pools.values()) {
+            connections.close();
+        }
+        pools.clear();
+    }
+
+    /**
+     * Connections to a single peer along with the state of its reconnect backoff
+     */
+    private final class PeerConnections {
+        private final String peer;
+        private final AtomicReferenceArray<MultiplexedConnection> slots;
+        private final AtomicInteger next;
+        // a lock rather than a monitor, so that a virtual thread that connects while holding it does not pin its
+        // carrier thread
+        private final ReentrantLock reopenLock;
+        // guarded by reopenLock
+        private int failures;
+        private long retryAt;
+
+        private PeerConnections(String peer) {
+            this.peer = peer;
+            slots = new AtomicReferenceArray<>(size);
+            next = new AtomicInteger();
+            reopenLock = new ReentrantLock();
+        }
+
+        private MultiplexedConnection checkout() throws IOException {
+            int start = Math.floorMod(next.getAndIncrement(), size);
+            for (int i = 0; i < size; i++) {
+                MultiplexedConnection connection = slots.get((start + i) % size);
+                if (connection != null && !connection.isClosed()) return connection;
+            }
+            // every connection is down, so reopen the one this caller was handed
+            return reopen(start);
+        }
+
+        private MultiplexedConnection checkoutOrdered() throws IOException {
+            MultiplexedConnection connection = slots.get(0);
+            if (connection != null && !connection.isClosed()) return connection;
+            return reopen(0);
+        }
+
+        /**
+         * Reopens every closed connection, unless the peer is in its backoff period
+         */
+        private void fill() {
+            for (int i = 0; i < size; i++) {
+                MultiplexedConnection connection = slots.get(i);
+                if (connection != null && !connection.isClosed()) continue;
+                try {
+                    reopen(i);
+                } catch (IOException e) {
+                    logger.log(Level.FINE, e, e::getMessage);
+                    return;
+                }
+            }
+        }
+
+        private MultiplexedConnection reopen(int slot) throws IOException {
+            reopenLock.lock();
+            try {
+                return reopenLocked(slot);
+            } finally {
+                reopenLock.unlock();
+            }
+        }
+
+        private MultiplexedConnection reopenLocked(int slot) throws IOException {
+            MultiplexedConnection connection = slots.get(slot);
+            if (connection != null && !connection.isClosed()) return connection;
+            long now = System.nanoTime();
+            if (failures > 0 && now - retryAt < 0) {
+                throw new ConnectException(peer + " is unreachable, retrying in "
+                    + TimeUnit.NANOSECONDS.toMillis(retryAt - now) + " ms");
+            }
+            try {
+                connection = MultiplexedConnection.connect(peer, compressor, threadFactory);
+            } catch (IOException e) {
+                failures++;
+                long backoff = Math.min(MAX_BACKOFF_MILLIS, INITIAL_BACKOFF_MILLIS << Math.min(failures - 1, 16));
+                // jitter keeps the nodes of a cluster from retrying a restarted peer in lockstep
+                backoff = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+                retryAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backoff);
+                throw e;
+            }
+            failures = 0;
+            slots.set(slot, connection);
+            return connection;
+        }
+
+        /**
+         * Pings every connection that has been idle for a whole probe interval and closes those that do not answer
+         */
+        private void probe() {
+            for (int i = 0; i < size; i++) {
+                MultiplexedConnection connection = slots.get(i);
+                if (connection == null || connection.isClosed()) continue;
+                if (connection.getIdleNanos() < TimeUnit.MILLISECONDS.toNanos(PROBE_INTERVAL_MILLIS)) continue;
+                try {
+                    connection.request(new MessageType.Ping(selfAddr)).get(PROBE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (Exception e) {
+                    logger.fine(() -> "closing unresponsive connection to " + peer);
+                    closeQuietly(connection);
+                }
+            }
+        }
+
+        private void close() {
+            for (int i = 0; i < size; i++) {
+                MultiplexedConnection connection = slots.get(i);
+                if (connection != null) closeQuietly(connection);
+            }
+        }
+    }
+
+    private static void closeQuietly(MultiplexedConnection connection) {
+        try {
+            connection.close();
+        } catch (IOException ignored) {
+            // connection is unusable either way
+        }
+    }
+
+    private static final long PROBE_INTERVAL_MILLIS = 5000;
+    private static final long PROBE_TIMEOUT_MILLIS = 2000;
+    private static final long INITIAL_BACKOFF_MILLIS = 50;
+    private static final long MAX_BACKOFF_MILLIS = 5000;
+    private static final Logger logger = Logger.getLogger(ConnectionPool.class.getName());
+}
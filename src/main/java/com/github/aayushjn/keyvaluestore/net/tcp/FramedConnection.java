@@ -0,0 +1,133 @@
+package com.github.aayushjn.keyvaluestore.net.tcp;
+
+import com.github.aayushjn.keyvaluestore.model.MessageCodec;
+import com.github.aayushjn.keyvaluestore.model.MessageType;
+import com.github.aayushjn.keyvaluestore.model.PayloadCompressor;
+import com.github.aayushjn.keyvaluestore.net.Messenger;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Blocking socket that exchanges length-prefixed binary frames. Frames are encoded into and decoded from buffers that
+ * are reused for the lifetime of the connection.
+ * <p>
+ * Every frame carries a correlation ID after its length. A response echoes the ID of its request, while messages that
+ * expect no response use {@link #NO_RESPONSE}.
+ * <p>
+ * Messages are compressed by a {@link PayloadCompressor} once the peer has sent a frame that accepts compression, whose
+ * flags are carried in the length of every frame.
+ * <p>
+ * Reads and writes are each serialized by a lock rather than a monitor, as a virtual thread that blocks on the socket
+ * while holding a monitor pins its carrier thread, which can starve every other virtual thread.
+ */
+public class FramedConnection implements Closeable {
+    private final Socket socket;
+    private final DataInputStream in;
+    private final OutputStream out;
+    private final ReentrantLock readLock;
+    private final ReentrantLock writeLock;
+    private final PayloadCompressor compressor;
+    private volatile boolean peerAccepts;
+    private ByteBuffer writeBuffer;
+    private ByteBuffer readBuffer;
+
+    public FramedConnection(Socket socket) throws IOException {
+        this(socket, PayloadCompressor.NONE);
+    }
+
+    public FramedConnection(Socket socket, PayloadCompressor compressor) throws IOException {
+        this.socket = socket;
+        this.compressor = compressor;
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        out = new BufferedOutputStream(socket.getOutputStream());
+        readLock = new ReentrantLock();
+        writeLock = new ReentrantLock();
+        writeBuffer = ByteBuffer.allocate(MessageCodec.DEFAULT_BUFFER_SIZE);
+        readBuffer = ByteBuffer.allocate(MessageCodec.DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Opens a new connection to the peer
+     * @param peer       address in the form `host:port`
+     * @param compressor compressor of the messages sent over the connection
+     */
+    public static FramedConnection connect(String peer, PayloadCompressor compressor) throws IOException {
+        String[] split = peer.split(":");
+        Socket socket = new Socket(Proxy.NO_PROXY);
+        socket.setTcpNoDelay(true);
+        socket.connect(new InetSocketAddress(split[0], Integer.parseInt(split[1])), Messenger.CONNECT_TIMEOUT_MILLIS);
+        return new FramedConnection(socket, compressor);
+    }
+
+    public void write(int id, MessageType mt) throws IOException {
+        writeLock.lock();
+        try {
+            int size = MessageCodec.sizeOf(mt);
+            writeBuffer.clear();
+            writeBuffer = MessageCodec.ensureRemaining(writeBuffer, FRAME_HEADER_SIZE + size);
+            writeBuffer.position(FRAME_HEADER_SIZE);
+            int flags = compressor.encode(mt, size, writeBuffer, peerAccepts);
+            writeBuffer.putInt(0, (writeBuffer.position() - Integer.BYTES) | flags);
+            writeBuffer.putInt(Integer.BYTES, id);
+            out.write(writeBuffer.array(), 0, writeBuffer.position());
+            out.flush();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Blocks until the next frame arrives
+     * @return decoded frame, or null if the peer closed the connection
+     */
+    public Frame read() throws IOException {
+        readLock.lock();
+        try {
+            int header;
+            try {
+                header = in.readInt();
+            } catch (EOFException e) {
+                return null;
+            }
+            int flags = header & PayloadCompressor.FLAGS;
+            int length = header & ~PayloadCompressor.FLAGS;
+            if (length < Integer.BYTES || length > MessageCodec.MAX_FRAME_SIZE) {
+                throw new IOException("invalid frame length " + length);
+            }
+            int id = in.readInt();
+            length -= Integer.BYTES;
+            if (readBuffer.capacity() < length) {
+                readBuffer = ByteBuffer.allocate(Math.max(length, readBuffer.capacity() * 2));
+            }
+            in.readFully(readBuffer.array(), 0, length);
+            readBuffer.clear().limit(length);
+            if ((flags & PayloadCompressor.ACCEPTS) != 0) peerAccepts = true;
+            try {
+                return new Frame(id, compressor.decode(readBuffer, flags));
+            } catch (IllegalArgumentException e) {
+                throw new IOException("malformed frame", e);
+            }
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    public boolean isClosed() {
+        return socket.isClosed();
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    public record Frame(int id, MessageType message) {}
+
+    public static final int NO_RESPONSE = 0;
+    private static final int FRAME_HEADER_SIZE = Integer.BYTES + Integer.BYTES;
+}
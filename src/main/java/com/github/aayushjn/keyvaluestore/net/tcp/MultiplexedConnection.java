@@ -0,0 +1,144 @@
+package com.github.aayushjn.keyvaluestore.net.tcp;
+
+import com.github.aayushjn.keyvaluestore.model.MessageType;
+import com.github.aayushjn.keyvaluestore.model.PayloadCompressor;
+import com.github.aayushjn.keyvaluestore.net.Messenger;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Client side of a peer connection that allows any number of requests to be in flight at once. Each request is tagged
+ * with a correlation ID and a dedicated reader completes the matching future when its response arrives, in whichever
+ * order the peer sends them.
+ */
+public class MultiplexedConnection implements Closeable {
+    private final FramedConnection connection;
+    private final Map<Integer, CompletableFuture<MessageType>> pending;
+    private final AtomicInteger nextId;
+    private volatile boolean closed;
+    private volatile long lastActive;
+
+    public MultiplexedConnection(FramedConnection connection, ThreadFactory threadFactory) {
+        this.connection = connection;
+        pending = new ConcurrentHashMap<>();
+        nextId = new AtomicInteger(FramedConnection.NO_RESPONSE);
+        closed = false;
+        lastActive = System.nanoTime();
+        threadFactory.newThread(this::readResponses).start();
+    }
+
+    /**
+     * Opens a new connection to the peer
+     * @param peer          address in the form `host:port`
+     * @param compressor    compressor of the requests sent over the connection
+     * @param threadFactory factory for the thread that reads responses
+     */
+    public static MultiplexedConnection connect(
+        String peer,
+        PayloadCompressor compressor,
+        ThreadFactory threadFactory
+    ) throws IOException {
+        return new MultiplexedConnection(FramedConnection.connect(peer, compressor), threadFactory);
+    }
+
+    /**
+     * Sends a request without waiting for its response
+     * @return future that completes with the response, or exceptionally if the connection fails first or no response
+     * arrives within {@link Messenger#RESPONSE_TIMEOUT_MILLIS}
+     */
+    public CompletableFuture<MessageType> request(MessageType mt) {
+        return request(mt, Messenger.RESPONSE_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Sends a request without waiting for its response
+     * @param timeoutMillis time after which the request fails if no response has arrived
+     * @return future that completes with the response, or exceptionally if the connection fails first or no response
+     * arrives in time
+     */
+    public CompletableFuture<MessageType> request(MessageType mt, long timeoutMillis) {
+        int id = nextId.incrementAndGet();
+        if (id == FramedConnection.NO_RESPONSE) id = nextId.incrementAndGet();
+
+        CompletableFuture<MessageType> future = new CompletableFuture<>();
+        lastActive = System.nanoTime();
+        pending.put(id, future);
+        int requestId = id;
+        // a response that arrives after the timeout finds no pending request and is dropped
+        future.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS)
+            .whenComplete((resp, e) -> pending.remove(requestId, future));
+        // the reader marks the connection closed before failing pending requests, so a request registered after
+        // that point has to fail itself
+        if (closed) {
+            pending.remove(id);
+            future.completeExceptionally(new EOFException("connection closed"));
+            return future;
+        }
+        try {
+            connection.write(id, mt);
+        } catch (IOException e) {
+            pending.remove(id);
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Sends a message that expects no response
+     */
+    public void send(MessageType mt) throws IOException {
+        lastActive = System.nanoTime();
+        connection.write(FramedConnection.NO_RESPONSE, mt);
+    }
+
+    private void readResponses() {
+        IOException cause = new EOFException("connection closed");
+        try {
+            FramedConnection.Frame frame;
+            while ((frame = connection.read()) != null) {
+                lastActive = System.nanoTime();
+                CompletableFuture<MessageType> future = pending.remove(frame.id());
+                if (future != null) {
+                    future.complete(frame.message());
+                }
+            }
+        } catch (IOException e) {
+            cause = e;
+        } finally {
+            closed = true;
+            for (Integer id : pending.keySet()) {
+                CompletableFuture<MessageType> future = pending.remove(id);
+                if (future != null) future.completeExceptionally(cause);
+            }
+            try {
+                connection.close();
+            } catch (IOException ignored) {
+                // connection is unusable either way
+            }
+        }
+    }
+
+    /**
+     * @return time since a message was last sent or received on the connection
+     */
+    public long getIdleNanos() {
+        return System.nanoTime() - lastActive;
+    }
+
+    public boolean isClosed() {
+        return closed || connection.isClosed();
+    }
+
+    @Override
+    public void close() throws IOException {
+        connection.close();
+    }
+}
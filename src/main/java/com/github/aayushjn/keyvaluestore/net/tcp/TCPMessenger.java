@@ -1,75 +1,124 @@
 package com.github.aayushjn.keyvaluestore.net.tcp;
 
 import com.github.aayushjn.keyvaluestore.model.MessageType;
-import com.github.aayushjn.keyvaluestore.net.Messenger;
+import com.github.aayushjn.keyvaluestore.net.AsyncMessenger;
 
-import java.io.*;
-import java.net.InetSocketAddress;
-import java.net.Proxy;
-import java.net.Socket;
-import java.net.SocketAddress;
-import java.util.Map;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
 
-public class TCPMessenger implements Messenger {
+/**
+ * Messenger over multiplexed TCP connections. A request only takes the time to write it; its future is completed by
+ * the reader of the connection when the response arrives.
+ */
+public class TCPMessenger implements AsyncMessenger {
     private final String selfAddr;
-    private final Map<String, Socket> socketMap;
+    private final ConnectionPool pool;
 
-    public TCPMessenger(String selfAddr, Map<String, Socket> socketMap) {
+    public TCPMessenger(String selfAddr, ConnectionPool pool) {
         this.selfAddr = selfAddr;
-        this.socketMap = socketMap;
+        this.pool = pool;
     }
 
     @Override
-    public MessageType getValueForKey(MessageType mt, String peer) throws IOException {
-        sendMessage(mt, peer);
-        return readData(peer);
+    public CompletableFuture<MessageType> getValueForKeyAsync(MessageType mt, String peer) {
+        return request(mt, peer);
     }
 
     @Override
-    public MessageType requestAcknowledgement(MessageType mt, String peer) throws IOException {
-        sendMessage(mt, peer);
-        return readData(peer);
+    public CompletableFuture<MessageType> requestAcknowledgementAsync(MessageType mt, String peer) {
+        return request(mt, peer);
     }
 
     @Override
-    public MessageType getAllData(String peer) throws IOException {
-        sendMessage(new MessageType.Store(), peer);
-        return readData(peer);
+    public CompletableFuture<MessageType> getAllDataAsync(String peer) {
+        return request(new MessageType.Store(), peer);
     }
 
     @Override
-    public void deleteKey(MessageType mt, String peer) throws IOException {
-        sendMessage(mt, peer);
+    public CompletableFuture<MessageType> scanAsync(MessageType mt, String peer) {
+        return request(mt, peer);
     }
 
     @Override
-    public void commitKey(MessageType mt, String peer) throws IOException {
+    public CompletableFuture<MessageType> pingAsync(String peer) {
+        return request(new MessageType.Ping(selfAddr), peer);
+    }
+
+    @Override
+    public CompletableFuture<MessageType> getStatsAsync(String peer) {
+        return request(new MessageType.Stats(), peer);
+    }
+
+    @Override
+    public CompletableFuture<MessageType> writeKeyAsync(MessageType mt, String peer) {
+        return request(mt, peer);
+    }
+
+    @Override
+    public CompletableFuture<MessageType> replicateKeyAsync(MessageType mt, String peer) {
+        mt.setPeer(selfAddr);
+        return request(mt, peer);
+    }
+
+    @Override
+    public CompletableFuture<MessageType> joinAsync(String peer) {
+        return request(new MessageType.Join(selfAddr), peer);
+    }
+
+    @Override
+    public CompletableFuture<MessageType> fetchDirectoryAsync(MessageType mt, String peer) {
         mt.setPeer(selfAddr);
-        sendMessage(mt, peer);
+        return request(mt, peer);
+    }
+
+    @Override
+    public CompletableFuture<MessageType> reconcileAsync(MessageType mt, String peer) {
+        return request(mt, peer);
     }
 
     @Override
-    public void exit(String peer) throws IOException {
+    public CompletableFuture<Void> deleteKeyAsync(MessageType mt, String peer) {
+        return send(mt, peer);
+    }
+
+    @Override
+    public CompletableFuture<Void> invalidateKeyAsync(MessageType mt, String peer) {
+        return send(mt, peer);
+    }
+
+    @Override
+    public CompletableFuture<Void> commitKeyAsync(MessageType mt, String peer) {
+        mt.setPeer(selfAddr);
+        return send(mt, peer);
+    }
+
+    @Override
+    public CompletableFuture<Void> exitAsync(String peer) {
         MessageType mt = new MessageType.Exit(selfAddr);
-        sendMessage(mt, peer);
+        CompletableFuture<Void> sent = send(mt, peer);
+        pool.remove(peer);
+        return sent;
     }
 
-    private void sendMessage(MessageType mt, String peer) throws IOException {
-        String[] split = peer.split(":");
-        Socket socket = socketMap.computeIfAbsent(peer, k -> new Socket(Proxy.NO_PROXY));
-        if (!socket.isConnected()) {
-            SocketAddress sockAddress = new InetSocketAddress(split[0], Integer.parseInt(split[1]));
-            socket.connect(sockAddress);
+    private CompletableFuture<MessageType> request(MessageType mt, String peer) {
+        try {
+            return pool.checkout(peer).request(mt);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
         }
-        BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
-        bw.write(mt.toString() + "\n");
-        bw.flush();
     }
 
-    private MessageType readData(String peer) throws IOException {
-        Socket socket = socketMap.get(peer);
-        BufferedReader br = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-        while (!br.ready());
-        return MessageType.parseString(br.readLine());
+    /**
+     * Writes a message that expects no response, which is done by the time this returns
+     * <p>
+     * All such messages go over the same connection, so the peer applies them in the order they were sent.
+     */
+    private CompletableFuture<Void> send(MessageType mt, String peer) {
+        try {
+            pool.checkoutOrdered(peer).send(mt);
+            return CompletableFuture.completedFuture(null);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
     }
 }
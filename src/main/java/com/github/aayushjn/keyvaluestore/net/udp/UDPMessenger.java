@@ -1,73 +1,239 @@
 package com.github.aayushjn.keyvaluestore.net.udp;
 
+import com.github.aayushjn.keyvaluestore.model.MessageCodec;
 import com.github.aayushjn.keyvaluestore.model.MessageType;
-import com.github.aayushjn.keyvaluestore.net.Messenger;
+import com.github.aayushjn.keyvaluestore.model.PayloadCompressor;
+import com.github.aayushjn.keyvaluestore.net.AsyncMessenger;
+import com.github.aayushjn.keyvaluestore.util.BufferPool;
 
+import java.io.Closeable;
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
-import static com.github.aayushjn.keyvaluestore.model.MessageType.DataAll.DATA_LIMIT;
-
-public class UDPMessenger implements Messenger {
-    private final DatagramSocket socket;
+/**
+ * Messenger over UDP that allows any number of requests to be in flight at once, to any number of peers. Every
+ * datagram starts with a correlation ID, which the peer echoes in its response, and a dedicated reader completes the
+ * matching future when the response arrives. A peer that does not answer fails its own requests once they time out,
+ * without holding up requests to anyone else.
+ * <p>
+ * The high bits of the correlation ID carry the flags of a {@link PayloadCompressor}. Requests to a peer are compressed
+ * once a response from it has accepted compression, and regardless if they would not fit a datagram otherwise.
+ */
+public class UDPMessenger implements AsyncMessenger, Closeable {
     private final String selfAddr;
+    private final DatagramChannel channel;
+    private final PayloadCompressor compressor;
+    private final Map<String, InetSocketAddress> addresses;
+    /**
+     * Addresses of the peers whose responses accepted compression
+     */
+    private final Set<SocketAddress> acceptingPeers;
+    private final Map<Integer, CompletableFuture<MessageType>> pending;
+    private final AtomicInteger nextId;
+    private final BufferPool sendBuffers;
 
-    public UDPMessenger(String selfAddr, DatagramSocket socket) {
-        this.socket = socket;
+    /**
+     * @param compressor    compressor of the requests sent to peers
+     * @param threadFactory factory for the thread that reads responses
+     */
+    public UDPMessenger(String selfAddr, PayloadCompressor compressor, ThreadFactory threadFactory) throws IOException {
         this.selfAddr = selfAddr;
+        this.compressor = compressor;
+        channel = DatagramChannel.open();
+        channel.bind(null);
+        addresses = new ConcurrentHashMap<>();
+        acceptingPeers = ConcurrentHashMap.newKeySet();
+        pending = new ConcurrentHashMap<>();
+        nextId = new AtomicInteger(NO_RESPONSE);
+        sendBuffers = new BufferPool(MAX_DATAGRAM_SIZE, SEND_BUFFER_POOL_SIZE);
+        threadFactory.newThread(this::readResponses).start();
+    }
+
+    @Override
+    public CompletableFuture<MessageType> getValueForKeyAsync(MessageType mt, String peer) {
+        return request(mt, peer);
+    }
+
+    @Override
+    public CompletableFuture<MessageType> requestAcknowledgementAsync(MessageType mt, String peer) {
+        return request(mt, peer);
+    }
+
+    @Override
+    public CompletableFuture<MessageType> getAllDataAsync(String peer) {
+        return request(new MessageType.Store(), peer);
     }
 
     @Override
-    public MessageType getValueForKey(MessageType mt, String peer) throws IOException {
-        sendMessage(mt, peer);
-        return readData();
+    public CompletableFuture<MessageType> scanAsync(MessageType mt, String peer) {
+        return request(mt, peer);
     }
 
     @Override
-    public MessageType requestAcknowledgement(MessageType mt, String peer) throws IOException {
-        sendMessage(mt, peer);
-        return readData();
+    public CompletableFuture<MessageType> pingAsync(String peer) {
+        return request(new MessageType.Ping(selfAddr), peer);
     }
 
     @Override
-    public MessageType getAllData(String peer) throws IOException {
-        sendMessage(new MessageType.Store(), peer);
-        return readData();
+    public CompletableFuture<MessageType> getStatsAsync(String peer) {
+        return request(new MessageType.Stats(), peer);
     }
 
     @Override
-    public void deleteKey(MessageType mt, String peer) throws IOException {
-        sendMessage(mt, peer);
+    public CompletableFuture<MessageType> writeKeyAsync(MessageType mt, String peer) {
+        return request(mt, peer);
     }
 
     @Override
-    public void commitKey(MessageType mt, String peer) throws IOException {
+    public CompletableFuture<MessageType> replicateKeyAsync(MessageType mt, String peer) {
         mt.setPeer(selfAddr);
-        sendMessage(mt, peer);
+        return request(mt, peer);
     }
 
     @Override
-    public void exit(String peer) throws IOException {
-        MessageType mt = new MessageType.Exit(selfAddr);
-        sendMessage(mt, peer);
+    public CompletableFuture<MessageType> joinAsync(String peer) {
+        return request(new MessageType.Join(selfAddr), peer);
     }
 
-    private void sendMessage(MessageType mt, String peer) throws IOException {
-        String[] split = peer.split(":");
-        byte[] buf = mt.toString().getBytes();
-        InetAddress remoteAddress = InetAddress.getByName(split[0]);
-        int remotePort = Integer.parseInt(split[1]);
+    @Override
+    public CompletableFuture<MessageType> fetchDirectoryAsync(MessageType mt, String peer) {
+        mt.setPeer(selfAddr);
+        return request(mt, peer);
+    }
+
+    @Override
+    public CompletableFuture<MessageType> reconcileAsync(MessageType mt, String peer) {
+        return request(mt, peer);
+    }
 
-        DatagramPacket packet = new DatagramPacket(buf, buf.length, remoteAddress, remotePort);
-        socket.send(packet);
+    @Override
+    public CompletableFuture<Void> deleteKeyAsync(MessageType mt, String peer) {
+        return send(mt, peer);
     }
 
-    private MessageType readData() throws IOException {
-        byte[] buf = new byte[DATA_LIMIT];
-        DatagramPacket packet = new DatagramPacket(buf, buf.length);
-        socket.receive(packet);
-        return MessageType.parseString(new String(packet.getData(), 0, packet.getLength()));
+    @Override
+    public CompletableFuture<Void> invalidateKeyAsync(MessageType mt, String peer) {
+        return send(mt, peer);
     }
+
+    @Override
+    public CompletableFuture<Void> commitKeyAsync(MessageType mt, String peer) {
+        mt.setPeer(selfAddr);
+        return send(mt, peer);
+    }
+
+    @Override
+    public CompletableFuture<Void> exitAsync(String peer) {
+        return send(new MessageType.Exit(selfAddr), peer);
+    }
+
+    private CompletableFuture<MessageType> request(MessageType mt, String peer) {
+        int id = nextId.incrementAndGet() & ID_MASK;
+        if (id == NO_RESPONSE) id = nextId.incrementAndGet() & ID_MASK;
+
+        CompletableFuture<MessageType> future = new CompletableFuture<>();
+        pending.put(id, future);
+        int requestId = id;
+        // a response that arrives after the timeout finds no pending request and is dropped
+        future.orTimeout(RESPONSE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+            .whenComplete((resp, e) -> pending.remove(requestId, future));
+        try {
+            write(id, mt, peer);
+        } catch (IOException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private CompletableFuture<Void> send(MessageType mt, String peer) {
+        try {
+            write(NO_RESPONSE, mt, peer);
+            return CompletableFuture.completedFuture(null);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private void write(int id, MessageType mt, String peer) throws IOException {
+        InetSocketAddress remoteAddress = addresses.computeIfAbsent(peer, k -> {
+            String[] split = k.split(":");
+            return new InetSocketAddress(split[0], Integer.parseInt(split[1]));
+        });
+
+        ByteBuffer buf = sendBuffers.acquire();
+        try {
+            buf.limit(MAX_PAYLOAD_SIZE).position(Integer.BYTES);
+            int flags = compressor.encode(mt, MessageCodec.sizeOf(mt), buf, acceptingPeers.contains(remoteAddress));
+            buf.putInt(0, id | flags);
+            buf.flip();
+            channel.send(buf, remoteAddress);
+        } catch (BufferOverflowException e) {
+            throw new IOException("message too large for a datagram", e);
+        } finally {
+            sendBuffers.release(buf);
+        }
+    }
+
+    private void readResponses() {
+        ByteBuffer buf = ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE);
+        while (channel.isOpen()) {
+            try {
+                buf.clear();
+                SocketAddress remoteAddress = channel.receive(buf);
+                buf.flip();
+                int header = buf.getInt();
+                int flags = header & PayloadCompressor.FLAGS;
+                if ((flags & PayloadCompressor.ACCEPTS) != 0) acceptingPeers.add(remoteAddress);
+                CompletableFuture<MessageType> future = pending.remove(header & ID_MASK);
+                if (future != null) future.complete(compressor.decode(buf, flags));
+            } catch (ClosedChannelException e) {
+                // the messenger is closed
+                return;
+            } catch (IOException | RuntimeException e) {
+                logger.log(Level.WARNING, e, () -> "dropping malformed response: " + e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+        for (Integer id : pending.keySet()) {
+            CompletableFuture<MessageType> future = pending.remove(id);
+            if (future != null) future.completeExceptionally(new ClosedChannelException());
+        }
+    }
+
+    /**
+     * Largest possible UDP payload is slightly under 64 KiB, so every datagram fits in a buffer of this size
+     */
+    public static final int MAX_DATAGRAM_SIZE = 64 * 1024;
+    /**
+     * Largest payload of a UDP datagram over IPv4
+     */
+    public static final int MAX_PAYLOAD_SIZE = 65507;
+    /**
+     * Correlation ID of a datagram that expects no response
+     */
+    public static final int NO_RESPONSE = 0;
+    /**
+     * Bits of the correlation ID that are not taken by the flags of the compressor
+     */
+    public static final int ID_MASK = ~PayloadCompressor.FLAGS;
+    private static final int SEND_BUFFER_POOL_SIZE = 16;
+    private static final Logger logger = Logger.getLogger(UDPMessenger.class.getName());
 }
@@ -0,0 +1,227 @@
+package com.github.aayushjn.keyvaluestore.storage;
+
+import com.github.aayushjn.keyvaluestore.model.MessageCodec;
+import com.github.aayushjn.keyvaluestore.model.MessageType;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Point-in-time copy of the ownership directory of a node, taken for a node that joins the cluster, which fetches it
+ * block by block
+ * <p>
+ * The directory is written to a temporary file in the background, as a header followed by a sequence of blocks that
+ * each hold the keys of a single owner: a 4-byte length, the owner, and as many keys as fit in the block. Blocks are
+ * served as soon as they have been written, so the joining node receives the directory while it is still being taken.
+ * Each block is decoded on its own, so the joining node never has to buffer more than one.
+ */
+public final class DirectorySnapshot implements Closeable {
+    private final Path file;
+    private final FileChannel channel;
+    private final int maxBlockBytes;
+    private long written;
+    private boolean complete;
+    private IOException failure;
+    private volatile long lastRead;
+
+    private DirectorySnapshot(Path file, int maxBlockBytes) throws IOException {
+        this.file = file;
+        this.maxBlockBytes = maxBlockBytes;
+        channel = FileChannel.open(
+            file,
+            StandardOpenOption.READ,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.DELETE_ON_CLOSE
+        );
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION).flip();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        written = HEADER_SIZE;
+        lastRead = System.nanoTime();
+    }
+
+    /**
+     * Starts taking a snapshot of everything the source hands to its consumer, as (owner, key) pairs that are grouped
+     * by owner
+     * @param maxBlockBytes upper bound on the size of a block, which is exceeded only by a single key that is larger
+     */
+    public static DirectorySnapshot take(
+        Consumer<BiConsumer<String, String>> source,
+        int maxBlockBytes,
+        Executor executor
+    ) throws IOException {
+        DirectorySnapshot snapshot = new DirectorySnapshot(Files.createTempFile("directory", ".snap"), maxBlockBytes);
+        executor.execute(() -> snapshot.write(source));
+        return snapshot;
+    }
+
+    private void write(Consumer<BiConsumer<String, String>> source) {
+        BlockWriter writer = new BlockWriter();
+        try {
+            source.accept(writer::add);
+            writer.flush();
+            finish(null);
+        } catch (UncheckedIOException e) {
+            finish(e.getCause());
+        } catch (IOException e) {
+            finish(e);
+        }
+    }
+
+    private synchronized void finish(IOException failure) {
+        this.failure = failure;
+        complete = true;
+        notifyAll();
+    }
+
+    private synchronized void advance(long written) {
+        this.written = written;
+        notifyAll();
+    }
+
+    /**
+     * @return offset of the first block
+     */
+    public long firstBlock() {
+        return HEADER_SIZE;
+    }
+
+    /**
+     * Reads the block that starts at the offset, waiting for it to be written for at most the given time
+     * @return chunk holding the block, an empty chunk that points back at the offset if the block has not been written
+     * in time, or an empty last chunk if the snapshot ends at the offset
+     * @throws IOException if the snapshot could not be taken or read
+     */
+    public MessageType.Chunk read(long offset, long waitMillis) throws IOException {
+        lastRead = System.nanoTime();
+        long deadline = System.currentTimeMillis() + waitMillis;
+        synchronized (this) {
+            while (offset >= written && !complete) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) return new MessageType.Chunk(new byte[0], offset);
+                try {
+                    wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("interrupted while awaiting directory block");
+                }
+            }
+            if (failure != null) throw new IOException("directory snapshot failed", failure);
+            if (offset >= written) return new MessageType.Chunk(new byte[0], MessageType.Chunk.END_OF_DIRECTORY);
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(Integer.BYTES);
+        readFully(header, offset);
+        int length = header.getInt(0);
+        ByteBuffer block = ByteBuffer.allocate(length);
+        readFully(block, offset + Integer.BYTES);
+        return new MessageType.Chunk(block.array(), offset + Integer.BYTES + length);
+    }
+
+    private void readFully(ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            int read = channel.read(buf, position + buf.position());
+            if (read < 0) throw new IOException("directory snapshot is truncated: " + file);
+        }
+    }
+
+    /**
+     * Decodes a block read from a snapshot
+     * @throws IllegalArgumentException if the block is malformed
+     */
+    public static Block decode(byte[] block) throws IllegalArgumentException {
+        ByteBuffer buf = ByteBuffer.wrap(block);
+        String owner = MessageCodec.getString(buf);
+        List<String> keys = new ArrayList<>();
+        while (buf.hasRemaining()) {
+            keys.add(MessageCodec.getString(buf));
+        }
+        return new Block(owner, keys);
+    }
+
+    /**
+     * @return time since a block was last requested, or since the snapshot was taken if none has been
+     */
+    public long getIdleNanos() {
+        return System.nanoTime() - lastRead;
+    }
+
+    @Override
+    public void close() throws IOException {
+        // stops the writer as well, which fails on the closed channel
+        channel.close();
+    }
+
+    /**
+     * Keys of a single owner, as held by one block of a snapshot
+     */
+    public record Block(String owner, List<String> keys) {
+    }
+
+    /**
+     * Packs the pairs it is handed into blocks, writing out a block whenever it is full or the owner changes
+     */
+    private final class BlockWriter {
+        private ByteBuffer buf;
+        private String owner;
+        private long position;
+
+        private BlockWriter() {
+            buf = ByteBuffer.allocate(Integer.BYTES + maxBlockBytes);
+            position = HEADER_SIZE;
+        }
+
+        private void add(String owner, String key) {
+            try {
+                int size = MessageCodec.sizeOfString(key);
+                if (!owner.equals(this.owner) || (buf.position() - Integer.BYTES) + size > maxBlockBytes) {
+                    flush();
+                    this.owner = owner;
+                    buf.clear();
+                    buf.position(Integer.BYTES);
+                    buf = MessageCodec.ensureRemaining(buf, MessageCodec.sizeOfString(owner) + size);
+                    MessageCodec.putString(buf, owner);
+                } else {
+                    buf = MessageCodec.ensureRemaining(buf, size);
+                }
+                MessageCodec.putString(buf, key);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void flush() throws IOException {
+            if (owner == null) return;
+            if (!channel.isOpen()) throw new ClosedChannelException();
+            buf.putInt(0, buf.position() - Integer.BYTES);
+            buf.flip();
+            while (buf.hasRemaining()) {
+                position += channel.write(buf, position);
+            }
+            owner = null;
+            advance(position);
+        }
+    }
+
+    private static final int MAGIC = 0x4b564453;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 2 * Integer.BYTES;
+}
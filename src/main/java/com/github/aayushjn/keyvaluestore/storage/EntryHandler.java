@@ -0,0 +1,10 @@
+package com.github.aayushjn.keyvaluestore.storage;
+
+/**
+ * Receiver of the entries of a store, each as a put of a local value or of the peer that owns a key
+ */
+public interface EntryHandler {
+    void put(String key, Object value);
+
+    void putPeer(String key, String peer);
+}
@@ -0,0 +1,19 @@
+package com.github.aayushjn.keyvaluestore.storage;
+
+/**
+ * Controls when appended log records are forced to disk
+ */
+public enum FsyncPolicy {
+    /**
+     * Every mutation waits until its record has been forced. Concurrent mutations share a single fsync.
+     */
+    ALWAYS,
+    /**
+     * The log is forced in the background at a fixed interval, so a crash may lose the mutations of the last interval
+     */
+    INTERVAL,
+    /**
+     * The log is written in the background but never forced, leaving durability to the operating system
+     */
+    NEVER
+}
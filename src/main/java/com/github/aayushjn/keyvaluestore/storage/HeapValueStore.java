@@ -0,0 +1,26 @@
+package com.github.aayushjn.keyvaluestore.storage;
+
+/**
+ * Keeps every value as an object on the heap, which is its own reference
+ */
+public class HeapValueStore implements ValueStore {
+    @Override
+    public Object store(Object value) {
+        return value;
+    }
+
+    @Override
+    public Object load(Object ref) {
+        return ref;
+    }
+
+    @Override
+    public void release(Object ref) {
+        // the garbage collector reclaims values that are no longer referenced
+    }
+
+    @Override
+    public boolean reusesMemory() {
+        return false;
+    }
+}
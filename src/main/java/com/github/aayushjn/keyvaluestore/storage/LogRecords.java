@@ -0,0 +1,131 @@
+package com.github.aayushjn.keyvaluestore.storage;
+
+import com.github.aayushjn.keyvaluestore.model.MessageCodec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32C;
+
+/**
+ * Record format shared by the write-ahead log and snapshots
+ * <p>
+ * Each record is a 4-byte payload length and a 4-byte CRC-32C of the payload, followed by the payload itself: an
+ * opcode and the fields of the mutation, encoded as in {@link MessageCodec}. A record whose length or checksum does
+ * not match marks the end of the valid data, which is how a write torn by a crash is detected.
+ */
+final class LogRecords {
+    private LogRecords() {
+    }
+
+    /**
+     * Appends a record to the buffer, growing it if required
+     * @param second value of a put, peer of a peer put, and ignored otherwise
+     * @return the buffer holding the record, which may be a new one
+     */
+    static ByteBuffer write(ByteBuffer buf, byte op, String first, Object second) {
+        int size = 1;
+        if (first != null) size += MessageCodec.sizeOfString(first);
+        if (op == PUT) size += MessageCodec.sizeOfValue(second);
+        if (op == PUT_PEER) size += MessageCodec.sizeOfString((String) second);
+
+        buf = MessageCodec.ensureRemaining(buf, HEADER_SIZE + size);
+        int start = buf.position();
+        buf.position(start + HEADER_SIZE);
+        buf.put(op);
+        if (first != null) MessageCodec.putString(buf, first);
+        if (op == PUT) MessageCodec.putValue(buf, second);
+        if (op == PUT_PEER) MessageCodec.putString(buf, (String) second);
+
+        CRC32C crc = new CRC32C();
+        crc.update(buf.slice(start + HEADER_SIZE, size));
+        buf.putInt(start, size);
+        buf.putInt(start + Integer.BYTES, (int) crc.getValue());
+        return buf;
+    }
+
+    /**
+     * Reads the record at the buffer's position and hands its mutation to the handler
+     * @return opcode of the record, or {@link #INCOMPLETE} or {@link #CORRUPT} with the position left unchanged
+     */
+    static int read(ByteBuffer buf, MutationHandler handler) {
+        int start = buf.position();
+        if (buf.remaining() < HEADER_SIZE) return INCOMPLETE;
+        int size = buf.getInt(start);
+        if (size <= 0 || size > MAX_RECORD_SIZE) return CORRUPT;
+        if (buf.remaining() < HEADER_SIZE + size) return INCOMPLETE;
+
+        CRC32C crc = new CRC32C();
+        crc.update(buf.slice(start + HEADER_SIZE, size));
+        if ((int) crc.getValue() != buf.getInt(start + Integer.BYTES)) return CORRUPT;
+
+        buf.position(start + HEADER_SIZE);
+        byte op = buf.get();
+        try {
+            switch (op) {
+                case PUT -> handler.put(MessageCodec.getString(buf), MessageCodec.getValue(buf));
+                case DELETE -> handler.delete(MessageCodec.getString(buf));
+                case PUT_PEER -> handler.putPeer(MessageCodec.getString(buf), MessageCodec.getString(buf));
+                case REMOVE_PEER_FOR_KEY -> handler.removePeerForKey(MessageCodec.getString(buf));
+                case REMOVE_PEER -> handler.removePeer(MessageCodec.getString(buf));
+                case END -> {
+                }
+                default -> {
+                    buf.position(start);
+                    return CORRUPT;
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            buf.position(start);
+            return CORRUPT;
+        }
+        buf.position(start + HEADER_SIZE + size);
+        return op;
+    }
+
+    /**
+     * Replays the records of a file from the given offset through read-only memory mappings, so that even a large file
+     * is read without copying it onto the heap. Replay stops at the first end marker or invalid record.
+     */
+    static Replay replay(FileChannel channel, long offset, MutationHandler handler) throws IOException {
+        long fileSize = channel.size();
+        long position = offset;
+        while (position < fileSize) {
+            long length = Math.min(fileSize - position, MAX_MAPPING_SIZE);
+            MappedByteBuffer mapping = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            int op;
+            while ((op = read(mapping, handler)) > 0) {
+                if (op == END) return new Replay(position + mapping.position(), true);
+            }
+            boolean atEndOfFile = position + length == fileSize;
+            if (op == CORRUPT || atEndOfFile || mapping.position() == 0) {
+                return new Replay(position + mapping.position(), false);
+            }
+            // the next record straddles the end of this mapping, so map again starting from it
+            position += mapping.position();
+        }
+        return new Replay(position, false);
+    }
+
+    /**
+     * @param validLength offset just past the last valid record
+     * @param ended       whether an end marker was read
+     */
+    record Replay(long validLength, boolean ended) {
+    }
+
+    static final byte PUT = 1;
+    static final byte DELETE = 2;
+    static final byte PUT_PEER = 3;
+    static final byte REMOVE_PEER_FOR_KEY = 4;
+    static final byte REMOVE_PEER = 5;
+    static final byte END = 6;
+
+    static final int INCOMPLETE = -1;
+    static final int CORRUPT = 0;
+
+    static final int HEADER_SIZE = 2 * Integer.BYTES;
+    private static final int MAX_RECORD_SIZE = MessageCodec.MAX_FRAME_SIZE;
+    private static final long MAX_MAPPING_SIZE = 1L << 30;
+}
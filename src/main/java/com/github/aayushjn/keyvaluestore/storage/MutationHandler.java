@@ -0,0 +1,12 @@
+package com.github.aayushjn.keyvaluestore.storage;
+
+/**
+ * Receiver of the mutations read back from a snapshot or log, which besides entries include removals
+ */
+public interface MutationHandler extends EntryHandler {
+    void delete(String key);
+
+    void removePeerForKey(String key);
+
+    void removePeer(String peer);
+}
@@ -0,0 +1,202 @@
+package com.github.aayushjn.keyvaluestore.storage;
+
+import com.github.aayushjn.keyvaluestore.model.MessageCodec;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps values in direct memory, allocated by a slab allocator
+ * <p>
+ * Memory is reserved in slabs of {@link #SLAB_SIZE} bytes, each carved into equal slots of one power-of-two size
+ * class. A released slot goes onto the free list of its class and is handed out again before the class takes up a new
+ * slab. Values larger than the largest class get a slab of their own, which is dropped when they are released. Every
+ * slot holds a 4-byte length followed by the value encoded as in {@link MessageCodec}.
+ * <p>
+ * A reference is a handle object packing the slab index into its upper and the slot offset into its lower 32 bits. A
+ * new one is made for every stored value, so that a reference to a reused slot never equals one to its former value in
+ * the identity check readers make against their index.
+ */
+public class OffHeapValueStore implements ValueStore {
+    private final SizeClass[] sizeClasses;
+    // guarded by this; elements are published to readers through the index that holds their handles
+    private volatile Slab[] slabs;
+    private int slabCount;
+    private int[] freeSlabs;
+    private int freeSlabCount;
+    private final AtomicLong reservedBytes;
+    private final AtomicLong usedBytes;
+
+    public OffHeapValueStore() {
+        sizeClasses = new SizeClass[Integer.numberOfTrailingZeros(MAX_SLOT_SIZE / MIN_SLOT_SIZE) + 1];
+        for (int i = 0; i < sizeClasses.length; i++) {
+            sizeClasses[i] = new SizeClass(i, MIN_SLOT_SIZE << i);
+        }
+        slabs = new Slab[INITIAL_SLAB_CAPACITY];
+        freeSlabs = new int[INITIAL_SLAB_CAPACITY];
+        reservedBytes = new AtomicLong();
+        usedBytes = new AtomicLong();
+    }
+
+    @Override
+    public Object store(Object value) {
+        int length = MessageCodec.sizeOfValue(value);
+        int size = Integer.BYTES + length;
+        long handle = size > MAX_SLOT_SIZE ? allocateLarge(size) : sizeClasses[classOf(size)].allocate();
+        ByteBuffer slot = slabs[slabIndex(handle)].buffer.duplicate();
+        slot.position(offset(handle));
+        slot.putInt(length);
+        MessageCodec.putValue(slot, value);
+        usedBytes.addAndGet(size);
+        return new Handle(handle);
+    }
+
+    @Override
+    public Object load(Object ref) {
+        long handle = ((Handle) ref).value;
+        Slab slab = slabs[slabIndex(handle)];
+        if (slab == null) throw new IllegalStateException("value has been released");
+        ByteBuffer slot = slab.buffer.duplicate();
+        int offset = offset(handle);
+        int length = slot.getInt(offset);
+        if (length < 0 || length > slab.slotSize - Integer.BYTES) {
+            throw new IllegalStateException("value has been released");
+        }
+        slot.limit(offset + Integer.BYTES + length);
+        slot.position(offset + Integer.BYTES);
+        return MessageCodec.getValue(slot);
+    }
+
+    @Override
+    public void release(Object ref) {
+        long handle = ((Handle) ref).value;
+        int index = slabIndex(handle);
+        Slab slab = slabs[index];
+        usedBytes.addAndGet(-(Integer.BYTES + slab.buffer.getInt(offset(handle))));
+        if (slab.sizeClass < 0) {
+            releaseSlab(index);
+        } else {
+            sizeClasses[slab.sizeClass].release(handle);
+        }
+    }
+
+    @Override
+    public boolean reusesMemory() {
+        return true;
+    }
+
+    /**
+     * @return bytes of direct memory held in slabs
+     */
+    public long getReservedBytes() {
+        return reservedBytes.get();
+    }
+
+    /**
+     * @return bytes taken up by stored values and their length headers
+     */
+    public long getUsedBytes() {
+        return usedBytes.get();
+    }
+
+    private long allocateLarge(int size) {
+        return handle(addSlab(-1, size), 0);
+    }
+
+    private synchronized int addSlab(int sizeClass, int slotSize) {
+        int capacity = sizeClass < 0 ? slotSize : SLAB_SIZE;
+        Slab slab = new Slab(ByteBuffer.allocateDirect(capacity), sizeClass, slotSize);
+        int index;
+        if (freeSlabCount > 0) {
+            index = freeSlabs[--freeSlabCount];
+        } else {
+            if (slabCount == slabs.length) slabs = Arrays.copyOf(slabs, slabs.length * 2);
+            index = slabCount++;
+        }
+        slabs[index] = slab;
+        reservedBytes.addAndGet(capacity);
+        return index;
+    }
+
+    private synchronized void releaseSlab(int index) {
+        reservedBytes.addAndGet(-slabs[index].buffer.capacity());
+        slabs[index] = null;
+        if (freeSlabCount == freeSlabs.length) freeSlabs = Arrays.copyOf(freeSlabs, freeSlabs.length * 2);
+        freeSlabs[freeSlabCount++] = index;
+    }
+
+    private static int classOf(int size) {
+        int rounded = Math.max(size, MIN_SLOT_SIZE);
+        return 32 - Integer.numberOfLeadingZeros(rounded - 1) - Integer.numberOfTrailingZeros(MIN_SLOT_SIZE);
+    }
+
+    private static long handle(int slabIndex, int offset) {
+        return ((long) slabIndex << 32) | (offset & 0xFFFFFFFFL);
+    }
+
+    private static int slabIndex(long handle) {
+        return (int) (handle >>> 32);
+    }
+
+    private static int offset(long handle) {
+        return (int) handle;
+    }
+
+    /**
+     * Slots of one size, handed out from a free list of released slots first and from the current slab otherwise
+     */
+    private final class SizeClass {
+        private final int index;
+        private final int slotSize;
+        private long[] free;
+        private int freeCount;
+        private int currentSlab;
+        private int nextOffset;
+
+        private SizeClass(int index, int slotSize) {
+            this.index = index;
+            this.slotSize = slotSize;
+            free = new long[16];
+            currentSlab = -1;
+        }
+
+        private synchronized long allocate() {
+            if (freeCount > 0) return free[--freeCount];
+            if (currentSlab < 0 || nextOffset + slotSize > SLAB_SIZE) {
+                currentSlab = addSlab(index, slotSize);
+                nextOffset = 0;
+            }
+            long handle = handle(currentSlab, nextOffset);
+            nextOffset += slotSize;
+            return handle;
+        }
+
+        private synchronized void release(long handle) {
+            if (freeCount == free.length) free = Arrays.copyOf(free, free.length * 2);
+            free[freeCount++] = handle;
+        }
+    }
+
+    /**
+     * Reference to a stored value, compared by identity
+     */
+    private static final class Handle {
+        private final long value;
+
+        private Handle(long value) {
+            this.value = value;
+        }
+    }
+
+    /**
+     * @param sizeClass index of the size class whose slots the slab holds, or -1 if it holds a single large value
+     */
+    private record Slab(ByteBuffer buffer, int sizeClass, int slotSize) {
+    }
+
+    private static final int MIN_SLOT_SIZE = 16;
+    private static final int MAX_SLOT_SIZE = 1024 * 1024;
+    private static final int SLAB_SIZE = 4 * 1024 * 1024;
+    private static final int INITIAL_SLAB_CAPACITY = 64;
+}
@@ -0,0 +1,132 @@
+package com.github.aayushjn.keyvaluestore.storage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+/**
+ * Compacted image of a store: a header naming the first log segment to replay on top of it, one record per entry, and
+ * an end marker. A snapshot is written under a temporary name and atomically renamed, so the snapshot file is either
+ * absent or complete.
+ */
+final class Snapshots {
+    private Snapshots() {
+    }
+
+    /**
+     * Writes a snapshot of everything the source hands to its handler
+     * @param segmentId id of the first log segment that is not covered by the snapshot
+     */
+    static void write(Path dir, long segmentId, Consumer<EntryHandler> source) throws IOException {
+        Path tempFile = dir.resolve(SNAPSHOT_FILE + ".tmp");
+        try (FileChannel channel = FileChannel.open(
+            tempFile,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING
+        )) {
+            SnapshotWriter writer = new SnapshotWriter(channel);
+            writer.buf.putInt(MAGIC).putInt(VERSION).putLong(segmentId);
+            try {
+                source.accept(writer);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            writer.append(LogRecords.END, null, null);
+            writer.drain();
+            channel.force(true);
+        }
+        Files.move(tempFile, dir.resolve(SNAPSHOT_FILE), StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory(dir);
+    }
+
+    /**
+     * Loads a snapshot into the handler
+     * @return id of the first log segment to replay on top of the snapshot, or 0 if there is no snapshot
+     */
+    static long read(Path dir, MutationHandler handler) throws IOException {
+        Path file = dir.resolve(SNAPSHOT_FILE);
+        if (!Files.exists(file)) return 0;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+                // keep reading until the header is complete
+            }
+            header.flip();
+            if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException("not a snapshot file: " + file);
+            }
+            long segmentId = header.getLong();
+            if (!LogRecords.replay(channel, HEADER_SIZE, handler).ended()) {
+                throw new IOException("snapshot is corrupt: " + file);
+            }
+            return segmentId;
+        }
+    }
+
+    /**
+     * Makes the rename of the snapshot durable. Not every platform can open a directory, in which case the rename is
+     * left to the file system.
+     */
+    private static void syncDirectory(Path dir) {
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException ignored) {
+            // directories cannot be synced on this platform
+        }
+    }
+
+    /**
+     * Encodes records into a buffer that is written out whenever it fills up
+     */
+    private static final class SnapshotWriter implements EntryHandler {
+        private final FileChannel channel;
+        private ByteBuffer buf;
+
+        private SnapshotWriter(FileChannel channel) {
+            this.channel = channel;
+            buf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+
+        private void append(byte op, String first, Object second) {
+            buf = LogRecords.write(buf, op, first, second);
+            if (buf.position() >= BUFFER_SIZE) {
+                try {
+                    drain();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+
+        private void drain() throws IOException {
+            buf.flip();
+            while (buf.hasRemaining()) {
+                channel.write(buf);
+            }
+            buf.clear();
+        }
+
+        @Override
+        public void put(String key, Object value) {
+            append(LogRecords.PUT, key, value);
+        }
+
+        @Override
+        public void putPeer(String key, String peer) {
+            append(LogRecords.PUT_PEER, key, peer);
+        }
+    }
+
+    static final String SNAPSHOT_FILE = "snapshot.dat";
+    private static final int MAGIC = 0x4b565353;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 2 * Integer.BYTES + Long.BYTES;
+    private static final int BUFFER_SIZE = 1024 * 1024;
+}
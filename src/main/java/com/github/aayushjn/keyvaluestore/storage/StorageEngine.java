@@ -0,0 +1,151 @@
+package com.github.aayushjn.keyvaluestore.storage;
+
+import com.github.aayushjn.keyvaluestore.model.Store;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * Durable storage under a {@link Store}: a write-ahead log of every mutation plus periodic compacted snapshots
+ * <p>
+ * Once the current log segment grows past {@link #COMPACTION_THRESHOLD} bytes, the log is rotated, the whole store is
+ * written to a new snapshot and the segments it covers are deleted. The store keeps accepting writes meanwhile, so a
+ * snapshot may already contain some of the mutations of the segments that follow it; replaying those on top of it
+ * still yields the same final state, since every record sets or removes a single entry.
+ */
+public class StorageEngine implements Closeable {
+    private final Path dir;
+    private final Store store;
+    private final WriteAheadLog wal;
+    private final ScheduledExecutorService compactor;
+
+    private StorageEngine(Path dir, Store store, WriteAheadLog wal) {
+        this.dir = dir;
+        this.store = store;
+        this.wal = wal;
+        compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "snapshot-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        compactor.scheduleWithFixedDelay(
+            this::compactIfNeeded,
+            COMPACTION_CHECK_MILLIS,
+            COMPACTION_CHECK_MILLIS,
+            TimeUnit.MILLISECONDS
+        );
+    }
+
+    /**
+     * Recovers the contents of the data directory into an empty store and logs every later mutation of the store
+     * @param intervalMillis how often the log is written out, and forced under {@link FsyncPolicy#INTERVAL}
+     */
+    public static StorageEngine open(
+        Path dir,
+        FsyncPolicy policy,
+        long intervalMillis,
+        Store store
+    ) throws IOException {
+        Files.createDirectories(dir);
+        long startTime = System.nanoTime();
+        MutationHandler restorer = store.restorer();
+        long firstSegment = Snapshots.read(dir, restorer);
+        long nextSegment = firstSegment;
+        for (long id : listSegments(dir)) {
+            Path segment = WriteAheadLog.segmentPath(dir, id);
+            if (id < firstSegment) {
+                // left behind by a compaction that was interrupted after its snapshot was written
+                Files.delete(segment);
+                continue;
+            }
+            try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                long validLength = LogRecords.replay(channel, 0, restorer).validLength();
+                if (validLength < channel.size()) {
+                    logger.warning(() -> "discarding torn tail of " + segment + " at offset " + validLength);
+                    channel.truncate(validLength);
+                }
+            }
+            nextSegment = id + 1;
+        }
+        long elapsed = System.nanoTime() - startTime;
+        logger.info(() -> "recovered " + dir + " in " + (elapsed / 1000000.0) + " ms");
+
+        WriteAheadLog wal = new WriteAheadLog(dir, nextSegment, policy, intervalMillis);
+        store.attach(wal);
+        return new StorageEngine(dir, store, wal);
+    }
+
+    /**
+     * Writes a snapshot of the store and deletes the log segments it covers
+     */
+    public synchronized void snapshot() throws IOException {
+        long segmentId = wal.rotate();
+        Snapshots.write(dir, segmentId, store::dump);
+        for (long id : listSegments(dir)) {
+            if (id < segmentId) Files.deleteIfExists(WriteAheadLog.segmentPath(dir, id));
+        }
+    }
+
+    private void compactIfNeeded() {
+        if (wal.getSegmentBytes() < COMPACTION_THRESHOLD) return;
+        try {
+            snapshot();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, e, e::getMessage);
+        }
+    }
+
+    private static List<Long> listSegments(Path dir) throws IOException {
+        String prefix = WriteAheadLog.SEGMENT_PREFIX;
+        String suffix = WriteAheadLog.SEGMENT_SUFFIX;
+        try (Stream<Path> files = Files.list(dir)) {
+            return files
+                .map(path -> path.getFileName().toString())
+                .filter(name -> name.startsWith(prefix) && name.endsWith(suffix))
+                .map(name -> name.substring(prefix.length(), name.length() - suffix.length()))
+                .filter(id -> !id.isEmpty() && id.chars().allMatch(Character::isDigit))
+                .map(Long::parseLong)
+                .sorted()
+                .toList();
+        }
+    }
+
+    /**
+     * Stops logging the store, then writes a final snapshot so that the next start has no log to replay
+     */
+    @Override
+    public void close() throws IOException {
+        compactor.shutdownNow();
+        try {
+            compactor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for compaction");
+        }
+        store.attach(null);
+        try {
+            snapshot();
+        } finally {
+            wal.close();
+        }
+    }
+
+    /**
+     * Size of the current log segment that triggers a compaction
+     */
+    private static final long COMPACTION_THRESHOLD = 64L * 1024 * 1024;
+    private static final long COMPACTION_CHECK_MILLIS = 1000;
+    private static final Logger logger = Logger.getLogger(StorageEngine.class.getName());
+}
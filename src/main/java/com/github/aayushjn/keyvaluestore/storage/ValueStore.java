@@ -0,0 +1,24 @@
+package com.github.aayushjn.keyvaluestore.storage;
+
+/**
+ * Holds the values of a store on its behalf. The store keeps only the reference returned by {@link #store(Object)} in
+ * its index and turns it back into the value with {@link #load(Object)}.
+ */
+public interface ValueStore {
+    /**
+     * @return reference to the stored value, which is released once it is no longer in the index; if
+     * {@link #reusesMemory()}, it is a new object on every call, as the index is checked by reference identity
+     */
+    Object store(Object value);
+
+    /**
+     * Reads a stored value. If {@link #reusesMemory()}, the reference may have been released concurrently, in which
+     * case the result is undefined or an exception is thrown, and the caller must check that the reference is still
+     * in its index after loading.
+     */
+    Object load(Object ref);
+
+    void release(Object ref);
+
+    boolean reusesMemory();
+}
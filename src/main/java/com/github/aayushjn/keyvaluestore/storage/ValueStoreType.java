@@ -0,0 +1,28 @@
+package com.github.aayushjn.keyvaluestore.storage;
+
+/**
+ * Where a store keeps its values
+ */
+public enum ValueStoreType {
+    /**
+     * Values are ordinary heap objects
+     */
+    HEAP {
+        @Override
+        public ValueStore newValueStore() {
+            return new HeapValueStore();
+        }
+    },
+    /**
+     * Value bytes live in off-heap slabs and the heap only holds a handle per key, so large data sets add little work
+     * for the garbage collector
+     */
+    OFFHEAP {
+        @Override
+        public ValueStore newValueStore() {
+            return new OffHeapValueStore();
+        }
+    };
+
+    public abstract ValueStore newValueStore();
+}
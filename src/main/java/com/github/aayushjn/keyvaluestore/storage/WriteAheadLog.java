@@ -0,0 +1,247 @@
+package com.github.aayushjn.keyvaluestore.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Append-only log of store mutations, split into numbered segment files
+ * <p>
+ * Appending only encodes the record into an in-memory buffer and assigns it a sequence number. A single flusher thread
+ * swaps that buffer for an empty one, writes it out and forces it, so every record appended while one fsync is in
+ * progress is made durable by the next one (group commit). Under {@link FsyncPolicy#ALWAYS} writers wait for the fsync
+ * covering their record through {@link #awaitDurable(long)}; under the other policies they never wait.
+ */
+public class WriteAheadLog implements Closeable {
+    private final Path dir;
+    private final FsyncPolicy policy;
+    private final long intervalMillis;
+    private final Thread flusher;
+
+    // guarded by this
+    private ByteBuffer active;
+    private ByteBuffer flushing;
+    private long appendedSeq;
+    private long durableSeq;
+    private CompletableFuture<Long> rotation;
+    private IOException failure;
+    private boolean closed;
+
+    // owned by the flusher thread
+    private FileChannel channel;
+    private long segmentId;
+    private volatile long segmentBytes;
+
+    WriteAheadLog(Path dir, long segmentId, FsyncPolicy policy, long intervalMillis) throws IOException {
+        this.dir = dir;
+        this.policy = policy;
+        this.intervalMillis = intervalMillis;
+        active = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+        flushing = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+        openSegment(segmentId);
+
+        flusher = new Thread(this::runFlusher, "wal-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    public long appendPut(String key, Object value) {
+        return append(LogRecords.PUT, key, value);
+    }
+
+    public long appendDelete(String key) {
+        return append(LogRecords.DELETE, key, null);
+    }
+
+    public long appendPutPeer(String key, String peer) {
+        return append(LogRecords.PUT_PEER, key, peer);
+    }
+
+    public long appendRemovePeerForKey(String key) {
+        return append(LogRecords.REMOVE_PEER_FOR_KEY, key, null);
+    }
+
+    public long appendRemovePeer(String peer) {
+        return append(LogRecords.REMOVE_PEER, peer, null);
+    }
+
+    private synchronized long append(byte op, String first, Object second) {
+        if (failure != null) throw new UncheckedIOException("write-ahead log has failed", failure);
+        if (closed) throw new IllegalStateException("write-ahead log is closed");
+        active = LogRecords.write(active, op, first, second);
+        appendedSeq++;
+        if (policy == FsyncPolicy.ALWAYS || active.position() >= FLUSH_THRESHOLD) notifyAll();
+        return appendedSeq;
+    }
+
+    /**
+     * Blocks until the record with the given sequence number has been forced to disk, if the policy requires it
+     * @throws UncheckedIOException if the log failed or the wait was interrupted before the record became durable
+     */
+    public void awaitDurable(long seq) {
+        if (policy != FsyncPolicy.ALWAYS) return;
+        synchronized (this) {
+            while (durableSeq < seq) {
+                if (failure != null) throw new UncheckedIOException("write-ahead log has failed", failure);
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new UncheckedIOException(new InterruptedIOException("interrupted while waiting for fsync"));
+                }
+            }
+        }
+    }
+
+    /**
+     * Closes the current segment and starts a new one. Every record appended before this call is in an older segment.
+     * @return id of the new segment
+     */
+    public long rotate() throws IOException {
+        CompletableFuture<Long> future;
+        synchronized (this) {
+            if (failure != null) throw failure;
+            if (closed) throw new IOException("write-ahead log is closed");
+            if (rotation == null) rotation = new CompletableFuture<>();
+            future = rotation;
+            notifyAll();
+        }
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while rotating the log");
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ioe ? ioe : new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * @return number of bytes written to the current segment
+     */
+    public long getSegmentBytes() {
+        return segmentBytes;
+    }
+
+    private void runFlusher() {
+        try {
+            boolean stop;
+            do {
+                ByteBuffer batch;
+                long seq;
+                CompletableFuture<Long> pendingRotation;
+                synchronized (this) {
+                    if (policy == FsyncPolicy.ALWAYS) {
+                        while (!closed && rotation == null && active.position() == 0) {
+                            wait();
+                        }
+                    } else if (!closed && rotation == null && active.position() < FLUSH_THRESHOLD) {
+                        wait(intervalMillis);
+                    }
+                    batch = active;
+                    active = flushing;
+                    flushing = batch;
+                    seq = appendedSeq;
+                    pendingRotation = rotation;
+                    rotation = null;
+                    stop = closed;
+                }
+
+                if (batch.position() > 0) {
+                    batch.flip();
+                    segmentBytes += batch.remaining();
+                    while (batch.hasRemaining()) {
+                        channel.write(batch);
+                    }
+                    if (policy != FsyncPolicy.NEVER) channel.force(false);
+                }
+                if (batch.capacity() > MAX_RETAINED_BUFFER_SIZE) {
+                    // do not hold on to the buffer a burst of writes has grown
+                    batch = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+                }
+                batch.clear();
+
+                if (pendingRotation != null) {
+                    channel.force(false);
+                    channel.close();
+                    openSegment(segmentId + 1);
+                    pendingRotation.complete(segmentId);
+                }
+
+                synchronized (this) {
+                    flushing = batch;
+                    durableSeq = seq;
+                    notifyAll();
+                }
+            } while (!stop);
+            channel.force(false);
+            channel.close();
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, e, e::getMessage);
+            fail(e);
+        } catch (InterruptedException e) {
+            fail(new InterruptedIOException("write-ahead log flusher was interrupted"));
+        }
+    }
+
+    private synchronized void fail(IOException e) {
+        failure = e;
+        if (rotation != null) rotation.completeExceptionally(e);
+        notifyAll();
+    }
+
+    private void openSegment(long id) throws IOException {
+        segmentId = id;
+        segmentBytes = 0;
+        channel = FileChannel.open(
+            segmentPath(dir, id),
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING
+        );
+    }
+
+    /**
+     * Flushes and forces every appended record before closing the log
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            notifyAll();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while closing the log");
+        }
+        synchronized (this) {
+            if (failure != null) throw failure;
+        }
+    }
+
+    static Path segmentPath(Path dir, long id) {
+        return dir.resolve(String.format("%s%016d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+    }
+
+    static final String SEGMENT_PREFIX = "wal-";
+    static final String SEGMENT_SUFFIX = ".log";
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_RETAINED_BUFFER_SIZE = 4 * 1024 * 1024;
+    /**
+     * Buffered bytes at which the flusher is woken up early, whatever the policy
+     */
+    private static final int FLUSH_THRESHOLD = 1024 * 1024;
+    private static final Logger logger = Logger.getLogger(WriteAheadLog.class.getName());
+}
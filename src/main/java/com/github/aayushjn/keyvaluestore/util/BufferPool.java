@@ -0,0 +1,49 @@
+package com.github.aayushjn.keyvaluestore.util;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded pool of equally sized direct buffers. Buffers are allocated lazily and returned to the pool once released;
+ * buffers released beyond the pool's capacity are left for the garbage collector.
+ */
+public class BufferPool {
+    private final Queue<ByteBuffer> free;
+    private final AtomicInteger pooled;
+    private final int bufferSize;
+    private final int capacity;
+
+    public BufferPool(int bufferSize, int capacity) {
+        this.bufferSize = bufferSize;
+        this.capacity = capacity;
+        free = new ConcurrentLinkedQueue<>();
+        pooled = new AtomicInteger(0);
+    }
+
+    /**
+     * @return a cleared buffer of {@link #getBufferSize()} bytes
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buf = free.poll();
+        if (buf == null) {
+            return ByteBuffer.allocateDirect(bufferSize);
+        }
+        pooled.decrementAndGet();
+        return buf.clear();
+    }
+
+    public void release(ByteBuffer buf) {
+        if (buf.capacity() != bufferSize || !buf.isDirect()) return;
+        if (pooled.incrementAndGet() <= capacity) {
+            free.offer(buf);
+        } else {
+            pooled.decrementAndGet();
+        }
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+}
@@ -0,0 +1,117 @@
+package com.github.aayushjn.keyvaluestore.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Immutable consistent-hash ring that assigns every key to one of a set of members
+ * <p>
+ * Each member is placed on the ring at a number of pseudo-random points, its virtual nodes, and a key belongs to the
+ * member owning the first point at or after the hash of the key. Removing a member only reassigns the keys it owned,
+ * spread evenly over the remaining members, while every other key keeps its owner. Lookups are a binary search over the
+ * sorted points.
+ * <p>
+ * Walking on from the owner yields the other members in an order of preference that is also stable under removal:
+ * removing a member leaves the order of the others unchanged, so the next member in line takes over its keys.
+ */
+public final class HashRing {
+    private final long[] points;
+    private final String[] owners;
+    private final List<String> members;
+    private final int virtualNodes;
+
+    public HashRing(Collection<String> members) {
+        this(members, DEFAULT_VIRTUAL_NODES);
+    }
+
+    /**
+     * @param virtualNodes number of points every member is placed at
+     */
+    public HashRing(Collection<String> members, int virtualNodes) {
+        if (members.isEmpty()) throw new IllegalArgumentException("ring must have at least one member");
+        this.members = List.copyOf(members);
+        this.virtualNodes = virtualNodes;
+
+        int count = this.members.size() * virtualNodes;
+        long[] unsortedPoints = new long[count];
+        Integer[] order = new Integer[count];
+        for (int m = 0; m < this.members.size(); m++) {
+            for (int v = 0; v < virtualNodes; v++) {
+                int i = m * virtualNodes + v;
+                unsortedPoints[i] = hash(this.members.get(m) + "#" + v);
+                order[i] = i;
+            }
+        }
+        // ties are broken by member name, so that every node builds the same ring from the same members
+        Arrays.sort(order, (a, b) -> {
+            int cmp = Long.compare(unsortedPoints[a], unsortedPoints[b]);
+            return cmp != 0 ? cmp : this.members.get(a / virtualNodes).compareTo(this.members.get(b / virtualNodes));
+        });
+        points = new long[count];
+        owners = new String[count];
+        for (int i = 0; i < count; i++) {
+            points[i] = unsortedPoints[order[i]];
+            owners[i] = this.members.get(order[i] / virtualNodes);
+        }
+    }
+
+    public String getOwner(String key) {
+        int index = Arrays.binarySearch(points, hash(key));
+        if (index < 0) index = -index - 1;
+        return owners[index == points.length ? 0 : index];
+    }
+
+    /**
+     * Walks the ring from the point of the key, collecting members in the order their points are met
+     * @return up to `count` distinct members, the first of which is the owner of the key
+     */
+    public List<String> getOwners(String key, int count) {
+        count = Math.min(count, members.size());
+        List<String> owners = new ArrayList<>(count);
+        int index = Arrays.binarySearch(points, hash(key));
+        if (index < 0) index = -index - 1;
+        for (int i = 0; i < points.length && owners.size() < count; i++) {
+            String owner = this.owners[(index + i) % points.length];
+            if (!owners.contains(owner)) owners.add(owner);
+        }
+        return owners;
+    }
+
+    /**
+     * @return ring without the member, or this ring if it is not a member or the only one
+     */
+    public HashRing without(String member) {
+        if (!members.contains(member) || members.size() == 1) return this;
+        List<String> remaining = new ArrayList<>(members);
+        remaining.remove(member);
+        return new HashRing(remaining, virtualNodes);
+    }
+
+    public List<String> getMembers() {
+        return members;
+    }
+
+    /**
+     * 64-bit FNV-1a over the characters of the string, followed by the MurmurHash3 finalizer so that similar strings,
+     * such as the virtual nodes of one member, land far apart
+     */
+    static long hash(String s) {
+        long h = FNV_OFFSET_BASIS;
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= FNV_PRIME;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    public static final int DEFAULT_VIRTUAL_NODES = 256;
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+}
@@ -0,0 +1,167 @@
+package com.github.aayushjn.keyvaluestore.util;
+
+import java.io.Serial;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiPredicate;
+import java.util.function.ToIntBiFunction;
+
+/**
+ * Cache bounded by the total weight of its entries, evicting the least recently used entries first, whose entries also
+ * expire a fixed time after they were added
+ * <p>
+ * The cache is split into segments by key hash, each guarded by its own lock, so that concurrent reads of different
+ * keys rarely contend. Each segment gets an equal share of the weight budget.
+ * @param <K> type of keys
+ * @param <V> type of values
+ */
+public class LruCache<K, V> {
+    private final Segment<K, V>[] segments;
+    private final ToIntBiFunction<K, V> weigher;
+    private final long ttlNanos;
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final LongAdder evictions;
+
+    /**
+     * @param ttlMillis time after which entries expire, or 0 if they never do
+     * @param weigher   weight of an entry, e.g. its approximate size in bytes
+     */
+    @SuppressWarnings("unchecked")
+    public LruCache(long maxWeight, long ttlMillis, ToIntBiFunction<K, V> weigher) {
+        this.weigher = weigher;
+        ttlNanos = ttlMillis * 1000000;
+        segments = (Segment<K, V>[]) new Segment<?, ?>[SEGMENT_COUNT];
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            segments[i] = new Segment<>(Math.max(maxWeight / SEGMENT_COUNT, 1));
+        }
+        hits = new LongAdder();
+        misses = new LongAdder();
+        evictions = new LongAdder();
+    }
+
+    /**
+     * @return the cached value, or null if there is none or it has expired
+     */
+    public V get(K key) {
+        Segment<K, V> segment = segmentFor(key);
+        V value;
+        synchronized (segment) {
+            Entry<V> entry = segment.get(key);
+            if (entry != null && ttlNanos > 0 && System.nanoTime() - entry.expiresAt > 0) {
+                segment.remove(key);
+                segment.weight -= entry.weight;
+                entry = null;
+            }
+            value = entry == null ? null : entry.value;
+        }
+        (value == null ? misses : hits).increment();
+        return value;
+    }
+
+    /**
+     * @return stamp to pass to {@link #put(Object, Object, long)} once the value of the key has been loaded
+     */
+    public long stamp(K key) {
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            return segment.invalidations;
+        }
+    }
+
+    /**
+     * Caches the value unless an entry of the same segment was invalidated since the stamp was taken, in which case the
+     * loaded value may already be out of date
+     */
+    public void put(K key, V value, long stamp) {
+        int weight = weigher.applyAsInt(key, value);
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            if (segment.invalidations != stamp || weight > segment.maxWeight) return;
+            Entry<V> previous = segment.put(key, new Entry<>(value, weight, System.nanoTime() + ttlNanos));
+            if (previous != null) segment.weight -= previous.weight;
+            segment.weight += weight;
+
+            Iterator<Entry<V>> iterator = segment.values().iterator();
+            while (segment.weight > segment.maxWeight && iterator.hasNext()) {
+                segment.weight -= iterator.next().weight;
+                iterator.remove();
+                evictions.increment();
+            }
+        }
+    }
+
+    public void invalidate(K key) {
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            segment.invalidations++;
+            Entry<V> entry = segment.remove(key);
+            if (entry != null) segment.weight -= entry.weight;
+        }
+    }
+
+    /**
+     * Removes every entry that matches the predicate. Every entry is visited, so this is only meant for rare events.
+     */
+    public void invalidateIf(BiPredicate<K, V> predicate) {
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                segment.invalidations++;
+                Iterator<Map.Entry<K, Entry<V>>> iterator = segment.entrySet().iterator();
+                while (iterator.hasNext()) {
+                    Map.Entry<K, Entry<V>> entry = iterator.next();
+                    if (predicate.test(entry.getKey(), entry.getValue().value)) {
+                        segment.weight -= entry.getValue().weight;
+                        iterator.remove();
+                    }
+                }
+            }
+        }
+    }
+
+    public Stats getStats() {
+        long size = 0;
+        long weight = 0;
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+                weight += segment.weight;
+            }
+        }
+        return new Stats(hits.sum(), misses.sum(), evictions.sum(), size, weight);
+    }
+
+    private Segment<K, V> segmentFor(K key) {
+        int hash = key.hashCode();
+        return segments[(hash ^ (hash >>> 16)) & (SEGMENT_COUNT - 1)];
+    }
+
+    public record Stats(long hits, long misses, long evictions, long size, long weight) {
+        public double hitRatio() {
+            long requests = hits + misses;
+            return requests == 0 ? 0 : (double) hits / requests;
+        }
+    }
+
+    private record Entry<V>(V value, int weight, long expiresAt) {
+    }
+
+    /**
+     * Access-ordered map of a share of the entries, so that iteration starts from the least recently used one
+     */
+    private static final class Segment<K, V> extends LinkedHashMap<K, Entry<V>> {
+        @Serial private static final long serialVersionUID = 20261018101500L;
+        private final long maxWeight;
+        private long weight;
+        private long invalidations;
+
+        private Segment(long maxWeight) {
+            super(16, 0.75f, true);
+            this.maxWeight = maxWeight;
+        }
+    }
+
+    private static final int SEGMENT_COUNT = 16;
+}
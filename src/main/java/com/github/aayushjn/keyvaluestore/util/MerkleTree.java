@@ -0,0 +1,81 @@
+package com.github.aayushjn.keyvaluestore.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Hash tree over a set of keys, which two nodes compare from the root down to find the few buckets of keys in which
+ * their sets differ
+ * <p>
+ * Keys are hashed into {@link #BUCKETS} buckets by the leading bits of their hash, and the hash of a bucket is the XOR
+ * of the hashes of its keys, so that adding or removing a key is a single update of its bucket in either order. The
+ * tree above the buckets has a fanout of {@link #FANOUT}, and the hash of a node is the XOR of the buckets below it,
+ * which is computed when it is asked for rather than kept up to date on every update. Level 0 is the root, and level
+ * {@link #DEPTH} holds the buckets.
+ * <p>
+ * Updates are lock-free, but the tree only matches its set of keys if every key is added or removed exactly once, so
+ * callers must only update it for keys they have actually added to or removed from their set.
+ */
+public class MerkleTree {
+    private final AtomicLongArray buckets;
+
+    public MerkleTree() {
+        buckets = new AtomicLongArray(BUCKETS);
+    }
+
+    /**
+     * Records a key as added to or removed from the set, which are the same update
+     */
+    public void toggle(String key) {
+        long h = HashRing.hash(key);
+        buckets.getAndAccumulate(bucketOf(h), h, (current, update) -> current ^ update);
+    }
+
+    public static int bucketOf(String key) {
+        return bucketOf(HashRing.hash(key));
+    }
+
+    private static int bucketOf(long hash) {
+        return (int) (hash >>> (Long.SIZE - BITS_PER_LEVEL * DEPTH));
+    }
+
+    /**
+     * @return hash of the node at the given index of a level, which is 0 for an empty subtree
+     * @throws IllegalArgumentException if there is no such node
+     */
+    public long hash(int level, int index) throws IllegalArgumentException {
+        if (level < 0 || level > DEPTH) throw new IllegalArgumentException("no level " + level);
+        int span = 1 << (BITS_PER_LEVEL * (DEPTH - level));
+        if (index < 0 || index >= BUCKETS / span) {
+            throw new IllegalArgumentException("no node " + index + " on level " + level);
+        }
+        long h = 0;
+        for (int i = index * span; i < (index + 1) * span; i++) {
+            h ^= buckets.get(i);
+        }
+        return h;
+    }
+
+    /**
+     * @return hashes of the children of each of the given nodes of a level, {@link #FANOUT} per node in the order of
+     * the nodes
+     * @throws IllegalArgumentException if the level holds the buckets, or any of the nodes does not exist
+     */
+    public long[] children(int level, int[] nodes) throws IllegalArgumentException {
+        if (level >= DEPTH) throw new IllegalArgumentException("buckets have no children");
+        long[] hashes = new long[nodes.length * FANOUT];
+        for (int i = 0; i < nodes.length; i++) {
+            if (nodes[i] < 0 || nodes[i] >= 1 << (BITS_PER_LEVEL * level)) {
+                throw new IllegalArgumentException("no node " + nodes[i] + " on level " + level);
+            }
+            for (int child = 0; child < FANOUT; child++) {
+                hashes[i * FANOUT + child] = hash(level + 1, nodes[i] * FANOUT + child);
+            }
+        }
+        return hashes;
+    }
+
+    private static final int BITS_PER_LEVEL = 4;
+    public static final int FANOUT = 1 << BITS_PER_LEVEL;
+    public static final int DEPTH = 3;
+    public static final int BUCKETS = 1 << (BITS_PER_LEVEL * DEPTH);
+}
@@ -0,0 +1,70 @@
+package com.github.aayushjn.keyvaluestore.util;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Optional command-line arguments of the form `name=value`, passed after the positional arguments
+ */
+public class Options {
+    private final Map<String, String> values;
+
+    private Options(Map<String, String> values) {
+        this.values = values;
+    }
+
+    public static Options parse(String[] args, int offset) throws IllegalArgumentException {
+        Map<String, String> values = new HashMap<>();
+        for (int i = offset; i < args.length; i++) {
+            int sepIndex = args[i].indexOf('=');
+            if (sepIndex <= 0) {
+                throw new IllegalArgumentException("option must be of the form name=value: " + args[i]);
+            }
+            values.put(args[i].substring(0, sepIndex).toLowerCase(Locale.ROOT), args[i].substring(sepIndex + 1));
+        }
+        return new Options(values);
+    }
+
+    public String get(String name, String defaultValue) {
+        return values.getOrDefault(name, defaultValue);
+    }
+
+    public int getInt(String name, int defaultValue) throws IllegalArgumentException {
+        String value = values.get(name);
+        if (value == null) return defaultValue;
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid value for " + name + ": " + value);
+        }
+    }
+
+    public double getDouble(String name, double defaultValue) throws IllegalArgumentException {
+        String value = values.get(name);
+        if (value == null) return defaultValue;
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid value for " + name + ": " + value);
+        }
+    }
+
+    public boolean getBoolean(String name, boolean defaultValue) throws IllegalArgumentException {
+        String value = values.get(name);
+        if (value == null) return defaultValue;
+        if (value.equalsIgnoreCase("true")) return true;
+        if (value.equalsIgnoreCase("false")) return false;
+        throw new IllegalArgumentException("invalid value for " + name + ": " + value);
+    }
+
+    public <E extends Enum<E>> E getEnum(String name, Class<E> type, E defaultValue) throws IllegalArgumentException {
+        String value = values.get(name);
+        if (value == null) return defaultValue;
+        try {
+            return Enum.valueOf(type, value.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("invalid value for " + name + ": " + value);
+        }
+    }
+}
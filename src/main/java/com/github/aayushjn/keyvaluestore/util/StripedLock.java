@@ -0,0 +1,29 @@
+package com.github.aayushjn.keyvaluestore.util;
+
+/**
+ * Fixed set of monitors that keys are hashed onto, so that operations on different keys rarely contend while
+ * operations on the same key are always serialized
+ */
+public class StripedLock {
+    private final Object[] locks;
+    private final int mask;
+
+    /**
+     * @param stripes minimum number of stripes, rounded up to a power of two
+     */
+    public StripedLock(int stripes) {
+        int size = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        locks = new Object[size];
+        for (int i = 0; i < size; i++) {
+            locks[i] = new Object();
+        }
+        mask = size - 1;
+    }
+
+    public Object lockFor(Object key) {
+        int h = key.hashCode();
+        // spread the higher bits downwards, as keys commonly differ only in their trailing characters
+        h ^= (h >>> 16);
+        return locks[h & mask];
+    }
+}